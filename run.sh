@@ -14,4 +14,10 @@ if [ ! -d "$DIR" ]; then
     echo "MAKE JAR: done\n"
 fi
 
+# the client only talks to the daemon: a JVM that starts fast is enough
+if [ "$1" = "--client" ]; then
+    shift
+    exec java -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -Xshare:auto -jar $JAR "$@" --client
+fi
+
 java -jar $JAR "$@"
\ No newline at end of file
@@ -0,0 +1,216 @@
+package com.unibo.ci;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.unibo.ci.svm.Execution;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.OutputSink;
+import com.unibo.ci.svm.RunResult;
+import com.unibo.ci.svm.SVM;
+
+/**
+ * Compiles, and optionally runs, every source of a directory on a
+ * work-stealing pool, then prints the status and the times of every file
+ * and a summary.
+ *
+ * Every compilation has its own context (see {@link Compiler}), so the files
+ * are compiled in parallel; the output of the programs is discarded.
+ */
+final class Batch {
+	private static final String EXTENSION = ".slp";
+
+	private final CompileOptions options;
+	private final Limits limits; // null to compile only
+	private final String engine;
+	private final int jitThreshold;
+	private final int threads;
+
+	/**
+	 * @param limits       limits of every run, null to only compile the files
+	 * @param engine       engine of the runs, see {@link SVM#setEngine}
+	 * @param jitThreshold see {@link SVM#setJitThreshold}
+	 */
+	Batch(CompileOptions options, Limits limits, String engine, int jitThreshold, int threads) {
+		this.options = options;
+		this.limits = limits;
+		this.engine = engine;
+		this.jitThreshold = jitThreshold;
+		this.threads = threads;
+	}
+
+	/**
+	 * Processes the sources under the directory, in its subdirectories too.
+	 *
+	 * @return the files that did not compile or did not halt
+	 */
+	int run(Path directory, PrintStream out) throws IOException {
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(directory)) {
+			files = walk.filter(p -> p.toString().endsWith(EXTENSION) && Files.isRegularFile(p)).sorted()
+					.collect(Collectors.toList());
+		}
+		Entry[] entries = new Entry[files.size()];
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new Slice(files, entries, 0, entries.length));
+		} finally {
+			pool.shutdown();
+		}
+		long elapsed = System.nanoTime() - start;
+		return summary(directory, entries, elapsed, out);
+	}
+
+	/**
+	 * Files of [from, to), split in halves that idle threads can steal.
+	 */
+	private final class Slice extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Path> files;
+		private final Entry[] entries;
+		private final int from;
+		private final int to;
+
+		Slice(List<Path> files, Entry[] entries, int from, int to) {
+			this.files = files;
+			this.entries = entries;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (from < to)
+					entries[from] = process(files.get(from));
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Slice(files, entries, from, middle), new Slice(files, entries, middle, to));
+		}
+	}
+
+	private Entry process(Path file) {
+		Entry entry = new Entry(file);
+		long start = System.nanoTime();
+		CompileResult result;
+		try {
+			result = Compiler.compile(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), options);
+		} catch (IOException | RuntimeException e) {
+			entry.status = e instanceof IOException ? "IO_ERROR" : "CRASH";
+			entry.message = e.toString();
+			return entry;
+		} finally {
+			entry.compileTime = System.nanoTime() - start;
+		}
+		for (Diagnostic d : result.getDiagnostics()) {
+			if (d.isError()) {
+				if (entry.status == null) {
+					entry.status = d.getKind().name();
+					entry.message = d.toString();
+				}
+				entry.errors++;
+			} else {
+				entry.warnings++;
+			}
+		}
+		if (entry.status != null)
+			return entry;
+		if (limits == null) {
+			entry.status = "OK";
+			entry.ok = true;
+			return entry;
+		}
+		start = System.nanoTime();
+		try (Execution execution = result.getProgram().newExecution(limits, new Discard())) {
+			execution.getVM().setEngine(engine);
+			execution.getVM().setJitThreshold(jitThreshold);
+			RunResult run = execution.run();
+			entry.status = run.getStatus().name();
+			entry.ok = run.isHalted();
+			entry.fuel = run.getFuel();
+			if (!run.isHalted())
+				entry.message = run.toString();
+		} catch (RuntimeException e) {
+			entry.status = "CRASH";
+			entry.message = e.toString();
+		} finally {
+			entry.runTime = System.nanoTime() - start;
+		}
+		return entry;
+	}
+
+	private int summary(Path directory, Entry[] entries, long elapsed, PrintStream out) {
+		Map<String, Integer> statuses = new TreeMap<>();
+		long compileTime = 0, runTime = 0;
+		int failed = 0, warnings = 0;
+		out.println(String.format("%-18s %10s %10s %14s  %s", "Status", "Compile ms", "Run ms", "Fuel",
+				"File"));
+		for (Entry e : entries) {
+			boolean ran = e.runTime > 0;
+			out.println(String.format("%-18s %10.1f %10s %14s  %s", e.status, e.compileTime / 1e6,
+					ran ? String.format("%.1f", e.runTime / 1e6) : "-", ran ? String.valueOf(e.fuel) : "-",
+					directory.relativize(e.file)));
+			if (!e.ok)
+				out.println("    " + e.message + (e.errors > 1 ? " (+" + (e.errors - 1) + " errors)" : ""));
+			statuses.merge(e.status, 1, Integer::sum);
+			compileTime += e.compileTime;
+			runTime += e.runTime;
+			warnings += e.warnings;
+			if (!e.ok)
+				failed++;
+		}
+		out.println();
+		out.println("Files: " + entries.length + ", ok " + (entries.length - failed) + ", failed " + failed
+				+ ", warnings " + warnings + " " + statuses);
+		out.println(String.format("Time: %d ms on %d threads, %.1f files/s (compile %d ms, run %d ms in total)",
+				elapsed / 1000000, threads, entries.length / Math.max(elapsed / 1e9, 1e-9), compileTime / 1000000,
+				runTime / 1000000));
+		return failed;
+	}
+
+	private static final class Entry {
+		final Path file;
+		String status;
+		String message; // first error, or how the run ended
+		boolean ok = false;
+		int errors = 0;
+		int warnings = 0;
+		long compileTime = 0; // ns
+		long runTime = 0;
+		long fuel = 0;
+
+		Entry(Path file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Throws away the output of the programs.
+	 */
+	private static final class Discard implements OutputSink {
+		@Override
+		public void printInt(int value) {
+		}
+
+		@Override
+		public void printChar(int codePoint) {
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
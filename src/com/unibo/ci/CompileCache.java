@@ -0,0 +1,192 @@
+package com.unibo.ci;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.ProgramFile;
+
+/**
+ * Cache of the compilations, keyed by a SHA-256 of the source and of the
+ * options. The results are kept in memory up to a number of entries, the
+ * least recently used go first.
+ *
+ * With a directory the programs compiled without errors are also saved in
+ * the binary format (see {@link ProgramFile}) with their warnings, and
+ * loaded from there when they are not in memory. The results loaded from
+ * the directory have no AST, and the compilations that ask for the
+ * assembly text never use the directory.
+ *
+ * The cache can be shared by threads.
+ */
+public final class CompileCache {
+	private static final int VERSION = 1; // part of the key, changes with the code generator
+
+	private final int capacity;
+	private final Path directory;
+	private final Map<String, CompileResult> entries;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long diskHits = 0;
+	private long diskWrites = 0;
+
+	/**
+	 * @param capacity  results kept in memory
+	 * @param directory where the programs are saved, null to keep them only
+	 *                  in memory
+	 */
+	public CompileCache(int capacity, Path directory) {
+		this.capacity = capacity;
+		this.directory = directory;
+		entries = new LinkedHashMap<String, CompileResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompileResult> eldest) {
+				if (size() <= CompileCache.this.capacity)
+					return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Same as {@link Compiler#compile(String, CompileOptions)}, without
+	 * compiling again the sources already seen.
+	 */
+	public CompileResult compile(String source, CompileOptions options) {
+		String key = key(source, options);
+		synchronized (this) {
+			CompileResult result = entries.get(key);
+			if (result != null) {
+				hits++;
+				return result;
+			}
+		}
+		boolean disk = directory != null && !options.isAssembly();
+		CompileResult result = disk ? load(key) : null;
+		boolean loaded = result != null;
+		if (!loaded) {
+			result = Compiler.compile(source, options);
+			if (disk && result.isSuccess())
+				save(key, result);
+		}
+		synchronized (this) {
+			if (loaded)
+				diskHits++;
+			else
+				misses++;
+			entries.put(key, result);
+		}
+		return result;
+	}
+
+	private static String key(String source, CompileOptions options) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(new byte[] { VERSION, (byte) (options.isOptimize() ? 1 : 0),
+					(byte) (options.isAssembly() ? 1 : 0), (byte) (options.isComments() ? 1 : 0) });
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest(source.getBytes(StandardCharsets.UTF_8)))
+				key.append(String.format("%02x", b));
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every JVM has SHA-256
+		}
+	}
+
+	/**
+	 * @return the result saved in the directory, null if it is missing or
+	 *         cannot be read
+	 */
+	private CompileResult load(String key) {
+		Path program = directory.resolve(key + ProgramFile.EXTENSION);
+		Path warnings = directory.resolve(key + ".diag");
+		if (!Files.exists(program) || !Files.exists(warnings))
+			return null;
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(warnings))) {
+			List<Diagnostic> diagnostics = new ArrayList<>();
+			for (int i = in.readInt(); i > 0; i--)
+				diagnostics.add(new Diagnostic(Diagnostic.Kind.valueOf(in.readUTF()), in.readInt(), in.readInt(),
+						in.readUTF()));
+			return new CompileResult(ProgramFile.load(program.toString()), diagnostics, null, null, null);
+		} catch (IOException | IllegalArgumentException e) {
+			return null; // compiled again and overwritten
+		}
+	}
+
+	/**
+	 * Saves the program and its warnings, moving them in place when they are
+	 * complete. An error only costs a compilation the next time.
+	 */
+	private void save(String key, CompileResult result) {
+		try {
+			Files.createDirectories(directory);
+			Path temp = Files.createTempFile(directory, key, ".tmp");
+			try {
+				ProgramFile.write(result.getProgram(), temp.toString());
+				Files.move(temp, directory.resolve(key + ProgramFile.EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				temp = Files.createTempFile(directory, key, ".tmp");
+				try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+					out.writeInt(result.getDiagnostics().size());
+					for (Diagnostic d : result.getDiagnostics()) {
+						out.writeUTF(d.getKind().name());
+						out.writeInt(d.getRow());
+						out.writeInt(d.getCol());
+						out.writeUTF(d.getMessage());
+					}
+				}
+				// written last, a program without it is not loaded
+				Files.move(temp, directory.resolve(key + ".diag"), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+			synchronized (this) {
+				diskWrites++;
+			}
+		} catch (IOException e) {
+			// the cache works also without the directory
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized void printStats(PrintStream out) {
+		out.println("Compile cache");
+		out.println(String.format("  %-14s %10d", "entries", entries.size()));
+		out.println(String.format("  %-14s %10d", "hits", hits));
+		out.println(String.format("  %-14s %10d", "misses", misses));
+		out.println(String.format("  %-14s %10d", "evictions", evictions));
+		if (directory != null) {
+			out.println(String.format("  %-14s %10d", "disk hits", diskHits));
+			out.println(String.format("  %-14s %10d", "disk writes", diskWrites));
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.unibo.ci;
+
+/**
+ * Options of {@link Compiler#compile(String, CompileOptions)}. Instances are
+ * immutable, every with method returns a copy.
+ */
+public final class CompileOptions {
+	public static final CompileOptions DEFAULT = new CompileOptions(false, false, false);
+
+	private final boolean optimize;
+	private final boolean assembly;
+	private final boolean comments;
+
+	private CompileOptions(boolean optimize, boolean assembly, boolean comments) {
+		this.optimize = optimize;
+		this.assembly = assembly;
+		this.comments = comments;
+	}
+
+	/**
+	 * Runs the peephole optimizer on the generated code.
+	 */
+	public CompileOptions withOptimize(boolean optimize) {
+		return new CompileOptions(optimize, assembly, comments);
+	}
+
+	/**
+	 * Renders the assembly text, with the comments of the code generator if
+	 * comments is true.
+	 */
+	public CompileOptions withAssembly(boolean assembly, boolean comments) {
+		return new CompileOptions(optimize, assembly, comments);
+	}
+
+	public boolean isOptimize() {
+		return optimize;
+	}
+
+	public boolean isAssembly() {
+		return assembly;
+	}
+
+	public boolean isComments() {
+		return comments;
+	}
+}
@@ -0,0 +1,76 @@
+package com.unibo.ci;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.unibo.ci.ast.Node;
+import com.unibo.ci.svm.Peephole;
+import com.unibo.ci.svm.Program;
+
+/**
+ * Outcome of a compilation: the diagnostics and, if there are no errors,
+ * the program.
+ */
+public final class CompileResult {
+	private final Program program;
+	private final List<Diagnostic> diagnostics;
+	private final Node ast;
+	private final String assembly;
+	private final Peephole.Result optimization;
+
+	CompileResult(Program program, List<Diagnostic> diagnostics, Node ast, String assembly,
+			Peephole.Result optimization) {
+		this.program = program;
+		this.diagnostics = Collections.unmodifiableList(diagnostics);
+		this.ast = ast;
+		this.assembly = assembly;
+		this.optimization = optimization;
+	}
+
+	public boolean isSuccess() {
+		return program != null;
+	}
+
+	/**
+	 * @return the compiled program, null if there are errors
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * @return errors and warnings in the order they were found
+	 */
+	public List<Diagnostic> getDiagnostics() {
+		return diagnostics;
+	}
+
+	public boolean hasErrors(Diagnostic.Kind kind) {
+		for (Diagnostic d : diagnostics)
+			if (d.getKind() == kind)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return the abstract syntax tree, null if the source does not parse
+	 */
+	public Node getAst() {
+		return ast;
+	}
+
+	/**
+	 * @return the assembly of the program, null unless requested by the
+	 *         options; with the optimizer it has no comments
+	 */
+	public String getAssembly() {
+		return assembly;
+	}
+
+	/**
+	 * @return what the peephole optimizer did, null if it did not run
+	 */
+	public Peephole.Result getOptimization() {
+		return optimization;
+	}
+}
@@ -0,0 +1,107 @@
+package com.unibo.ci;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import com.unibo.ci.ast.Node;
+import com.unibo.ci.ast.SimpLanPlusVisitorImpl;
+import com.unibo.ci.ast.errors.EffectError;
+import com.unibo.ci.ast.errors.Error;
+import com.unibo.ci.ast.errors.SemanticError;
+import com.unibo.ci.ast.errors.Warning;
+import com.unibo.ci.parser.SimpLanPlusLexer;
+import com.unibo.ci.parser.SimpLanPlusParser;
+import com.unibo.ci.svm.CodeEmitter;
+import com.unibo.ci.svm.Instruction;
+import com.unibo.ci.svm.Peephole;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.util.CompilationContext;
+import com.unibo.ci.util.GammaEnv;
+import com.unibo.ci.util.SigmaEnv;
+import com.unibo.ci.util.TwoStageParser;
+
+/**
+ * Compiles SimpLanPlus sources to SVM programs without printing anything or
+ * exiting, the errors are returned as diagnostics.
+ *
+ * Every compilation keeps its errors, warnings and labels in its own
+ * {@link CompilationContext}, so any number of threads can compile at the
+ * same time; the programs can then be run by any number of threads, see
+ * {@link Program#newExecution}.
+ */
+public final class Compiler {
+	private Compiler() {
+	}
+
+	/**
+	 * Parses, checks semantics, types and effects, and generates the code;
+	 * the compilation stops at the first phase that finds errors.
+	 */
+	public static CompileResult compile(String source, CompileOptions options) {
+		List<Diagnostic> diagnostics = new ArrayList<>();
+		CompilationContext context = new CompilationContext(options);
+		BaseErrorListener syntaxErrors = new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+					int charPositionInLine, String msg, RecognitionException e) {
+				diagnostics.add(new Diagnostic(Diagnostic.Kind.SYNTAX, line, charPositionInLine, msg));
+			}
+		};
+		SimpLanPlusLexer lexer = new SimpLanPlusLexer(CharStreams.fromString(source));
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(syntaxErrors);
+		SimpLanPlusParser parser = new SimpLanPlusParser(new CommonTokenStream(lexer));
+		parser.removeErrorListeners();
+		parser.addErrorListener(syntaxErrors);
+		parser.setBuildParseTree(true);
+
+		ParseTree tree = TwoStageParser.parse(parser, SimpLanPlusParser::block);
+		if (!diagnostics.isEmpty())
+			return new CompileResult(null, diagnostics, null, null, null);
+
+		Node ast = new SimpLanPlusVisitorImpl(context).visit(tree);
+
+		for (SemanticError e : ast.checkSemantics(new GammaEnv()))
+			diagnostics.add(diagnostic(Diagnostic.Kind.SEMANTIC, e));
+		if (!diagnostics.isEmpty())
+			return new CompileResult(null, diagnostics, ast, null, null);
+
+		ast.typeCheck(context);
+		for (Error e : context.getTypeErrors())
+			diagnostics.add(diagnostic(Diagnostic.Kind.TYPE, e));
+		if (!diagnostics.isEmpty())
+			return new CompileResult(null, diagnostics, ast, null, null);
+
+		List<EffectError> effectErrors = ast.AnalyzeEffect(new SigmaEnv(), context);
+		for (Warning w : context.getWarnings())
+			diagnostics.add(diagnostic(Diagnostic.Kind.WARNING, w));
+		for (EffectError e : effectErrors)
+			diagnostics.add(diagnostic(Diagnostic.Kind.EFFECT, e));
+		if (!effectErrors.isEmpty())
+			return new CompileResult(null, diagnostics, ast, null, null);
+
+		CodeEmitter emitter = new CodeEmitter(options.isAssembly(), options.isComments());
+		ast.codeGeneration(emitter, context);
+		List<Instruction> code = emitter.getCode();
+		Peephole.Result optimization = null;
+		if (options.isOptimize()) {
+			optimization = Peephole.optimize(code, emitter.getLabels());
+			code = optimization.getCode();
+		}
+		Program program = Program.load(code, emitter.getLabels());
+		// the text must be what runs: after the optimizer it is rendered again
+		String assembly = optimization != null && options.isAssembly() ? program.toAssembly() : emitter.getAssembly();
+		return new CompileResult(program, diagnostics, ast, assembly, optimization);
+	}
+
+	private static Diagnostic diagnostic(Diagnostic.Kind kind, Error e) {
+		return new Diagnostic(kind, e.row, e.col, e.desc);
+	}
+}
@@ -0,0 +1,371 @@
+package com.unibo.ci;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.unibo.ci.svm.BufferedOutputSink;
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Execution;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.OutputSink;
+import com.unibo.ci.svm.ProgramFile;
+import com.unibo.ci.svm.RunResult;
+import com.unibo.ci.svm.SVM;
+
+/**
+ * Compiles and runs the sources sent by the clients in a JVM that stays up,
+ * so a run does not pay the start of the JVM, the loading of ANTLR and the
+ * warm up of the compiler. The daemon listens on the loopback interface
+ * only, every connection is a request served on its own thread.
+ *
+ * A request carries the source and the options of the client's command
+ * line; the answer is a sequence of frames with the program output, the
+ * messages that a local run writes on stderr, the assembly or the binary
+ * program asked with -o and at the end the exit code. The daemon writes no
+ * file, the client does.
+ *
+ * The JIT threshold, the memory backend and the flush interval are those
+ * of the daemon's command line.
+ */
+final class Daemon {
+	private static final int MAGIC = 0x534c5044; // SLPD
+	private static final int VERSION = 2;
+	private static final int OUT = 1, ERR = 2, EXIT = 3, ASSEMBLY = 4, PROGRAM = 5;
+	private static final int MAX_STRING = 64 << 20; // bytes of the source, the longest string of a request
+
+	private static final String WARM_UP = "{ int fib(int n) { if (n <= 1) { return n; } "
+			+ "else { return fib(n - 1) + fib(n - 2); } } ^int p = new int; p^ = fib(12); print p^; delete p; }";
+	private static final int WARM_UP_RUNS = 200;
+
+	private final CompileCache cache = new CompileCache(256, null);
+	private final String memory;
+	private final int jitThreshold;
+	private final long flushInterval;
+
+	private Daemon(String memory, int jitThreshold, long flushInterval) {
+		this.memory = memory;
+		this.jitThreshold = jitThreshold;
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * Warms up the compiler, then serves the clients until the process is
+	 * stopped.
+	 *
+	 * @param memory        memory backend of the runs
+	 * @param jitThreshold  see {@link SVM#setJitThreshold}
+	 * @param flushInterval milliseconds between two flushes of the output
+	 */
+	static void serve(int port, String memory, int jitThreshold, long flushInterval) throws IOException {
+		Daemon daemon = new Daemon(memory, jitThreshold, flushInterval);
+		daemon.warmUp();
+		AtomicInteger count = new AtomicInteger();
+		ExecutorService clients = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "client-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			System.err.println("INFO: Listening on " + server.getLocalSocketAddress());
+			while (true) {
+				Socket socket = server.accept();
+				clients.execute(() -> daemon.serve(socket));
+			}
+		}
+	}
+
+	/**
+	 * Compiles without the cache, so that every run goes through the parser
+	 * and the analyses.
+	 */
+	private void warmUp() {
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			CompileResult result = Compiler.compile(WARM_UP, CompileOptions.DEFAULT.withOptimize(i % 2 == 0));
+			try (Execution execution = result.getProgram().newExecution(Limits.DEFAULT.withMemorySize(1 << 16),
+					new CaptureOutputSink())) {
+				execution.run();
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket s = socket) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			Frames frames = new Frames(new DataOutputStream(new BufferedOutputStream(s.getOutputStream())));
+			Request request;
+			try {
+				request = Request.read(in);
+			} catch (ProtocolException e) {
+				frames.log("SEVERE", "Invalid request: " + e.getMessage());
+				frames.exit(1);
+				return;
+			}
+			int code;
+			try {
+				code = handle(request, frames);
+			} catch (RuntimeException | Error e) {
+				// also a StackOverflowError of a deep source, the client still gets its exit code
+				frames.log("SEVERE", e.toString());
+				code = 1;
+			}
+			frames.exit(code);
+		} catch (IOException e) {
+			// the client has gone, nothing to answer
+		}
+	}
+
+	/**
+	 * Same steps of a local run, see {@link Main}.
+	 *
+	 * @return the exit code of the client
+	 */
+	private int handle(Request request, Frames frames) throws IOException {
+		CompileResult result = cache.compile(request.source, request.options);
+		if (request.printAst && result.getAst() != null)
+			frames.print(OUT, "AST three: \n" + result.getAst().toPrint("\t") + System.lineSeparator());
+		for (Diagnostic d : result.getDiagnostics())
+			frames.log(d.isError() ? "SEVERE" : "WARNING", d.toString());
+		if (result.hasErrors(Diagnostic.Kind.SYNTAX))
+			return -1;
+		if (!result.isSuccess())
+			return 0;
+
+		if (request.program) {
+			ByteArrayOutputStream program = new ByteArrayOutputStream();
+			ProgramFile.write(result.getProgram(), program);
+			frames.write(PROGRAM, program.toByteArray(), 0, program.size());
+		} else if (result.getAssembly() != null) {
+			frames.print(ASSEMBLY, result.getAssembly());
+		}
+		if (result.getOptimization() != null)
+			frames.log("INFO", result.getOptimization().toString());
+
+		frames.log("INFO", "Starting SVM");
+		OutputStream stdout = frames.stream(OUT);
+		OutputSink output = request.unbuffered
+				? BufferedOutputSink.unbuffered(stdout)
+				: new BufferedOutputSink(stdout, BufferedOutputSink.DEFAULT_SIZE, flushInterval);
+		try (Execution execution = result.getProgram().newExecution(request.limits.withMemory(memory), output)) {
+			SVM vm = execution.getVM();
+			vm.setEngine(request.engine);
+			vm.setJitThreshold(jitThreshold);
+			vm.setGarbageCollection(request.gc);
+			RunResult run = execution.run();
+			if (run.getStatus() == RunResult.Status.FAULT)
+				frames.log("SEVERE", run.getMessage());
+			else if (!run.isHalted())
+				frames.log("SEVERE", run.toString());
+			if (request.stats) {
+				PrintStream err = new PrintStream(frames.stream(ERR), false, "UTF-8");
+				vm.printStats(err);
+				err.flush();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Where the client puts the assembly or the binary program of a run.
+	 */
+	interface OutputFile {
+		void assembly(String text);
+
+		void program(byte[] bytes);
+	}
+
+	/**
+	 * Sends the request to the daemon and copies its answer on stdout and
+	 * stderr.
+	 *
+	 * @param file receives the assembly or the binary program, when the
+	 *             request asks for one
+	 * @return the exit code of the run
+	 * @throws IOException if there is no daemon or the connection drops
+	 */
+	static int send(int port, Request request, OutputFile file) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			request.write(out);
+			out.flush();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			byte[] buffer = new byte[BufferedOutputSink.DEFAULT_SIZE];
+			while (true) {
+				int type = in.readByte();
+				int length = in.readInt();
+				if (type == EXIT) {
+					System.out.flush();
+					return length;
+				}
+				if (length > buffer.length)
+					buffer = new byte[length];
+				in.readFully(buffer, 0, length);
+				if (type == OUT) {
+					System.out.write(buffer, 0, length);
+					System.out.flush();
+				} else if (type == ASSEMBLY) {
+					file.assembly(new String(buffer, 0, length, StandardCharsets.UTF_8));
+				} else if (type == PROGRAM) {
+					file.program(Arrays.copyOf(buffer, length));
+				} else {
+					// whole messages, printed in the encoding of the console like the logger
+					System.err.print(new String(buffer, 0, length, StandardCharsets.UTF_8));
+					System.err.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Source and options of a run, see {@link Main}. The assembly is sent
+	 * back if the options render it.
+	 */
+	static final class Request {
+		final String source;
+		final CompileOptions options;
+		final boolean printAst;
+		final boolean program; // send back the binary program
+		final Limits limits;
+		final String engine;
+		final boolean gc;
+		final boolean stats;
+		final boolean unbuffered;
+
+		Request(String source, CompileOptions options, boolean printAst, boolean program, Limits limits,
+				String engine, boolean gc, boolean stats, boolean unbuffered) {
+			this.source = source;
+			this.options = options;
+			this.printAst = printAst;
+			this.program = program;
+			this.limits = limits;
+			this.engine = engine;
+			this.gc = gc;
+			this.stats = stats;
+			this.unbuffered = unbuffered;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, source);
+			out.writeBoolean(options.isOptimize());
+			out.writeBoolean(options.isAssembly());
+			out.writeBoolean(options.isComments());
+			out.writeBoolean(printAst);
+			out.writeBoolean(program);
+			out.writeInt(limits.getMemorySize());
+			out.writeLong(limits.getMaxFuel());
+			out.writeInt(limits.getMaxStackDepth());
+			out.writeInt(limits.getMaxHeapCells());
+			out.writeLong(limits.getTimeLimit());
+			writeString(out, engine);
+			out.writeBoolean(gc);
+			out.writeBoolean(stats);
+			out.writeBoolean(unbuffered);
+		}
+
+		/**
+		 * @throws ProtocolException if the bytes are not a request of this
+		 *                           version
+		 */
+		private static Request read(DataInputStream in) throws IOException {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new ProtocolException("not a request of this version");
+			String source = readString(in);
+			CompileOptions options = CompileOptions.DEFAULT.withOptimize(in.readBoolean())
+					.withAssembly(in.readBoolean(), in.readBoolean());
+			boolean printAst = in.readBoolean();
+			boolean program = in.readBoolean();
+			Limits limits;
+			try {
+				limits = Limits.DEFAULT.withMemorySize(in.readInt()).withMaxFuel(in.readLong())
+						.withMaxStackDepth(in.readInt()).withMaxHeapCells(in.readInt()).withTimeLimit(in.readLong());
+			} catch (IllegalArgumentException e) {
+				throw new ProtocolException(e.getMessage());
+			}
+			return new Request(source, options, printAst, program, limits, readString(in), in.readBoolean(),
+					in.readBoolean(), in.readBoolean());
+		}
+
+		// writeUTF stops at 64 KB
+		private static void writeString(DataOutputStream out, String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		private static String readString(DataInputStream in) throws IOException {
+			int length = in.readInt();
+			if (length < 0 || length > MAX_STRING)
+				throw new ProtocolException("string of " + length + " bytes");
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Answer to a client: every frame is a type, a length and the bytes, the
+	 * exit frame has the code in place of the length.
+	 */
+	private static final class Frames {
+		private final DataOutputStream out;
+
+		Frames(DataOutputStream out) {
+			this.out = out;
+		}
+
+		synchronized void write(int type, byte[] bytes, int offset, int length) throws IOException {
+			out.writeByte(type);
+			out.writeInt(length);
+			out.write(bytes, offset, length);
+			out.flush();
+		}
+
+		void print(int type, String text) throws IOException {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			write(type, bytes, 0, bytes.length);
+		}
+
+		/**
+		 * A message as printed by the logger of {@link Main}.
+		 */
+		void log(String level, String message) throws IOException {
+			print(ERR, level + ": " + message + System.lineSeparator());
+		}
+
+		synchronized void exit(int code) throws IOException {
+			out.writeByte(EXIT);
+			out.writeInt(code);
+			out.flush();
+		}
+
+		OutputStream stream(int type) {
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					Frames.this.write(type, new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] bytes, int offset, int length) throws IOException {
+					Frames.this.write(type, bytes, offset, length);
+				}
+			};
+		}
+	}
+}
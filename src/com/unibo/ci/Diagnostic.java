@@ -0,0 +1,57 @@
+package com.unibo.ci;
+
+/**
+ * Error or warning found by the compiler.
+ */
+public final class Diagnostic {
+	public enum Kind {
+		SYNTAX, SEMANTIC, TYPE, EFFECT, WARNING
+	}
+
+	private final Kind kind;
+	private final int row;
+	private final int col;
+	private final String message;
+
+	Diagnostic(Kind kind, int row, int col, String message) {
+		this.kind = kind;
+		this.row = row;
+		this.col = col;
+		this.message = message;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public int getCol() {
+		return col;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public boolean isError() {
+		return kind != Kind.WARNING;
+	}
+
+	/**
+	 * @return the diagnostic as printed by the command line
+	 */
+	@Override
+	public String toString() {
+		switch (kind) {
+			case SYNTAX:
+				return "SYNTAX ERROR: [" + row + ":" + col + "] - " + message;
+			case WARNING:
+				return "⚠️ [" + row + ", " + col + "]: " + message;
+			default:
+				return kind + " ERROR [" + row + ", " + col + "]: " + message;
+		}
+	}
+}
@@ -1,45 +1,46 @@
 package com.unibo.ci;
 
 import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.tree.*;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Formatter;
 import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 
-import com.unibo.ci.ast.*;
-import com.unibo.ci.ast.errors.EffectError;
-import com.unibo.ci.ast.errors.SemanticError;
-import com.unibo.ci.listeners.SyntaxErrorListener;
-import com.unibo.ci.parser.*;
+import com.unibo.ci.svm.BufferedOutputSink;
+import com.unibo.ci.svm.Instruction;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.OutputSink;
+import com.unibo.ci.svm.Peephole;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.ProgramFile;
+import com.unibo.ci.svm.RingTracer;
+import com.unibo.ci.svm.RunResult;
 import com.unibo.ci.svm.SVM;
 import com.unibo.ci.svm.SVMVisitorImpl;
 import com.unibo.ci.svm.SVM.MemoryAccessException;
 import com.unibo.ci.svm.lexer.SVMLexer;
 import com.unibo.ci.svm.lexer.SVMParser;
-import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.GlobalConfig;
-import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
-import com.unibo.ci.util.WarningsStorage;
+import com.unibo.ci.util.TwoStageParser;
 
 public class Main {
 	private final static Logger LOGGER = Logger.getLogger(Main.class.getCanonicalName());
-	private static SyntaxErrorListener parserErrorsListener;
-
 	public static void main(String[] args) {
 		LogManager.getLogManager().reset();
 		ConsoleHandler handler = new ConsoleHandler();
 		Formatter formatter = new LoggerFormatter();
 		handler.setFormatter(formatter);
 		LOGGER.addHandler(handler);
-		WarningsStorage.setLggerHandler(handler);
 
 		if (args.length < 1) {
 			LOGGER.severe("Missing input file");
@@ -54,11 +55,33 @@ public class Main {
 				case "-h":
 					System.out.println("SimpLanPlus compiler");
 					System.out.println("\t--ast, -a\t\tPrint abstract syntax three");
-					System.out.println("\t--msize, -m\t\tSpecify the total memory size");
+					System.out.println("\t--msize, -m\t\tMaximum memory size in cells, k and m suffixes allowed (default 64m)");
+					System.out.println("\t--memory\t\tMemory backend: flat, segmented, offheap (default chosen by size)");
 					System.out.println("\t--print, -p\t\tPrint memory at the end of execution");
 					System.out.println("\t--debug, -p\t\tPrint memory ad registers for each instruction");
 					System.out.println("\t--comments, -c\t\tPrint comments on assembly code");
-					System.out.println("\t--out, -o\t\tSpecify out filename (default out)");
+					System.out.println("\t--out, -o\t\tWrite the assembly to a file, .svmb for the binary format");
+					System.out.println("\t--engine, -e\t\tSVM execution engine: switch, threaded, aot, tiered (default switch)");
+					System.out.println("\t--jit-threshold, -j\tCalls before a function is compiled by the tiered engine");
+					System.out.println("\t--stats, -s\t\tPrint execution statistics at the end");
+					System.out.println("\t--optimize, -O\t\tRun the peephole optimizer on the assembly");
+					System.out.println("\t--unbuffered, -u\tWrite the program output immediately");
+					System.out.println("\t--trace, -t\t\tKeep the last n events, printed on invalid memory access");
+					System.out.println("\t--checkpoint\t\tSave the state of the SVM to a file during the run");
+					System.out.println("\t--checkpoint-every\tMillions of units of fuel between two checkpoints (default 1000)");
+					System.out.println("\t--restore\t\tResume the program from a checkpoint");
+					System.out.println("\t--cache\t\t\tKeep the compiled programs in a directory, by source");
+					System.out.println("\t--gc, -g\t\tCollect the unreachable heap cells when the heap is full");
+					System.out.println("\t--max-fuel\t\tStop the run after n units of fuel, about the instructions executed, k and m suffixes allowed");
+					System.out.println("\t--max-stack\t\tStop the run when the stack goes over n cells");
+					System.out.println("\t--max-heap\t\tStop the run when the heap goes over n cells");
+					System.out.println("\t--timeout\t\tStop the run after n milliseconds");
+					System.out.println("\t--batch\t\t\tCompile every .slp file of a directory and print a summary");
+					System.out.println("\t--batch-run\t\tRun the programs compiled by --batch too");
+					System.out.println("\t--threads\t\tThreads of --batch (default one per processor)");
+					System.out.println("\t--daemon\t\tKeep the compiler running and serve the --client runs");
+					System.out.println("\t--client\t\tCompile and run the file on the daemon");
+					System.out.println("\t--port\t\t\tLoopback port of the daemon (default 7077)");
 					return;
 				case "--ast":
 				case "-a":
@@ -66,8 +89,13 @@ public class Main {
 					break;
 				case "--msize":
 				case "-m":
-						GlobalConfig.PRINT_AST = true;
-						break;
+					if ((i + 1) < args.length)
+						GlobalConfig.MEM_SIZE = parseSize(args[++i]);
+					break;
+				case "--memory":
+					if ((i + 1) < args.length)
+						GlobalConfig.MEMORY = args[++i];
+					break;
 				case "--comments":
 				case "-c":
 					GlobalConfig.PRINT_COMMENTS = true;
@@ -85,99 +113,401 @@ public class Main {
 					if ((i + 1) < args.length)
 						GlobalConfig.OUT_FILENAME = args[++i];
 					break;
+				case "--engine":
+				case "-e":
+					if ((i + 1) < args.length)
+						GlobalConfig.ENGINE = args[++i];
+					break;
+				case "--jit-threshold":
+				case "-j":
+					if ((i + 1) < args.length)
+						GlobalConfig.JIT_THRESHOLD = (int) parseCount(args[++i], "JIT threshold", Integer.MAX_VALUE);
+					break;
+				case "--stats":
+				case "-s":
+					GlobalConfig.SHOW_STATS = true;
+					break;
+				case "--optimize":
+				case "-O":
+					GlobalConfig.OPTIMIZE = true;
+					break;
+				case "--unbuffered":
+				case "-u":
+					GlobalConfig.UNBUFFERED = true;
+					break;
+				case "--gc":
+				case "-g":
+					GlobalConfig.GC = true;
+					break;
+				case "--checkpoint":
+					if ((i + 1) < args.length)
+						GlobalConfig.CHECKPOINT = args[++i];
+					break;
+				case "--checkpoint-every":
+					if ((i + 1) < args.length)
+						GlobalConfig.CHECKPOINT_INTERVAL = parseCount(args[++i], "checkpoint interval", Long.MAX_VALUE / 1000000);
+					break;
+				case "--restore":
+					if ((i + 1) < args.length)
+						GlobalConfig.RESTORE = args[++i];
+					break;
+				case "--cache":
+					if ((i + 1) < args.length)
+						GlobalConfig.CACHE_DIR = args[++i];
+					break;
+				case "--trace":
+				case "-t":
+					if ((i + 1) < args.length)
+						GlobalConfig.TRACE_SIZE = (int) parseCount(args[++i], "trace size", Integer.MAX_VALUE);
+					break;
+				case "--max-fuel":
+					if ((i + 1) < args.length)
+						GlobalConfig.MAX_FUEL = parseCount(args[++i], "fuel limit", Long.MAX_VALUE);
+					break;
+				case "--max-stack":
+					if ((i + 1) < args.length)
+						GlobalConfig.MAX_STACK = (int) parseCount(args[++i], "stack limit", Integer.MAX_VALUE);
+					break;
+				case "--max-heap":
+					if ((i + 1) < args.length)
+						GlobalConfig.MAX_HEAP = (int) parseCount(args[++i], "heap limit", Integer.MAX_VALUE);
+					break;
+				case "--timeout":
+					if ((i + 1) < args.length)
+						GlobalConfig.TIME_LIMIT = parseCount(args[++i], "timeout", Long.MAX_VALUE);
+					break;
+				case "--batch":
+					if ((i + 1) < args.length)
+						GlobalConfig.BATCH_DIR = args[++i];
+					break;
+				case "--batch-run":
+					GlobalConfig.BATCH_RUN = true;
+					break;
+				case "--threads":
+					if ((i + 1) < args.length)
+						GlobalConfig.THREADS = (int) parseCount(args[++i], "thread count", Short.MAX_VALUE);
+					break;
+				case "--daemon":
+					GlobalConfig.DAEMON = true;
+					break;
+				case "--client":
+					GlobalConfig.CLIENT = true;
+					break;
+				case "--port":
+					if ((i + 1) < args.length)
+						GlobalConfig.PORT = (int) parseCount(args[++i], "port", 65535);
+					break;
 			}
 		}
-		CharStream codePointCharStream = null;
+		if (GlobalConfig.BATCH_DIR != null) {
+			batch();
+			return;
+		}
+		if (GlobalConfig.DAEMON) {
+			try {
+				Daemon.serve(GlobalConfig.PORT, GlobalConfig.MEMORY, GlobalConfig.JIT_THRESHOLD,
+						GlobalConfig.FLUSH_INTERVAL);
+			} catch (IOException e) {
+				LOGGER.severe("Cannot listen on port " + GlobalConfig.PORT + ": " + e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+		if (GlobalConfig.CLIENT) {
+			client();
+			return;
+		}
+		// precompiled programs are loaded without the parsers
+		if (GlobalConfig.INPUT_FILENAME.endsWith(ProgramFile.EXTENSION)) {
+			Program program;
+			try {
+				program = ProgramFile.load(GlobalConfig.INPUT_FILENAME);
+			} catch (IOException e) {
+				LOGGER.severe("Error loading [" + GlobalConfig.INPUT_FILENAME + "]: " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			run(program);
+			return;
+		}
+		Frontend.compile();
+	}
+
+	/**
+	 * Parses a number of cells with an optional k or m suffix.
+	 */
+	private static int parseSize(String size) {
+		return (int) parseCount(size, "memory size", Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Parses a positive number with an optional k or m suffix, exits if it
+	 * is not valid.
+	 */
+	private static long parseCount(String count, String what, long max) {
+		String digits = count.toLowerCase();
+		int unit = 1;
+		if (digits.endsWith("k")) {
+			unit = 1 << 10;
+		} else if (digits.endsWith("m")) {
+			unit = 1 << 20;
+		}
+		if (unit > 1)
+			digits = digits.substring(0, digits.length() - 1);
+		long value;
 		try {
-			codePointCharStream = CharStreams.fromFileName(GlobalConfig.INPUT_FILENAME);
-		} catch (IOException e) {
-			LOGGER.severe("File " + GlobalConfig.INPUT_FILENAME + " not exist 😡");
+			value = Math.multiplyExact(Long.parseLong(digits), unit);
+		} catch (NumberFormatException | ArithmeticException e) {
+			value = 0;
+		}
+		if (value <= 0 || value > max) {
+			LOGGER.severe("Invalid " + what + " " + count);
 			System.exit(1);
 		}
-		SimpLanPlusLexer lexer = new SimpLanPlusLexer(codePointCharStream);
-		CommonTokenStream tokens = new CommonTokenStream(lexer);
-		SimpLanPlusParser parser = new SimpLanPlusParser(tokens);
+		return value;
+	}
 
-		parser.removeErrorListener(ConsoleErrorListener.INSTANCE);
-		parserErrorsListener = new SyntaxErrorListener(LOGGER);
-		parser.addErrorListener(parserErrorsListener);
-		// Tell the parser to build the AST
-		parser.setBuildParseTree(true);
+	/**
+	 * Parsers and compiler, in a class of their own so that running a binary
+	 * program never loads ANTLR.
+	 */
+	private static final class Frontend {
+		static void compile() {
+			CharStream codePointCharStream = null;
+			try {
+				codePointCharStream = CharStreams.fromFileName(GlobalConfig.INPUT_FILENAME);
+			} catch (IOException e) {
+				LOGGER.severe("File " + GlobalConfig.INPUT_FILENAME + " not exist 😡");
+				System.exit(1);
+			}
+			// hand-written assembly goes straight to the SVM
+			if (GlobalConfig.INPUT_FILENAME.endsWith(".asm")) {
+				runAssembly(codePointCharStream);
+				return;
+			}
+			// the assembly text is rendered only if it is written to a file
+			boolean writeText = GlobalConfig.OUT_FILENAME != null
+					&& !GlobalConfig.OUT_FILENAME.endsWith(ProgramFile.EXTENSION);
+			CompileOptions options = CompileOptions.DEFAULT.withOptimize(GlobalConfig.OPTIMIZE)
+					.withAssembly(writeText, GlobalConfig.PRINT_COMMENTS);
+			// a cached program has no AST to print
+			CompileResult result = GlobalConfig.CACHE_DIR != null && !GlobalConfig.PRINT_AST
+					? new CompileCache(1, Paths.get(GlobalConfig.CACHE_DIR)).compile(codePointCharStream.toString(), options)
+					: Compiler.compile(codePointCharStream.toString(), options);
 
-		ParseTree tree = parser.block(); // begin parsing at rule 'block'
+			if (GlobalConfig.PRINT_AST && result.getAst() != null)
+				System.out.println("AST three: \n" + result.getAst().toPrint("\t"));
+			for (Diagnostic d : result.getDiagnostics()) {
+				if (d.isError())
+					LOGGER.severe(d.toString());
+				else
+					LOGGER.warning(d.toString());
+			}
+			if (result.hasErrors(Diagnostic.Kind.SYNTAX))
+				System.exit(-1);
+			if (!result.isSuccess())
+				return;
 
-		if (parserErrorsListener.errorsDetected())
-			System.exit(-1);
+			if (writeText) {
+				try {
+					BufferedWriter out = new BufferedWriter(new FileWriter(GlobalConfig.OUT_FILENAME));
+					out.write(result.getAssembly());
+					out.close();
+				} catch (IOException e1) {
+					LOGGER.severe("Error writing file [" + GlobalConfig.OUT_FILENAME + "] 😡");
+				}
+			}
+			if (result.getOptimization() != null)
+				LOGGER.info(result.getOptimization().toString());
+			start(result.getProgram());
+		}
 
-		SimpLanPlusVisitorImpl visitor = new SimpLanPlusVisitorImpl();
-		Node ast = visitor.visit(tree); // Generazione AST
+		private static void runAssembly(CharStream assembly) {
+			SVMLexer lexerASM = new SVMLexer(assembly);
+			CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
+			SVMParser parserASM = new SVMParser(tokensASM);
 
-		if (GlobalConfig.PRINT_AST)
-			System.out.println("AST three: \n" + ast.toPrint("\t"));
+			SVMVisitorImpl visitorSVM = new SVMVisitorImpl();
+			Program program;
+			try {
+				SVMParser.AssemblyContext tree = TwoStageParser.parse(parserASM, SVMParser::assembly);
+				if (lexerASM.errorCount() > 0 || parserASM.getNumberOfSyntaxErrors() > 0) {
+					LOGGER.info("Syntax errors: " + parserASM.getNumberOfSyntaxErrors());
+					LOGGER.info("Lexical errors: " + lexerASM.errorCount());
+					System.exit(1);
+				}
+				visitorSVM.visit(tree);
 
-		/* Check Semantics */
-		GammaEnv env = new GammaEnv();
-		ArrayList<SemanticError> semanticErrors = ast.checkSemantics(env);
-		if (semanticErrors.size() > 0) {
-			semanticErrors.forEach(semnErr -> {
-				LOGGER.severe("SEMANTIC ERROR [" + semnErr.row + ", " + semnErr.col + "]: " + semnErr.desc);
-			});
-			return;
+				program = load(visitorSVM.getCode(), visitorSVM.getLabels());
+			} catch (IllegalArgumentException e) {
+				LOGGER.severe("Invalid program: " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			start(program);
 		}
 
-		/* Check Type */
-		ast.typeCheck();
-		if (TypeErrorsStorage.getErrorList().size() > 0) {
-			TypeErrorsStorage.getErrorList().forEach(typeErr -> {
-				LOGGER.severe("TYPE ERROR [" + typeErr.row + ", " + typeErr.col + "]: " + typeErr.desc);
-			});
-			return;
+		private static Program load(List<Instruction> code, Map<String, Integer> labels) {
+			if (GlobalConfig.OPTIMIZE) {
+				Peephole.Result optimized = Peephole.optimize(code, labels);
+				LOGGER.info(optimized.toString());
+				code = optimized.getCode();
+			}
+			return Program.load(code, labels);
 		}
 
-		TypeErrorsStorage.getErrorList().clear();
+		private static void start(Program program) {
+			if (GlobalConfig.OUT_FILENAME != null && GlobalConfig.OUT_FILENAME.endsWith(ProgramFile.EXTENSION)) {
+				try {
+					ProgramFile.write(program, GlobalConfig.OUT_FILENAME);
+				} catch (IOException e) {
+					LOGGER.severe("Error writing file [" + GlobalConfig.OUT_FILENAME + "] 😡");
+				}
+			}
+			Main.run(program);
+		}
+	}
 
-		/* Check Effects */
-		SigmaEnv effects_env = new SigmaEnv();
-		ArrayList<EffectError> effectsErrors = ast.AnalyzeEffect(effects_env);
-		WarningsStorage.printAll();
-		WarningsStorage.clear();
-		if (effectsErrors.size() > 0) {
-			effectsErrors.forEach(effectErr -> {
-				LOGGER.severe("EFFECT ERROR [" + effectErr.row + ", " + effectErr.col + "]: " + effectErr.desc);
-			});
+	/**
+	 * Compiles the directory of --batch, exits with 1 if a file failed.
+	 */
+	private static void batch() {
+		CompileOptions options = CompileOptions.DEFAULT.withOptimize(GlobalConfig.OPTIMIZE);
+		Limits limits = GlobalConfig.BATCH_RUN ? limits().withMemorySize(GlobalConfig.MEM_SIZE) : null;
+		int threads = GlobalConfig.THREADS > 0 ? GlobalConfig.THREADS : Runtime.getRuntime().availableProcessors();
+		int failed;
+		try {
+			failed = new Batch(options, limits, GlobalConfig.ENGINE, GlobalConfig.JIT_THRESHOLD, threads).run(Paths.get(GlobalConfig.BATCH_DIR), System.out);
+		} catch (IOException e) {
+			LOGGER.severe("Error reading [" + GlobalConfig.BATCH_DIR + "]: " + e.getMessage());
+			System.exit(1);
 			return;
 		}
+		if (failed > 0)
+			System.exit(1);
+	}
 
-		String generatedCode = ast.codeGeneration();
+	/**
+	 * Sends the file and the options to the daemon, exits with the code of
+	 * the run. The options that need the SVM of this process are refused.
+	 */
+	private static void client() {
+		if (GlobalConfig.SHOW_MEM || GlobalConfig.SHOW_DEBUG || GlobalConfig.TRACE_SIZE > 0
+				|| GlobalConfig.CHECKPOINT != null || GlobalConfig.RESTORE != null || GlobalConfig.CACHE_DIR != null) {
+			LOGGER.severe("--print, --debug, --trace, --checkpoint, --restore and --cache are not available with --client");
+			System.exit(1);
+		}
+		if (GlobalConfig.INPUT_FILENAME.endsWith(".asm") || GlobalConfig.INPUT_FILENAME.endsWith(ProgramFile.EXTENSION)) {
+			LOGGER.severe("--client runs only SimpLanPlus sources");
+			System.exit(1);
+		}
+		String source;
 		try {
-			BufferedWriter out = new BufferedWriter(new FileWriter(GlobalConfig.OUT_FILENAME));
-			out.write(generatedCode);
-			out.close();
-		} catch (IOException e1) {
-			LOGGER.severe("Error writing file [" + GlobalConfig.OUT_FILENAME + "] 😡");
+			source = new String(Files.readAllBytes(Paths.get(GlobalConfig.INPUT_FILENAME)), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			LOGGER.severe("File " + GlobalConfig.INPUT_FILENAME + " not exist 😡");
+			System.exit(1);
+			return;
 		}
+		boolean writeText = GlobalConfig.OUT_FILENAME != null
+				&& !GlobalConfig.OUT_FILENAME.endsWith(ProgramFile.EXTENSION);
+		CompileOptions options = CompileOptions.DEFAULT.withOptimize(GlobalConfig.OPTIMIZE)
+				.withAssembly(writeText, GlobalConfig.PRINT_COMMENTS);
+		boolean writeProgram = GlobalConfig.OUT_FILENAME != null
+				&& GlobalConfig.OUT_FILENAME.endsWith(ProgramFile.EXTENSION);
+		Daemon.Request request = new Daemon.Request(source, options, GlobalConfig.PRINT_AST, writeProgram,
+				limits().withMemorySize(GlobalConfig.MEM_SIZE), GlobalConfig.ENGINE, GlobalConfig.GC,
+				GlobalConfig.SHOW_STATS, GlobalConfig.UNBUFFERED);
+		int code;
+		try {
+			code = Daemon.send(GlobalConfig.PORT, request, new Daemon.OutputFile() {
+				@Override
+				public void assembly(String text) {
+					writeOut(text.getBytes(StandardCharsets.UTF_8));
+				}
 
-		SVMLexer lexerASM = new SVMLexer(CharStreams.fromString(generatedCode));
-		CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
-		SVMParser parserASM = new SVMParser(tokensASM);
-
-		SVMVisitorImpl visitorSVM = new SVMVisitorImpl();
-		visitorSVM.visit(parserASM.assembly());
+				@Override
+				public void program(byte[] bytes) {
+					writeOut(bytes);
+				}
+			});
+		} catch (IOException e) {
+			LOGGER.severe("No answer from the daemon on port " + GlobalConfig.PORT + " (start it with --daemon): "
+					+ e.getMessage());
+			code = 1;
+		}
+		System.exit(code);
+	}
 
-		if (lexerASM.errorCount() > 0 || parserASM.getNumberOfSyntaxErrors() > 0) {
-			LOGGER.info("Syntax errors: " + parserASM.getNumberOfSyntaxErrors());
-			LOGGER.info("Lexical errors: " + lexerASM.errorCount());
-			System.exit(1);
+	/**
+	 * Writes the file of -o sent back by the daemon.
+	 */
+	private static void writeOut(byte[] bytes) {
+		try {
+			Files.write(Paths.get(GlobalConfig.OUT_FILENAME), bytes);
+		} catch (IOException e) {
+			LOGGER.severe("Error writing file [" + GlobalConfig.OUT_FILENAME + "] 😡");
 		}
+	}
 
-		LOGGER.info("Starting SVM");
+	/**
+	 * @return the limits of the command line, the memory size is given to the
+	 *         SVM apart
+	 */
+	private static Limits limits() {
+		Limits limits = Limits.DEFAULT.withMemory(GlobalConfig.MEMORY);
+		if (GlobalConfig.MAX_FUEL > 0)
+			limits = limits.withMaxFuel(GlobalConfig.MAX_FUEL);
+		if (GlobalConfig.MAX_STACK > 0)
+			limits = limits.withMaxStackDepth(GlobalConfig.MAX_STACK);
+		if (GlobalConfig.MAX_HEAP > 0)
+			limits = limits.withMaxHeapCells(GlobalConfig.MAX_HEAP);
+		return limits.withTimeLimit(GlobalConfig.TIME_LIMIT);
+	}
 
-		SVM vm = new SVM(GlobalConfig.MEM_SIZE, visitorSVM.getCode());
+	private static void run(Program program) {
+		LOGGER.info("Starting SVM");
+		// the debug prints go to the console too, they must not be reordered
+		OutputSink output = GlobalConfig.UNBUFFERED || GlobalConfig.SHOW_DEBUG
+				? BufferedOutputSink.unbuffered(System.out)
+				: new BufferedOutputSink(System.out, BufferedOutputSink.DEFAULT_SIZE, GlobalConfig.FLUSH_INTERVAL);
+		SVM vm;
+		if (GlobalConfig.RESTORE != null) {
+			try {
+				vm = SVM.restore(GlobalConfig.RESTORE, program, output);
+			} catch (IOException e) {
+				LOGGER.severe("Error restoring [" + GlobalConfig.RESTORE + "]: " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+		} else {
+			vm = new SVM(GlobalConfig.MEM_SIZE, GlobalConfig.MEMORY, program, output);
+		}
+		vm.setEngine(GlobalConfig.ENGINE);
+		vm.setJitThreshold(GlobalConfig.JIT_THRESHOLD);
+		vm.setMemoryDump(GlobalConfig.SHOW_MEM);
+		vm.setGarbageCollection(GlobalConfig.GC);
+		if (GlobalConfig.CHECKPOINT != null)
+			vm.setCheckpoints(GlobalConfig.CHECKPOINT, GlobalConfig.CHECKPOINT_INTERVAL);
+		vm.setLimits(limits());
+		RingTracer tracer = null;
+		if (GlobalConfig.SHOW_DEBUG) {
+			vm.setListener(vm.debugPrinter());
+		} else if (GlobalConfig.TRACE_SIZE > 0) {
+			tracer = new RingTracer(program, GlobalConfig.TRACE_SIZE);
+			vm.setListener(tracer);
+		}
 		try {
-			vm.run();
+			RunResult result = vm.run();
+			if (!result.isHalted())
+				LOGGER.severe(result.toString());
 		} catch (MemoryAccessException e) {
-			LOGGER.severe("Invalid memory access");
+			LOGGER.severe(e.getMessage());
+			if (tracer != null)
+				tracer.dump(System.err);
 		}
+		if (GlobalConfig.SHOW_STATS)
+			vm.printStats(System.err);
 
 	}
 }
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
+import com.unibo.ci.svm.CodeEmitter;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
 
@@ -21,13 +23,14 @@ public abstract class Node {
     // Fa il type checking e ritorna:
     // per una espressione, il suo tipo (oggetto BoolTypeNode o IntTypeNode)
     // per una dichiarazione, "null"
-    public abstract Type typeCheck();
+    public abstract Type typeCheck(CompilationContext context);
 
-    public abstract String codeGeneration();
+    // Aggiunge all'emitter le istruzioni SVM del nodo
+    public abstract void codeGeneration(CodeEmitter out, CompilationContext context);
 
     public abstract ArrayList<SemanticError> checkSemantics(GammaEnv env);
 
-    public abstract ArrayList<EffectError> AnalyzeEffect(SigmaEnv env);
+    public abstract ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context);
 
     public int getRow() {
         return row;
@@ -9,11 +9,17 @@ import com.unibo.ci.ast.exp.bin_exp.*;
 import com.unibo.ci.ast.stmt.*;
 import com.unibo.ci.ast.types.*;
 import com.unibo.ci.parser.*;
+import com.unibo.ci.util.CompilationContext;
 
 public class SimpLanPlusVisitorImpl extends SimpLanPlusBaseVisitor<Node> {
 
+    private final CompilationContext context;
     private int blockNL = 0;
 
+    public SimpLanPlusVisitorImpl(CompilationContext context) {
+        this.context = context;
+    }
+
     @Override
     public BlockBase visitBlock(SimpLanPlusParser.BlockContext ctx) {
         blockNL++;
@@ -39,8 +45,10 @@ public class SimpLanPlusVisitorImpl extends SimpLanPlusBaseVisitor<Node> {
     public Dec visitDecFun(SimpLanPlusParser.DecFunContext ctx) {
         List<Arg> args = ctx.arg().stream().map(this::visitArg).collect(Collectors.toList());
         Type type = ctx.type() == null ? new TypeVoid() : (Type) visit(ctx.type());
+        BlockBase block = (BlockBase) visit(ctx.block());
+        // la label della funzione segue quelle del suo corpo
         return new DecFun(ctx.start.getLine(), ctx.start.getCharPositionInLine(), type, ctx.ID().getText(), args,
-                (BlockBase) visit(ctx.block()));
+                block, context.newLabel(ctx.ID().getText()));
     }
 
     @Override
@@ -6,10 +6,11 @@ import com.unibo.ci.ast.Node;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.types.Type;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.Environment.DuplicateEntryException;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.SigmaEnv;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class Arg extends Node {
     private final String id;
@@ -45,23 +46,19 @@ public class Arg extends Node {
     }
     
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
         return type;
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN ARG " + id + "\n" : "");        
-		out += "addi $sp $sp 1" + (debug ? " ;allocates space on the stack for arg [" + id + "]\n" : "\n");
-        
-        out += (debug ? ";END ARG " + id + "\n" : "");
-        return out;
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN ARG " + id);
+        out.addi("$sp", "$sp", 1).note("allocates space on the stack for arg [" + id + "]");
+        out.comment("END ARG " + id);
     }
 
     @Override
-	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
     	ArrayList<EffectError> errors = new ArrayList<EffectError>();
         return errors;
 		
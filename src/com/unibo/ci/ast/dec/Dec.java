@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import com.unibo.ci.ast.Node;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.types.Type;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.SigmaEnv;
 import com.unibo.ci.util.EEntry;
 import com.unibo.ci.util.EffectHelper;
@@ -25,7 +26,7 @@ public abstract class Dec extends Node {
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         ArrayList<EffectError> errors = new ArrayList<EffectError>();
         EEntry entry = env.lookup(id);
         
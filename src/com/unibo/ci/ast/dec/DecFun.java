@@ -7,17 +7,16 @@ import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypeVoid;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.EffectHelper.ETypes;
 import com.unibo.ci.util.Environment.DuplicateEntryException;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
-import com.unibo.ci.util.LabelManager;
 import com.unibo.ci.util.SigmaEnv;
 import com.unibo.ci.ast.types.TypeFunction;
 import com.unibo.ci.ast.types.TypePointer;
-import com.unibo.ci.util.TypeErrorsStorage;
 import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.stmt.BlockBase;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class DecFun extends Dec {
     private final String id;
@@ -31,7 +30,7 @@ public class DecFun extends Dec {
     private String labelSkip;
     private String labelEndFun;
 
-    public DecFun(int row, int column, Type type, String id, List<Arg> args, BlockBase block) {
+    public DecFun(int row, int column, Type type, String id, List<Arg> args, BlockBase block, String label) {
         super(row, column, type, id);
         this.id = id;
         this.type = type;
@@ -39,7 +38,7 @@ public class DecFun extends Dec {
         this.block = block;
         this.typeFun = new TypeFunction(row, column, id, args.size(), type, args);
 
-        this.labelFun = LabelManager.getInstance().newLabel(id);
+        this.labelFun = label;
         this.labelSkip = "ended" + labelFun;
         this.labelEndFun = "end" + labelFun;
         typeFun.setLabelStartFun(labelFun);
@@ -79,15 +78,15 @@ public class DecFun extends Dec {
     }
 
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
         for (Arg arg : args) {
-            if (arg.typeCheck() == null)
+            if (arg.typeCheck(context) == null)
                 return null;
         }
 
-        Type blockType = this.block.typeCheck();
+        Type blockType = this.block.typeCheck(context);
         if(typeFun.getReturnType() instanceof TypePointer){
-            TypeErrorsStorage.add(new TypeError(super.row, super.column,
+            context.addTypeError(new TypeError(super.row, super.column,
                     "Functions must not return pointer type"));
             return null;
         }
@@ -95,7 +94,7 @@ public class DecFun extends Dec {
         if ((blockType == null && !(this.type instanceof TypeVoid))
                 || (blockType != null && !this.type.equals(blockType))) {
             // Errore! Tipo del blocco e tipo di ritorno della funzione incompatibili
-            TypeErrorsStorage.add(new TypeError(super.row, super.column,
+            context.addTypeError(new TypeError(super.row, super.column,
                     "Function [" + this.id + "] must return with type [" + type.getTypeName() + "]"));
         }
 
@@ -103,27 +102,24 @@ public class DecFun extends Dec {
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN DECFUN [" + id + "]\n" : "");
-        out += "b " + labelSkip + "\n";
-        out += labelFun + ":\n";
-        out += "sw $ra -1($cl)\n";
-        out += block.codeGeneration();
-        out += "end" + labelFun + ":\n";
-        out += "lw $ra -1($cl)\n";
-        out += "lw $fp 1($cl)\n";
-        out += "lw $sp 0($cl) \n";
-        out += "addi $cl $fp 2\n";
-        out += "jr $ra\n";
-        out += (debug ? ";END DECFUN [" + id + "]\n" : "");
-        out += labelSkip + ":\n";
-        return out;
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN DECFUN [" + id + "]");
+        out.b(labelSkip);
+        out.label(labelFun);
+        out.sw("$ra", -1, "$cl");
+        block.codeGeneration(out, context);
+        out.label("end" + labelFun);
+        out.lw("$ra", -1, "$cl");
+        out.lw("$fp", 1, "$cl");
+        out.lw("$sp", 0, "$cl");
+        out.addi("$cl", "$fp", 2);
+        out.jr("$ra");
+        out.comment("END DECFUN [" + id + "]");
+        out.label(labelSkip);
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         ArrayList<EffectError> errors = new ArrayList<EffectError>();
         SigmaEnv env_f = env.clone();
         SigmaEnv env_0 = env_f.clone(), env_1 = env_f.clone();
@@ -138,21 +134,21 @@ public class DecFun extends Dec {
         env_0.addDeclaration(id, env_0.clone(), env_1.clone());
         env_1.addDeclaration(id, env_0.clone(), env_1.clone());
         
-        errors.addAll(AnalyzeEffect(env_0, env_1, env)); // env_0 e env_1 sono stati modificati
+        errors.addAll(AnalyzeEffect(env_0, env_1, env, context)); // env_0 e env_1 sono stati modificati
 
         return errors;
 
     }
 
     // calcolo col punto fisso degli effetti della funzione
-    private ArrayList<EffectError> AnalyzeEffect(SigmaEnv env_0, SigmaEnv env_1, SigmaEnv env) {
+    private ArrayList<EffectError> AnalyzeEffect(SigmaEnv env_0, SigmaEnv env_1, SigmaEnv env, CompilationContext context) {
 
         ArrayList<EffectError> errors = new ArrayList<EffectError>();
 
 
         SigmaEnv e = env_0.clone();
     
-        errors.addAll(block.AnalyzeEffectNoScope(e));
+        errors.addAll(block.AnalyzeEffectNoScope(e, context));
         
         if (equal_envs(env_1, e)){
             env.addDeclaration(id, env_0, env_1);
@@ -160,7 +156,7 @@ public class DecFun extends Dec {
         }
         
         env_0.addDeclaration(id, env_0.clone(), e.clone());
-        return AnalyzeEffect(env_0, e.clone(), env); 
+        return AnalyzeEffect(env_0, e.clone(), env, context); 
 
     }
 
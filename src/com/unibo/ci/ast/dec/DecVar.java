@@ -9,14 +9,14 @@ import com.unibo.ci.ast.exp.NewExp;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypePointer;
 import com.unibo.ci.ast.types.TypeVoid;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.Environment.DuplicateEntryException;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
 import com.unibo.ci.util.EffectHelper;
 import com.unibo.ci.util.EffectHelper.ETypes;
 import com.unibo.ci.ast.errors.EffectError;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class DecVar extends Dec {
     private final Exp exp;
@@ -53,19 +53,19 @@ public class DecVar extends Dec {
     }
 
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
         if (type instanceof TypeVoid)
-            TypeErrorsStorage.add(new TypeError(row, column, "Variable type cannot be " + type.getTypeName()));
+            context.addTypeError(new TypeError(row, column, "Variable type cannot be " + type.getTypeName()));
 
         if (exp == null)
             return new TypeVoid();
 
-        Type expType = exp.typeCheck();
+        Type expType = exp.typeCheck(context);
         if (expType == null)
             return null;
 
         if (!type.equals(expType)) {
-            TypeErrorsStorage.add(new TypeError(this.exp.getRow(), this.exp.getColumn(), "Expression type ["
+            context.addTypeError(new TypeError(this.exp.getRow(), this.exp.getColumn(), "Expression type ["
                     + expType.getTypeName() + "] is not equal to declared type [" + type.getTypeName() + "]"));
             return null;
         }
@@ -73,20 +73,17 @@ public class DecVar extends Dec {
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN DECVAR [" + id + "]\n" : "");
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN DECVAR [" + id + "]");
 
         if (exp == null){
-            out += "addi $sp $sp -1\n";
+            out.addi("$sp", "$sp", -1);
         } else {
-            out += exp.codeGeneration();
-            out += "push $a0\n";
+            exp.codeGeneration(out, context);
+            out.push("$a0");
         }
 
-        out += (debug ? ";END DECVAR [" + this.id + "]\n" : "");
-        return out;
+        out.comment("END DECVAR [" + this.id + "]");
     }
 
     /*
@@ -98,7 +95,7 @@ public class DecVar extends Dec {
      */
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
 
         ArrayList<EffectError> errors = new ArrayList<EffectError>();
 
@@ -106,7 +103,7 @@ public class DecVar extends Dec {
 
 
         if (exp != null) {
-            errors.addAll(exp.AnalyzeEffect(env));
+            errors.addAll(exp.AnalyzeEffect(env, context));
             env.lookup(id).updateEffectType(EffectHelper.seq(env.lookup(id).getEtype(), ETypes.RW));
         }
 
@@ -2,11 +2,13 @@ package com.unibo.ci.ast.exp;
 
 import java.util.ArrayList;
 
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.types.Type;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class BaseExp extends Exp {
 
@@ -28,18 +30,18 @@ public class BaseExp extends Exp {
     }
 
     @Override
-    public Type typeCheck() {
-        return child.typeCheck();
+    public Type typeCheck(CompilationContext context) {
+        return child.typeCheck(context);
     }
 
     @Override
-    public String codeGeneration() {
-        return child.codeGeneration();
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        child.codeGeneration(out, context);
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
-        return child.AnalyzeEffect(env);
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
+        return child.AnalyzeEffect(env, context);
     }
 
 	public Exp getChild() {
@@ -6,8 +6,10 @@ import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypeBool;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class BoolExp extends Exp {
 
@@ -33,17 +35,17 @@ public class BoolExp extends Exp {
     }
 
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
         return new TypeBool();
     }
 
     @Override
-    public String codeGeneration() {
-		return "li $a0 " + (this.value ? 1 : 0) +"\n";
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.li("$a0", this.value ? 1 : 0);
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         return new ArrayList<EffectError>();
     }
 
@@ -7,10 +7,10 @@ import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypePointer;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class DerExp extends LhsExp {
     private final LhsExp child;
@@ -36,36 +36,33 @@ public class DerExp extends LhsExp {
     }
 
     @Override
-    public Type typeCheck() {
-        Type returnType = child.typeCheck();
+    public Type typeCheck(CompilationContext context) {
+        Type returnType = child.typeCheck(context);
         if (returnType == null) {
             return null;
         }
 
         if (!(returnType instanceof TypePointer)) {
-            TypeErrorsStorage.add(new TypeError(row, column, "Dereferencing error"));
+            context.addTypeError(new TypeError(row, column, "Dereferencing error"));
             return null;
         }
         return ((TypePointer) returnType).getPointedType();
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN DER \n" : "");
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN DER ");
         VarExp id = getVarId();
-        out += id.codeGeneration();
+        id.codeGeneration(out, context);
 
         LhsExp pointer = child;
-        out += "lw $a0 0($a0)\n";
+        out.lw("$a0", 0, "$a0");
         while (pointer instanceof DerExp) { // dereference pointer
-            out += "lw $a0 0($a0)\n";
+            out.lw("$a0", 0, "$a0");
             pointer = ((DerExp) pointer).child;
         }
 
-        out += (debug ? ";END DER\n" : "");
-        return out;
+        out.comment("END DER");
     }
 
     @Override
@@ -74,8 +71,8 @@ public class DerExp extends LhsExp {
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
-        return child.AnalyzeEffect(env);
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
+        return child.AnalyzeEffect(env, context);
     }
 
 }
@@ -6,9 +6,10 @@ import com.unibo.ci.ast.types.*;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.errors.TypeError;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 /**
  * Neg Expression
@@ -33,10 +34,10 @@ public class NegExp extends Exp {
     }
 
     @Override
-    public TypeInt typeCheck() {
-        Type childType = child.typeCheck();
+    public TypeInt typeCheck(CompilationContext context) {
+        Type childType = child.typeCheck(context);
         if (!(childType instanceof TypeInt)) {
-            TypeErrorsStorage.add(new TypeError(super.row, super.column, "expecting type  ["
+            context.addTypeError(new TypeError(super.row, super.column, "expecting type  ["
                     + (new TypeBool()).getTypeName() + "], found [" + childType.getTypeName() + "]"));
             return null;
         }
@@ -44,13 +45,14 @@ public class NegExp extends Exp {
     }
 
     @Override
-    public String codeGeneration() {
-        return child.codeGeneration() + "muli $a0 $a0 -1\n";
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        child.codeGeneration(out, context);
+        out.muli("$a0", "$a0", -1);
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
-        return child.AnalyzeEffect(env);
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
+        return child.AnalyzeEffect(env, context);
     }
 
 }
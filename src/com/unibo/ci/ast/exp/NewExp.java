@@ -6,9 +6,10 @@ import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.types.*;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class NewExp extends Exp {
     final Type type;
@@ -29,9 +30,9 @@ public class NewExp extends Exp {
     }
 
     @Override
-    public TypePointer typeCheck() {
+    public TypePointer typeCheck(CompilationContext context) {
         if (!(type instanceof TypeInt || type instanceof TypeBool || type instanceof TypePointer)) {
-            TypeErrorsStorage.add(
+            context.addTypeError(
                 new TypeError(super.row, super.column, "expecting type [" + (new TypeBool()).getTypeName() + "] or [" + (new TypeInt()).getTypeName() + "], found [" + 
                     type.getTypeName() + "]"));
             return null;
@@ -40,13 +41,13 @@ public class NewExp extends Exp {
     }
 
     @Override
-    public String codeGeneration() {
-        return "li $t1 -1\n" + 
-                "sw $t1 0($hp) \n";
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.li("$t1", -1);
+        out.sw("$t1", 0, "$hp");
     }
 
 	@Override
-	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         return new ArrayList<EffectError>();
 	}
     
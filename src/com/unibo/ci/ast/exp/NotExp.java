@@ -6,9 +6,10 @@ import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.types.*;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class NotExp extends Exp {
 
@@ -30,13 +31,13 @@ public class NotExp extends Exp {
     }
 
     @Override
-    public TypeBool typeCheck() {
-        Type childType = child.typeCheck();
+    public TypeBool typeCheck(CompilationContext context) {
+        Type childType = child.typeCheck(context);
         if(childType == null) {
         	return null;
         }
         if (!(childType instanceof TypeBool)) {
-            TypeErrorsStorage.add(new TypeError(super.row, super.column,
+            context.addTypeError(new TypeError(super.row, super.column,
                     "expecting type [" + (new TypeBool()).getTypeName() 
                     + "] found [" + childType.getTypeName() + "]"));
             return null;
@@ -45,13 +46,14 @@ public class NotExp extends Exp {
     }
 
     @Override
-    public String codeGeneration() {
-        return child.codeGeneration() + "not $a0 $a0\n";
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        child.codeGeneration(out, context);
+        out.not("$a0", "$a0");
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
-        return child.AnalyzeEffect(env);
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
+        return child.AnalyzeEffect(env, context);
     }
 
 	public Exp getChild() {
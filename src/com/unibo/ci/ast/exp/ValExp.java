@@ -5,8 +5,10 @@ import java.util.ArrayList;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.types.*;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class ValExp extends Exp {
 
@@ -32,17 +34,17 @@ public class ValExp extends Exp {
     }
     
     @Override
-    public TypeInt typeCheck() {
+    public TypeInt typeCheck(CompilationContext context) {
         return new TypeInt();
     }
 
     @Override
-    public String codeGeneration() {
-        return "li $a0 " + value +"\n";
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.li("$a0", value);
     }
 
 	@Override
-	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
 		return new ArrayList<EffectError>();
 	}
     
@@ -7,12 +7,12 @@ import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.errors.Warning;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypePointer;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.EffectHelper;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.STentry;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.WarningsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class VarExp extends LhsExp {
     private final String id;
@@ -40,32 +40,29 @@ public class VarExp extends LhsExp {
     }
 
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
         if (stEntry == null)
             return null;
         return stEntry.getType();
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN ID [" + id + "]\n" : "");
-        out += "mv $al $fp \n";
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN ID [" + id + "]");
+        out.mv("$al", "$fp");
 
         int nl = nestingLevel - stEntry.getNestinglevel();
         for (int i = 0; i < nl; i++) {
-            out += "lw $al 0($al)\n";
+            out.lw("$al", 0, "$al");
         }
 
         int offset = stEntry.getOffset() - 1;
         if (assignment) {
-            out += "addi $a0 $al " + offset + "\n";
+            out.addi("$a0", "$al", offset);
         } else {
-            out += "lw $a0 " + offset + "($al)\n";
+            out.lw("$a0", offset, "$al");
         }
-        out += (debug ? ";END ID [" + id + "]\n" : "");
-        return out;
+        out.comment("END ID [" + id + "]");
     }
 
     @Override
@@ -86,13 +83,13 @@ public class VarExp extends LhsExp {
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         ArrayList<EffectError> toRet = new ArrayList<EffectError>();
 
         if (!stEntry.getIsPar() && 
             (env.lookup(id).getEtype() == EffectHelper.ETypes.BOT || 
                 (!stEntry.isInitFlag() && stEntry.getType() instanceof TypePointer) ) ) {
-                WarningsStorage.add(new Warning(row, column, "uninitialized variable [" + id + "]"));
+                context.addWarning(new Warning(row, column, "uninitialized variable [" + id + "]"));
         }
         env.lookup(id).updateEffectType(
                 EffectHelper.seq(
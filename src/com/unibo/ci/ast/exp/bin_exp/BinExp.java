@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
 import com.unibo.ci.ast.exp.Exp;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
 
@@ -26,10 +27,10 @@ public abstract class BinExp extends Exp {
         return leftErrors;
     }
 
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         ArrayList<EffectError> toRet = new ArrayList<EffectError>();
-        toRet.addAll(left.AnalyzeEffect(env));
-        toRet.addAll(right.AnalyzeEffect(env));
+        toRet.addAll(left.AnalyzeEffect(env, context));
+        toRet.addAll(right.AnalyzeEffect(env, context));
 
         return toRet;
     }
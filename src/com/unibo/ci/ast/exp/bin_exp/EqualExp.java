@@ -2,12 +2,11 @@ package com.unibo.ci.ast.exp.bin_exp;
 
 import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.exp.Exp;
-import com.unibo.ci.util.GlobalConfig;
-import com.unibo.ci.util.LabelManager;
-import com.unibo.ci.util.TypeErrorsStorage;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypeBool;
 import com.unibo.ci.ast.types.TypeInt;
+import com.unibo.ci.svm.CodeEmitter;
+import com.unibo.ci.util.CompilationContext;
 
 public class EqualExp extends BinExp {
 
@@ -16,42 +15,39 @@ public class EqualExp extends BinExp {
     }
 
     @Override
-    public TypeBool typeCheck() {
-        Type leftType = super.left.typeCheck();
-        Type rightType = super.right.typeCheck();
+    public TypeBool typeCheck(CompilationContext context) {
+        Type leftType = super.left.typeCheck(context);
+        Type rightType = super.right.typeCheck(context);
 
         if ((leftType instanceof TypeBool && rightType instanceof TypeInt)
                 || (leftType instanceof TypeInt && rightType instanceof TypeBool)) {
-            TypeErrorsStorage.add(new TypeError(super.row, super.column, "type mismatch"));
+            context.addTypeError(new TypeError(super.row, super.column, "type mismatch"));
             return null;
         }
         return new TypeBool();
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN EQUAL\n" : "");
-        out += left.codeGeneration();
-        out += "push $a0" + (debug ? " ; push on the stack e1\n" : "\n");
-        out += right.codeGeneration();
-        out += "lw $t1 0($sp)" + (debug ? " ;$t1 = e1, $a0 = e2\n" : "\n");
-        out += "pop" + (debug ? " ;pop e1 from the stack\n" : "\n");
-
-        String trueBranchLabel = LabelManager.getInstance().newLabel("equalTrueBranch");
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN EQUAL");
+        left.codeGeneration(out, context);
+        out.push("$a0").note("push on the stack e1");
+        right.codeGeneration(out, context);
+        out.lw("$t1", 0, "$sp").note("$t1 = e1, $a0 = e2");
+        out.pop().note("pop e1 from the stack");
+
+        String trueBranchLabel = context.newLabel("equalTrueBranch");
         String endCheckLabel = "end" + trueBranchLabel;
 
-        out += "beq $t1 $a0 " + trueBranchLabel + "\n";
+        out.beq("$t1", "$a0", trueBranchLabel);
         // False branch
-        out += "li $a0 0" + (debug ? " ;e1 != e2\n" : "\n");
-        out += "b " + endCheckLabel + "\n";
-        out += trueBranchLabel + ":\n";
-        out += "li $a0 1" + (debug ? " ;e1 != e2\n" : "\n");
-        out += endCheckLabel + ":\n";
-
-        out += (debug ? ";END EQUAL\n" : "");
-        return out;
+        out.li("$a0", 0).note("e1 != e2");
+        out.b(endCheckLabel);
+        out.label(trueBranchLabel);
+        out.li("$a0", 1).note("e1 == e2");
+        out.label(endCheckLabel);
+
+        out.comment("END EQUAL");
     }
 
     @Override
@@ -2,11 +2,10 @@ package com.unibo.ci.ast.exp.bin_exp;
 
 import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.exp.Exp;
-import com.unibo.ci.util.GlobalConfig;
-import com.unibo.ci.util.LabelManager;
-import com.unibo.ci.util.TypeErrorsStorage;
 import com.unibo.ci.ast.types.TypeBool;
 import com.unibo.ci.ast.types.TypeInt;
+import com.unibo.ci.svm.CodeEmitter;
+import com.unibo.ci.util.CompilationContext;
 
 public class LessThanEqExp extends BinExp {
 
@@ -15,37 +14,34 @@ public class LessThanEqExp extends BinExp {
     }
 
     @Override
-    public TypeBool typeCheck() {
-        if (!(super.left.typeCheck() instanceof TypeInt && super.right.typeCheck() instanceof TypeInt)) {
-            TypeErrorsStorage.add(new TypeError(super.row, super.column, "Expecting an integer value"));
+    public TypeBool typeCheck(CompilationContext context) {
+        if (!(super.left.typeCheck(context) instanceof TypeInt && super.right.typeCheck(context) instanceof TypeInt)) {
+            context.addTypeError(new TypeError(super.row, super.column, "Expecting an integer value"));
             return null;
         }
         return new TypeBool();
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN LESS THAN EQUAL\n" : "");
-        out += left.codeGeneration();
-        out += "push $a0" + (debug ? " ;push on the stack e1\n" : "\n");
-        out += right.codeGeneration();
-        out += "lw $t1 0($sp)" + (debug ? " ;$t1 = e1, $a0 = e2\n" : "\n");
-        out += "pop" + (debug ? " ;pop e1 from the stack\n" : "\n");
-
-        String trueBranchLabel = LabelManager.getInstance().newLabel("lesseqTrueBranch");
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN LESS THAN EQUAL");
+        left.codeGeneration(out, context);
+        out.push("$a0").note("push on the stack e1");
+        right.codeGeneration(out, context);
+        out.lw("$t1", 0, "$sp").note("$t1 = e1, $a0 = e2");
+        out.pop().note("pop e1 from the stack");
+
+        String trueBranchLabel = context.newLabel("lesseqTrueBranch");
         String endCheckLabel = "end" + trueBranchLabel;
-        out += "bleq $t1 $a0" + trueBranchLabel + "\n";
+        out.bleq("$t1", "$a0", trueBranchLabel);
         // False branch
-        out += "li $a0 0\n";
-        out += "b " + endCheckLabel + "\n";
-        out += trueBranchLabel + ":\n";
-        out += "li $a0 1\n";
-        out += endCheckLabel + ":\n";
-
-        out += (debug ? ";END LESS THAN EQUAL\n" : "");
-        return out;
+        out.li("$a0", 0);
+        out.b(endCheckLabel);
+        out.label(trueBranchLabel);
+        out.li("$a0", 1);
+        out.label(endCheckLabel);
+
+        out.comment("END LESS THAN EQUAL");
     }
 
     @Override
@@ -2,11 +2,10 @@ package com.unibo.ci.ast.exp.bin_exp;
 
 import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.exp.Exp;
-import com.unibo.ci.util.GlobalConfig;
-import com.unibo.ci.util.LabelManager;
-import com.unibo.ci.util.TypeErrorsStorage;
 import com.unibo.ci.ast.types.TypeBool;
 import com.unibo.ci.ast.types.TypeInt;
+import com.unibo.ci.svm.CodeEmitter;
+import com.unibo.ci.util.CompilationContext;
 
 public class LessThanExp extends BinExp {
 
@@ -15,46 +14,43 @@ public class LessThanExp extends BinExp {
     }
 
     @Override
-    public TypeBool typeCheck() {
-        if (!(super.left.typeCheck() instanceof TypeInt && super.right.typeCheck() instanceof TypeInt)) {
-            TypeErrorsStorage.add(new TypeError(super.row, super.column, "Expecting an integer value"));
+    public TypeBool typeCheck(CompilationContext context) {
+        if (!(super.left.typeCheck(context) instanceof TypeInt && super.right.typeCheck(context) instanceof TypeInt)) {
+            context.addTypeError(new TypeError(super.row, super.column, "Expecting an integer value"));
             return null;
         }
         return new TypeBool();
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN LESS THAN\n" : "");
-        out += left.codeGeneration();
-        out += "push $a0" + (debug ? " ;push on the stack e1\n" : "\n");
-        out += right.codeGeneration();
-        out += "lw $t1 0($sp)" + (debug ? " ;$t1 = e1, $a0 = e2\n" : "\n");
-        out += "pop" + (debug ? " ;pop e1 from the stack\n" : "\n");
-
-        String equalTrueBranch = LabelManager.getInstance().newLabel("equalTrueBranch");
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN LESS THAN");
+        left.codeGeneration(out, context);
+        out.push("$a0").note("push on the stack e1");
+        right.codeGeneration(out, context);
+        out.lw("$t1", 0, "$sp").note("$t1 = e1, $a0 = e2");
+        out.pop().note("pop e1 from the stack");
+
+        String equalTrueBranch = context.newLabel("equalTrueBranch");
         String endEqualCheck = "end" + equalTrueBranch;
-        String lesseqTrueBranch = LabelManager.getInstance().newLabel("lesseqTrueBranch");
+        String lesseqTrueBranch = context.newLabel("lesseqTrueBranch");
         String endLesseqCheck = "end" + lesseqTrueBranch;
 
-        out += "beq $t1 $a0 " + equalTrueBranch + "\n";
+        out.beq("$t1", "$a0", equalTrueBranch);
         // False branch => e1 != e2
-        out += "bleq $t1 $a0 " + lesseqTrueBranch + "\n";
+        out.bleq("$t1", "$a0", lesseqTrueBranch);
         // InnerFalse branch => e1 > e2
-        out += "li $a0 0\n";
-        out += "b " + endLesseqCheck + "\n";
-        out += lesseqTrueBranch + ":\n";
-        out += "li $a0 1\n"; // e1 < e2
-        out += endLesseqCheck + ":\n";
-        out += "b " + endEqualCheck + "\n";
-        out += equalTrueBranch + ":\n";
-        out += "li $a0 0\n";
-        out += endEqualCheck + ":\n";
-
-        out += (debug ? ";END  LESS THAN\n" : "");
-        return out;
+        out.li("$a0", 0);
+        out.b(endLesseqCheck);
+        out.label(lesseqTrueBranch);
+        out.li("$a0", 1); // e1 < e2
+        out.label(endLesseqCheck);
+        out.b(endEqualCheck);
+        out.label(equalTrueBranch);
+        out.li("$a0", 0);
+        out.label(endEqualCheck);
+
+        out.comment("END  LESS THAN");
     }
 
     @Override
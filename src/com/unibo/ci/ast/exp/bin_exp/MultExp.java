@@ -2,9 +2,9 @@ package com.unibo.ci.ast.exp.bin_exp;
 
 import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.exp.Exp;
-import com.unibo.ci.util.GlobalConfig;
-import com.unibo.ci.util.TypeErrorsStorage;
 import com.unibo.ci.ast.types.TypeInt;
+import com.unibo.ci.svm.CodeEmitter;
+import com.unibo.ci.util.CompilationContext;
 
 public class MultExp extends BinExp {
 
@@ -13,29 +13,26 @@ public class MultExp extends BinExp {
     }
 
     @Override
-    public TypeInt typeCheck() {
-        if (!(super.left.typeCheck() instanceof TypeInt && super.right.typeCheck() instanceof TypeInt)) {
-            TypeErrorsStorage.add(new TypeError(super.row, super.column, "Expecting an integer value"));
+    public TypeInt typeCheck(CompilationContext context) {
+        if (!(super.left.typeCheck(context) instanceof TypeInt && super.right.typeCheck(context) instanceof TypeInt)) {
+            context.addTypeError(new TypeError(super.row, super.column, "Expecting an integer value"));
             return null;
         }
         return new TypeInt();
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN MULT");
+        left.codeGeneration(out, context);
+        out.push("$a0").note("push on the stack e1");
+        right.codeGeneration(out, context);
+        out.lw("$t1", 0, "$sp").note("$t1 = e1, $a0 = e2");
+        out.pop().note("pop e1 from the stack");
 
-        String out = (debug ? ";BEGIN MULT\n" : "");
-        out += left.codeGeneration();
-        out += "push $a0" + (debug ? " ;push on the stack e1\n" : "\n");
-        out += right.codeGeneration();
-        out += "lw $t1 0($sp)" + (debug ? " ;$t1 = e1, $a0 = e2\n" : "\n");
-        out += "pop" + (debug ? " ;pop e1 from the stack\n" : "\n");
+        out.mul("$a0", "$t1", "$a0");
 
-        out += "mul $a0 $t1 $a0\n";
-
-        out += (debug ? ";END MULT\n" : "");
-        return out;
+        out.comment("END MULT");
     }
 
     @Override
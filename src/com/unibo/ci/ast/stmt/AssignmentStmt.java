@@ -11,11 +11,11 @@ import com.unibo.ci.ast.exp.NewExp;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypePointer;
 import com.unibo.ci.ast.types.TypeVoid;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.EffectHelper;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 /**
  * Example: x = 3;
@@ -51,14 +51,14 @@ public class AssignmentStmt extends Statement {
 	}
 
 	@Override
-	public Type typeCheck() {
-		Type typeLeft = left.typeCheck();
-		Type typeExp = exp.typeCheck();
+	public Type typeCheck(CompilationContext context) {
+		Type typeLeft = left.typeCheck(context);
+		Type typeExp = exp.typeCheck(context);
 		if (typeExp == null)
 			return null;
 
 		if (!typeLeft.equals(typeExp)) {
-			TypeErrorsStorage.add(new TypeError(super.row, super.column,
+			context.addTypeError(new TypeError(super.row, super.column,
 					"Cannot assign [" + typeExp.getTypeName() + "] to [" + typeLeft.getTypeName() + "]"));
 			return null;
 		}
@@ -66,26 +66,23 @@ public class AssignmentStmt extends Statement {
 	}
 
 	@Override
-	public String codeGeneration() {
-		boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-		String out = (debug ? ";BEGIN ASSIGNMENT " + "\n" : "");
-		out += exp.codeGeneration();
-		out += "push $a0\n";
-		out += left.codeGeneration();
-		out += "lw $t1 0($sp)\n";
-		out += "pop\n";
-		out += "sw $t1 0($a0)\n";
-
-		out += (debug ? ";END ASSIGNMENT\n" : "");
-		return out;
+	public void codeGeneration(CodeEmitter out, CompilationContext context) {
+		out.comment("BEGIN ASSIGNMENT ");
+		exp.codeGeneration(out, context);
+		out.push("$a0");
+		left.codeGeneration(out, context);
+		out.lw("$t1", 0, "$sp");
+		out.pop();
+		out.sw("$t1", 0, "$a0");
+
+		out.comment("END ASSIGNMENT");
 	}
 
 	@Override
-	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
 		ArrayList<EffectError> toRet = new ArrayList<EffectError>();
 
-		toRet.addAll(exp.AnalyzeEffect(env));
+		toRet.addAll(exp.AnalyzeEffect(env, context));
 
 		// set id effect as seq from his actual effect to RW
 		env.lookup(left.getVarId().getId())
@@ -14,12 +14,12 @@ import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypeBool;
 import com.unibo.ci.ast.types.TypeInt;
 import com.unibo.ci.ast.types.TypeVoid;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.STentry;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
 import com.unibo.ci.ast.types.TypeFunction;
+import com.unibo.ci.svm.CodeEmitter;
 
 /**
  * Example: { }
@@ -94,14 +94,14 @@ public class BlockBase extends Statement {
 	}
 
 	@Override
-	public Type typeCheck() {
+	public Type typeCheck(CompilationContext context) {
 		declarations.forEach(dec -> {
-			dec.typeCheck();
+			dec.typeCheck(context);
 		});
 
 		ArrayList<Type> stmtReturn = new ArrayList<Type>();
 		statements.forEach(stmt -> {
-			Type type = stmt.typeCheck();
+			Type type = stmt.typeCheck(context);
 			if (type != null && (stmt instanceof IteStmt || stmt instanceof ReturnStmt || stmt instanceof BlockBase)) {
 				stmtReturn.add(type);
 			}
@@ -115,7 +115,7 @@ public class BlockBase extends Statement {
 
 					if ((element instanceof TypeInt || element instanceof TypeBool || element instanceof TypeVoid) &&
 							(accumulator != null && !accumulator.equals(element))) {
-						TypeErrorsStorage.add(new TypeError(row, column, "return type mismatch in block element"));
+						context.addTypeError(new TypeError(row, column, "return type mismatch in block element"));
 					}
 					return element;
 				});
@@ -124,23 +124,21 @@ public class BlockBase extends Statement {
 	}
 
 	@Override
-	public String codeGeneration() {
-		boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-		String out = (debug ? ";BEGIN BLOCK\n" : "");
+	public void codeGeneration(CodeEmitter out, CompilationContext context) {
+		out.comment("BEGIN BLOCK");
 
 		// New scope
-		out += "push $fp" + (debug ? " ;push old fp\n" : "\n");
-		out += "push $cl\n";
+		out.push("$fp").note("push old fp");
+		out.push("$cl");
 
 
 		// Pushing ra so the stack is always consistent
-		out += "li $t1 0\n";
-		out += "push $t1\n";
+		out.li("$t1", 0);
+		out.push("$t1");
 
-		out += "mv $al $fp\n";
-		out += "push $al" + (debug ? " ;it's equal to the old $fp\n" : "\n");
-		out += "mv $fp $sp\n";
+		out.mv("$al", "$fp");
+		out.push("$al").note("it's equal to the old $fp");
+		out.mv("$fp", "$sp");
 
 		List<DecVar> varDecs = new ArrayList<>();
 		List<DecFun> funDecs = new ArrayList<>();
@@ -154,78 +152,73 @@ public class BlockBase extends Statement {
 
 		// Generate code for declarations
 		for (DecVar d : varDecs){
-			out += d.codeGeneration();
+			d.codeGeneration(out, context);
 		}
 
 
 		boolean flagReturn = false;
 		// Generate statements
 		for (Statement s : statements) {
-			out += s.codeGeneration();
+			s.codeGeneration(out, context);
 			if(s instanceof ReturnStmt && typeFunction != null){
-				out += codeGenEnd(varDecs.size());
-				out += "b " + typeFunction.getLabelEndFun() + "\n";
+				codeGenEnd(out, varDecs.size());
+				out.b(typeFunction.getLabelEndFun());
 				flagReturn = true;
 			}
 		}
 		if(!flagReturn && isFunctionBlock){
-			out += codeGenEnd(varDecs.size());
-			out += "b " + typeFunction.getLabelEndFun() + "\n";
+			codeGenEnd(out, varDecs.size());
+			out.b(typeFunction.getLabelEndFun());
 		} else {
-			out += codeGenEnd(varDecs.size());
+			codeGenEnd(out, varDecs.size());
 		}
 
 		if (isMain){
-			out += "halt\n";
+			out.halt();
 		}
 		
 		// Function declaration at the end, they need the space for ra
 		for (DecFun f : funDecs) {
-			out += f.codeGeneration();
+			f.codeGeneration(out, context);
 		}
-		out += (debug ? ";END BLOCK\n" : "");
-
-		return out;
+		out.comment("END BLOCK");
 	}
 
-	public String codeGenEnd(int varDecSize){
-		boolean debug = GlobalConfig.PRINT_COMMENTS;
+	public void codeGenEnd(CodeEmitter out, int varDecSize){
 		// Pop all the declarations
-		String out = "addi $sp $sp " + varDecSize + (debug ? " ;pop var declarations\n" : "\n"); // Pop var
-		// declarations.
-		out += "pop" + (debug ? " ;pop $al\n" : "\n");
-		out += "pop" + (debug ? " ;pop consistency ra\n" : "\n");
-		out += "lw $cl 0($sp)\n";
-		out += "pop\n";
-		out += "lw $fp 0($sp)" + (debug ? " ;restore old $fp\n" : "\n");
-		out += "pop" + (debug ? " ;pop old $fp\n" : "\n");
-		return out;
+		out.addi("$sp", "$sp", varDecSize).note("pop var declarations");
+		out.pop().note("pop $al");
+		out.pop().note("pop consistency ra");
+		out.lw("$cl", 0, "$sp");
+		out.pop();
+		out.lw("$fp", 0, "$sp").note("restore old $fp");
+		out.pop().note("pop old $fp");
 	}
 
 	@Override
-	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
 		ArrayList<EffectError> errors = new ArrayList<EffectError>();
 
 		env.newScope();
 
-		errors.addAll(AnalyzeEffectNoScope(env));
+		errors.addAll(AnalyzeEffectNoScope(env, context));
 
 		env.exitScope();
 
 		return errors;
 	}
 
-	public ArrayList<EffectError> AnalyzeEffectNoScope(SigmaEnv env) { // serve per l'analisi degli effetti nella
+	public ArrayList<EffectError> AnalyzeEffectNoScope(SigmaEnv env, CompilationContext context) { // serve per l'analisi degli effetti nella
 																		// dichiarazione di funzione
 		ArrayList<EffectError> errors = new ArrayList<EffectError>();
 
 		declarations.forEach(dec -> {
 
-			errors.addAll(dec.AnalyzeEffect(env));
+			errors.addAll(dec.AnalyzeEffect(env, context));
 		});
 
 		statements.forEach(stmt -> {
-			errors.addAll(stmt.AnalyzeEffect(env));
+			errors.addAll(stmt.AnalyzeEffect(env, context));
 		});
 
 		return errors;
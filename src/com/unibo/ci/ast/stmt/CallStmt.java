@@ -12,13 +12,13 @@ import com.unibo.ci.ast.exp.LhsExp;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypeFunction;
 import com.unibo.ci.ast.types.TypePointer;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.EffectHelper;
 import com.unibo.ci.util.EffectHelper.ETypes;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.STentry;
-import com.unibo.ci.util.TypeErrorsStorage;
 import com.unibo.ci.util.SigmaEnv;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class CallStmt extends Exp {
 
@@ -46,13 +46,13 @@ public class CallStmt extends Exp {
     }
 
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
         if (entry == null)
             return null;
 
         /// Controllo che entry.getType sia una funzione
         if (!(entry.getType() instanceof TypeFunction)) {
-            TypeErrorsStorage.add(new TypeError(row, column,
+            context.addTypeError(new TypeError(row, column,
                     "[" + entry.getId() + "] is not a function"));
         }
 
@@ -61,17 +61,17 @@ public class CallStmt extends Exp {
             return null;
 
         for (int i = 0; i < parlist.size(); i++) {
-            Type funParType = typeFun.getArguments().get(i).typeCheck();
+            Type funParType = typeFun.getArguments().get(i).typeCheck(context);
             if (funParType == null) {
-                TypeErrorsStorage.add(new TypeError(row, column,
+                context.addTypeError(new TypeError(row, column,
                         "[" + entry.getId() + "] is not a function"));
                 return null;
             }
 
-            Type callParType = parlist.get(i).typeCheck();
+            Type callParType = parlist.get(i).typeCheck(context);
 
             if (!funParType.equals(callParType)) {
-                TypeErrorsStorage.add(new TypeError(row, column,
+                context.addTypeError(new TypeError(row, column,
                         "Argument " + i + " must be of type [" + funParType.getTypeName() + "]"));
                 return null;
             }
@@ -81,36 +81,34 @@ public class CallStmt extends Exp {
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN CALL FUN [" + id + "]");
+        out.push("$fp");
+        out.push("$sp");
+        out.mv("$cl", "$sp");
 
-        String out = (debug ? ";BEGIN CALL FUN [" + id + "]\n" : "");
-        out += "push $fp\n";
-        out += "push $sp\n";
-        out += "mv $cl $sp\n";
+        out.addi("$t1", "$cl", 2);
+        out.sw("$t1", 0, "$cl");
 
-        out += "addi $t1 $cl 2\n";
-        out += "sw $t1 0($cl)\n";
-
-        out += "addi $sp $sp -1\n";
+        out.addi("$sp", "$sp", -1);
 
         TypeFunction typeFun = ((TypeFunction) (entry.getType()));
 
-        out += "mv $al $fp\n";
+        out.mv("$al", "$fp");
 
         for (int i = 0; i < nestingLevel - entry.getNestinglevel(); i++)
-            out += "lw $al 0($al)\n";
+            out.lw("$al", 0, "$al");
 
-        out += "push $al\n";
+        out.push("$al");
         for (Exp p : parlist) {
-            out += p.codeGeneration() + "push $a0" + (debug ? " ;pushing \n" : "\n");
+            p.codeGeneration(out, context);
+            out.push("$a0").note("pushing ");
         }
-        out += "mv $fp $sp\n";
-        out += "addi $fp $fp " + parlist.size() + "\n";
-        out += "jal " + typeFun.getLabelStartFun() + "\n"; // decfun saves ra firstly
+        out.mv("$fp", "$sp");
+        out.addi("$fp", "$fp", parlist.size());
+        out.jal(typeFun.getLabelStartFun()); // decfun saves ra firstly
 
-        out += (debug ? ";END CALL FUN [" + id + "]\n" : "");
-        return out;
+        out.comment("END CALL FUN [" + id + "]");
     }
 
     @Override
@@ -146,7 +144,7 @@ public class CallStmt extends Exp {
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         ArrayList<EffectError> errors = new ArrayList<EffectError>();
 
         SigmaEnv sigma_1 = env.lookupFunction(id).getSigma1();
@@ -155,7 +153,7 @@ public class CallStmt extends Exp {
         int position = 0; // conta la posizione della variabile - serve per corrispondenza parametri
                           // attuali e formali
         for (Exp par : parlist) {
-            if (par.typeCheck() instanceof TypePointer) {
+            if (par.typeCheck(context) instanceof TypePointer) {
 
                 String formal_parameter = ((TypeFunction) entry.getType()).getArguments().get(position).getId();
                 ETypes a = env.lookup(((LhsExp) par).getVarId().getId() /* parametri attuali */).getEtype();
@@ -168,7 +166,7 @@ public class CallStmt extends Exp {
                 sigma_secondo.put(((LhsExp) par).getVarId().getId(), valEffectList);
 
             } else {
-                errors.addAll(par.AnalyzeEffect(env));
+                errors.addAll(par.AnalyzeEffect(env, context));
             }
             position++;
         }
@@ -8,13 +8,12 @@ import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.errors.Warning;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypePointer;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.EffectHelper;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.STentry;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
-import com.unibo.ci.util.WarningsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class DeleteStmt extends Statement {
 
@@ -46,43 +45,40 @@ public class DeleteStmt extends Statement {
     }
 
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
 
         if (stEntry == null) {
             return null;
         }
 
         if (!(stEntry.getType() instanceof TypePointer)) {
-            TypeErrorsStorage.add(new TypeError(super.column, super.row, "Variable type must be [POINTER[*]]"));
+            context.addTypeError(new TypeError(super.column, super.row, "Variable type must be [POINTER[*]]"));
         }
         return stEntry.getType();
 
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-
-        String out = (debug ? ";BEGIN DELETE [" + id + "]\n" : "");
-        out += "mv $al $fp \n";
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN DELETE [" + id + "]");
+        out.mv("$al", "$fp");
 
         for (int i = 0; i < nestingLevel - stEntry.getNestinglevel(); i++) {
-            out += "lw $al 0($al)\n";
+            out.lw("$al", 0, "$al");
         }
 
         int offset = stEntry.getOffset() - 1;
-        out += "lw $a0 " + offset + "($al)\n";
+        out.lw("$a0", offset, "$al");
 
-        out += "del $a0\n";
-        out += (debug ? ";END DELETE [" + id + "]\n" : "");
-        return out;
+        out.del("$a0");
+        out.comment("END DELETE [" + id + "]");
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         if (!stEntry.getIsPar() && (env.lookup(id).getEtype() == EffectHelper.ETypes.BOT
                                                                 || !stEntry.isInitFlag()) ) {
-            WarningsStorage.add(new Warning(row, column, "uninitialized variable [" + id + "]"));
+            context.addWarning(new Warning(row, column, "uninitialized variable [" + id + "]"));
         }
 
         ArrayList<EffectError> toRet = new ArrayList<EffectError>();
@@ -9,12 +9,11 @@ import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.exp.Exp;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypeBool;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.EffectHelper;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
-import com.unibo.ci.util.LabelManager;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class IteStmt extends Statement implements Cloneable {
 
@@ -67,20 +66,20 @@ public class IteStmt extends Statement implements Cloneable {
     }
 
     @Override
-    public Type typeCheck() {
-        Type expType = exp.typeCheck();
+    public Type typeCheck(CompilationContext context) {
+        Type expType = exp.typeCheck(context);
         if (!(expType instanceof TypeBool)) {
-            TypeErrorsStorage.add(new TypeError(super.row, super.column,
+            context.addTypeError(new TypeError(super.row, super.column,
                     "If condition must be of [" + (new TypeBool()).getTypeName() + "]"));
         }
 
-        Type thenType = thenStmt.typeCheck();
+        Type thenType = thenStmt.typeCheck(context);
 
         // Nessun ramo else
         if (elseStmt == null)
             return null;
 
-        Type elseType = elseStmt.typeCheck();
+        Type elseType = elseStmt.typeCheck(context);
 
         // Posso avere solo return, blocchi o altri ite
         if (!(thenStmt instanceof ReturnStmt || thenStmt instanceof BlockBase || thenStmt instanceof IteStmt))
@@ -94,47 +93,45 @@ public class IteStmt extends Statement implements Cloneable {
         if (elseType.equals(thenType))
             return thenType;
 
-        TypeErrorsStorage.add(new TypeError(super.row, super.column, "Braches types mismatch"));
+        context.addTypeError(new TypeError(super.row, super.column, "Braches types mismatch"));
         return null;
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN ITE ");
 
-        String out = (debug ? ";BEGIN ITE \n" : "");
-
-        String then = LabelManager.getInstance().newLabel("then");
-        String end = LabelManager.getInstance().newLabel("endif");
-        out += exp.codeGeneration();
-        out += "li $t1 1\n";
-        out += "beq $a0 $t1 " + then + "\n";
+        String then = context.newLabel("then");
+        String end = context.newLabel("endif");
+        exp.codeGeneration(out, context);
+        out.li("$t1", 1);
+        out.beq("$a0", "$t1", then);
 
         if (elseStmt != null) {
-            out += (debug ? ";ELSE\n" : "");
-            out += elseStmt.codeGeneration();
+            out.comment("ELSE");
+            elseStmt.codeGeneration(out, context);
         }
-        out += "b " + end + "\n" + then + ":\n";
-        out += ";THAN\n";
-        out += thenStmt.codeGeneration();
+        out.b(end);
+        out.label(then);
+        out.comment("THAN");
+        thenStmt.codeGeneration(out, context);
 
-        out += end + " :\n";
-        out += (debug ? ";END ITE\n" : "");
-        return out;
+        out.label(end);
+        out.comment("END ITE");
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         ArrayList<EffectError> toRet = new ArrayList<EffectError>();
 
-        toRet.addAll(exp.AnalyzeEffect(env));
+        toRet.addAll(exp.AnalyzeEffect(env, context));
 
         SigmaEnv tempE = env.clone();
 
-        analyzeBlockEffect(env, thenStmt, toRet);
+        analyzeBlockEffect(env, thenStmt, toRet, context);
 
         if (elseStmt != null) {
-            analyzeBlockEffect(tempE, elseStmt, toRet);
+            analyzeBlockEffect(tempE, elseStmt, toRet, context);
         } else {
             tempE = null;
         }
@@ -146,13 +143,13 @@ public class IteStmt extends Statement implements Cloneable {
         return toRet;
     }
 
-    private void analyzeBlockEffect(SigmaEnv e, Statement stmt, ArrayList<EffectError> toRet) {
+    private void analyzeBlockEffect(SigmaEnv e, Statement stmt, ArrayList<EffectError> toRet, CompilationContext context) {
 
         if (stmt instanceof BlockBase) {
-            toRet.addAll(stmt.AnalyzeEffect(e));
+            toRet.addAll(stmt.AnalyzeEffect(e, context));
         } else {
             e.newScope();
-            toRet.addAll(stmt.AnalyzeEffect(e));
+            toRet.addAll(stmt.AnalyzeEffect(e, context));
             e.exitScope();
         }
     }
@@ -8,8 +8,10 @@ import com.unibo.ci.ast.errors.TypeError;
 import com.unibo.ci.ast.exp.Exp;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypeVoid;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
+import com.unibo.ci.svm.CodeEmitter;
 
 public class PrintcharStmt extends Statement {
 
@@ -26,16 +28,17 @@ public class PrintcharStmt extends Statement {
     }
 
     @Override
-    public Type typeCheck() {
-        if (expToPrint != null && expToPrint.typeCheck() instanceof TypeVoid) {
+    public Type typeCheck(CompilationContext context) {
+        if (expToPrint != null && expToPrint.typeCheck(context) instanceof TypeVoid) {
             new TypeError(row, column, "Cannot print void expression");
         }
         return null;
     }
 
     @Override
-    public String codeGeneration() {
-        return expToPrint.codeGeneration() + "printchar $a0\n";
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        expToPrint.codeGeneration(out, context);
+        out.printchar("$a0");
     }
 
     @Override
@@ -48,10 +51,10 @@ public class PrintcharStmt extends Statement {
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         ArrayList<EffectError> toRet = new ArrayList<EffectError>();
         if (expToPrint != null) {
-            toRet.addAll(expToPrint.AnalyzeEffect(env));
+            toRet.addAll(expToPrint.AnalyzeEffect(env, context));
         }
         return toRet;
     }
@@ -9,11 +9,11 @@ import com.unibo.ci.ast.exp.Exp;
 import com.unibo.ci.ast.types.Type;
 import com.unibo.ci.ast.types.TypeFunction;
 import com.unibo.ci.ast.types.TypeVoid;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
-import com.unibo.ci.util.GlobalConfig;
 import com.unibo.ci.util.STentry;
 import com.unibo.ci.util.SigmaEnv;
-import com.unibo.ci.util.TypeErrorsStorage;
+import com.unibo.ci.svm.CodeEmitter;
 
 // tipo ritorno = tipo funzione
 
@@ -41,7 +41,7 @@ public class ReturnStmt extends Statement {
     }
 
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
         Type functionType;
         if (functionStEntry == null)
             functionType = new TypeVoid();
@@ -51,33 +51,31 @@ public class ReturnStmt extends Statement {
         if (exp == null)
             returnType = new TypeVoid();
         else
-            returnType = exp.typeCheck();
+            returnType = exp.typeCheck(context);
 
         if (!functionType.equals(returnType)) {
-            TypeErrorsStorage.add(
+            context.addTypeError(
                     new TypeError(super.row, super.column, "Return type must be [" + functionType.getTypeName() + "]"));
         }
         return returnType;
     }
 
     @Override
-    public String codeGeneration() {
-        boolean debug = GlobalConfig.PRINT_COMMENTS;
-        String out = (debug ? ";BEGIN RETURN \n" : "");
+    public void codeGeneration(CodeEmitter out, CompilationContext context) {
+        out.comment("BEGIN RETURN ");
         if (exp != null)
-            out += exp.codeGeneration();
+            exp.codeGeneration(out, context);
 
-        out += (debug ? ";END RETURN \n" : "");
-        return out;
+        out.comment("END RETURN ");
     }
 
     @Override
-    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+    public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
 
         ArrayList<EffectError> toRet = new ArrayList<EffectError>();
 
         if (exp != null) {
-            toRet.addAll(exp.AnalyzeEffect(env));
+            toRet.addAll(exp.AnalyzeEffect(env, context));
         }
         return toRet;
     }
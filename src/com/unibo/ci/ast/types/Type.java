@@ -5,8 +5,10 @@ import java.util.ArrayList;
 import com.unibo.ci.ast.Node;
 import com.unibo.ci.ast.errors.EffectError;
 import com.unibo.ci.ast.errors.SemanticError;
+import com.unibo.ci.util.CompilationContext;
 import com.unibo.ci.util.GammaEnv;
 import com.unibo.ci.util.SigmaEnv;
+import com.unibo.ci.svm.CodeEmitter;
 
 public abstract class Type extends Node{
 
@@ -42,17 +44,16 @@ public abstract class Type extends Node{
     }
     
     @Override
-    public Type typeCheck() {
+    public Type typeCheck(CompilationContext context) {
         return this;
     }
 
 	@Override
-	public String codeGeneration() {
-		return "";
+	public void codeGeneration(CodeEmitter out, CompilationContext context) {
 	}
     
     @Override
-	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env) {
+	public ArrayList<EffectError> AnalyzeEffect(SigmaEnv env, CompilationContext context) {
         return new ArrayList<EffectError>();
 	}
 
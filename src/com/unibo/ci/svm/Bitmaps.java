@@ -0,0 +1,63 @@
+package com.unibo.ci.svm;
+
+import java.util.Arrays;
+
+/**
+ * Operations on the bitmaps kept in long arrays, bit i of the bitmap is bit
+ * i % 64 of word i / 64.
+ */
+final class Bitmaps {
+	private Bitmaps() {
+	}
+
+	/**
+	 * @return the first bit from the given one equal to set, limit if there
+	 *         is none before it
+	 */
+	static int next(long[] words, int from, int limit, boolean set) {
+		if (from >= limit)
+			return limit;
+		int w = from >>> 6;
+		long word = (set ? words[w] : ~words[w]) & (-1L << from);
+		while (word == 0) {
+			if (++w == words.length)
+				return limit;
+			word = set ? words[w] : ~words[w];
+		}
+		return (int) Math.min(limit, ((long) w << 6) + Long.numberOfTrailingZeros(word));
+	}
+
+	/**
+	 * Sets the bits in [from, to).
+	 */
+	static void set(long[] words, int from, int to) {
+		if (from >= to)
+			return;
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		long head = -1L << from, tail = -1L >>> -to;
+		if (first == last) {
+			words[first] |= head & tail;
+			return;
+		}
+		words[first] |= head;
+		Arrays.fill(words, first + 1, last, -1L);
+		words[last] |= tail;
+	}
+
+	/**
+	 * Clears the bits in [from, to).
+	 */
+	static void clear(long[] words, int from, int to) {
+		if (from >= to)
+			return;
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		long head = -1L << from, tail = -1L >>> -to;
+		if (first == last) {
+			words[first] &= ~(head & tail);
+			return;
+		}
+		words[first] &= ~head;
+		Arrays.fill(words, first + 1, last, 0);
+		words[last] &= ~tail;
+	}
+}
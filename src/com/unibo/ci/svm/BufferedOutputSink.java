@@ -0,0 +1,118 @@
+package com.unibo.ci.svm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+
+/**
+ * Formats the values directly in a byte buffer that is written to the
+ * stream when full, when the SVM stops, or when more than the flush
+ * interval has passed since the last write (checked when something is
+ * printed and between two slices of the run, see {@link #poll()}).
+ *
+ * The sink is used by the thread running the SVM only.
+ *
+ * With {@link #unbuffered(OutputStream)} every value is written
+ * immediately, as needed for interactive use or when the output is mixed
+ * with the debug prints.
+ */
+public class BufferedOutputSink implements OutputSink {
+	public static final int DEFAULT_SIZE = 8192;
+
+	private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+
+	private final OutputStream out;
+	private final byte[] buffer;
+	private final long flushInterval; // nanoseconds, 0 never
+	private final boolean autoFlush;
+	private int count = 0;
+	private long lastFlush = System.nanoTime();
+
+	public BufferedOutputSink(OutputStream out) {
+		this(out, DEFAULT_SIZE, 0);
+	}
+
+	/**
+	 * @param flushMillis maximum time the output stays in the buffer, 0 to
+	 *                    flush only when full or at the end
+	 */
+	public BufferedOutputSink(OutputStream out, int size, long flushMillis) {
+		this(out, size, flushMillis, false);
+	}
+
+	private BufferedOutputSink(OutputStream out, int size, long flushMillis, boolean autoFlush) {
+		this.out = out;
+		// room for any int and the separator
+		this.buffer = new byte[Math.max(size, 11 + NEWLINE.length)];
+		this.flushInterval = flushMillis * 1_000_000;
+		this.autoFlush = autoFlush;
+	}
+
+	public static BufferedOutputSink unbuffered(OutputStream out) {
+		return new BufferedOutputSink(out, 64, 0, true);
+	}
+
+	@Override
+	public void printInt(int value) {
+		reserve(11 + NEWLINE.length);
+		long v = value;
+		if (v < 0) {
+			buffer[count++] = '-';
+			v = -v;
+		}
+		int end = count;
+		for (long t = v; t >= 10; t /= 10)
+			end++;
+		for (int i = end; i >= count; i--) {
+			buffer[i] = (byte) ('0' + v % 10);
+			v /= 10;
+		}
+		count = end + 1;
+		newLine();
+	}
+
+	@Override
+	public void printChar(int codePoint) {
+		if (codePoint >= 0 && codePoint < 0x80) {
+			reserve(1 + NEWLINE.length);
+			buffer[count++] = (byte) codePoint;
+		} else {
+			byte[] bytes = new String(Character.toChars(codePoint)).getBytes(Charset.defaultCharset());
+			reserve(bytes.length + NEWLINE.length);
+			System.arraycopy(bytes, 0, buffer, count, bytes.length);
+			count += bytes.length;
+		}
+		newLine();
+	}
+
+	private void reserve(int bytes) {
+		if (count + bytes > buffer.length)
+			flush();
+	}
+
+	private void newLine() {
+		System.arraycopy(NEWLINE, 0, buffer, count, NEWLINE.length);
+		count += NEWLINE.length;
+		if (autoFlush || (flushInterval > 0 && System.nanoTime() - lastFlush > flushInterval))
+			flush();
+	}
+
+	@Override
+	public void poll() {
+		if (count > 0 && flushInterval > 0 && System.nanoTime() - lastFlush > flushInterval)
+			flush();
+	}
+
+	@Override
+	public void flush() {
+		try {
+			out.write(buffer, 0, count);
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		count = 0;
+		lastFlush = System.nanoTime();
+	}
+}
@@ -0,0 +1,44 @@
+package com.unibo.ci.svm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the output in memory, one line per printed value.
+ */
+public class CaptureOutputSink implements OutputSink {
+	private final List<String> lines = new ArrayList<>();
+
+	@Override
+	public void printInt(int value) {
+		lines.add(Integer.toString(value));
+	}
+
+	@Override
+	public void printChar(int codePoint) {
+		lines.add(new String(Character.toChars(codePoint)));
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	public List<String> getLines() {
+		return Collections.unmodifiableList(lines);
+	}
+
+	/**
+	 * @return the output as it would be printed on the console
+	 */
+	public String getOutput() {
+		StringBuilder out = new StringBuilder();
+		for (String line : lines)
+			out.append(line).append(System.lineSeparator());
+		return out.toString();
+	}
+
+	public void clear() {
+		lines.clear();
+	}
+}
@@ -0,0 +1,164 @@
+package com.unibo.ci.svm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * State of an SVM saved in a file (.svmc), to resume the execution later or
+ * on another machine.
+ *
+ * <pre>
+ * header     magic "SVMC", u2 version, u2 flags (0),
+ *            32 bytes SHA-256 of the code (see {@link Program#getHash()}),
+ *            u4 memory size, u4 ip, u4 registers, s4 * registers,
+ *            u4 ranges, u8 offset of the cells
+ * heap       state of the {@link HeapAllocator}
+ * ranges     per range: u4 start, u4 end of the initialized cells
+ * cells      s4 * memory size, aligned to a page
+ * </pre>
+ *
+ * Everything is big endian. Only the cells in the ranges are written, the
+ * rest of the cells is a hole in the file, so a checkpoint takes on disk
+ * about the memory used by the program.
+ *
+ * The restore reads the header and maps the cells as the memory of the new
+ * SVM, nothing is decoded or copied: the pages come from the file when the
+ * program touches them.
+ */
+final class Checkpoint {
+	private static final int MAGIC = 0x53564D43; // SVMC
+	private static final int VERSION = 1;
+	private static final int HASH_SIZE = 32;
+	private static final int HEADER_SIZE = 12 + HASH_SIZE + 4 * Register.COUNT + 12 + 8;
+	private static final int PAGE = 4096;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * Writes the checkpoint to a temporary file and moves it over the old
+	 * one, so a crash never leaves a broken checkpoint and an SVM restored
+	 * from the old file keeps its pages.
+	 */
+	static void write(String filename, Program program, Memory memory, HeapAllocator heap, int[] registers, int ip)
+			throws IOException {
+		int size = memory.size();
+		int[] ranges = new int[16];
+		int count = 0;
+		for (int start = memory.nextInitialized(0); start < size; start = memory.nextInitialized(start)) {
+			if (count == ranges.length)
+				ranges = Arrays.copyOf(ranges, count * 2);
+			ranges[count++] = start;
+			ranges[count++] = start = memory.nextUninitialized(start);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream meta = new DataOutputStream(bytes);
+		heap.save(meta);
+		for (int i = 0; i < count; i++)
+			meta.writeInt(ranges[i]);
+		meta.flush();
+		long cells = (HEADER_SIZE + bytes.size() + PAGE - 1) / PAGE * PAGE;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).put(program.getHash());
+		header.putInt(size).putInt(ip).putInt(registers.length);
+		for (int r : registers)
+			header.putInt(r);
+		header.putInt(count / 2).putLong(cells).flip();
+
+		Path target = Paths.get(filename);
+		Path temp = Paths.get(filename + ".tmp");
+		try (RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw")) {
+			file.setLength(0);
+			file.setLength(cells + size * 4L);
+			FileChannel channel = file.getChannel();
+			writeFully(channel, header, 0);
+			writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()), HEADER_SIZE);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+			for (int i = 0; i < count; i += 2) {
+				long position = cells + ranges[i] * 4L;
+				for (int a = ranges[i]; a < ranges[i + 1]; a++) {
+					buffer.putInt(memory.read(a));
+					if (!buffer.hasRemaining()) {
+						buffer.flip();
+						position += writeFully(channel, buffer, position);
+						buffer.clear();
+					}
+				}
+				buffer.flip();
+				writeFully(channel, buffer, position);
+				buffer.clear();
+			}
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int written = 0;
+		while (buffer.hasRemaining())
+			written += channel.write(buffer, position + written);
+		return written;
+	}
+
+	/**
+	 * @throws IOException if the file cannot be read, is not a checkpoint or
+	 *                     belongs to another program
+	 */
+	static SVM read(String filename, Program program, OutputSink output) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) >= 0)
+				;
+			header.flip();
+			if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+				throw new IOException(filename + " is not an SVM checkpoint");
+			int version = header.getShort();
+			header.getShort(); // flags
+			if (version != VERSION)
+				throw new IOException(filename + ": unsupported version " + version);
+			byte[] hash = new byte[HASH_SIZE];
+			header.get(hash);
+			if (!Arrays.equals(hash, program.getHash()))
+				throw new IOException(filename + ": checkpoint of a different program");
+			int size = header.getInt();
+			int ip = header.getInt();
+			if (header.getInt() != Register.COUNT)
+				throw new IOException(filename + ": wrong number of registers");
+			int[] registers = new int[Register.COUNT];
+			for (int r = 0; r < registers.length; r++)
+				registers[r] = header.getInt();
+			int count = header.getInt();
+			long cells = header.getLong();
+			if (size <= 0 || count < 0 || cells < HEADER_SIZE || channel.size() < cells + size * 4L)
+				throw new IOException(filename + ": truncated file");
+
+			ByteBuffer meta = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, cells - HEADER_SIZE);
+			HeapAllocator heap;
+			int[] ranges = new int[count * 2];
+			try {
+				heap = new HeapAllocator(meta);
+				for (int i = 0; i < ranges.length; i++)
+					ranges[i] = meta.getInt();
+			} catch (RuntimeException e) { // underflow or negative sizes
+				throw new IOException(filename + ": invalid heap or ranges");
+			}
+			for (int i = 0; i < ranges.length; i += 2)
+				if (ranges[i] < 0 || ranges[i] > ranges[i + 1] || ranges[i + 1] > size)
+					throw new IOException(filename + ": invalid range " + ranges[i] + "-" + ranges[i + 1]);
+			Memory memory = new OffHeapMemory(channel, cells, size, ranges);
+			return new SVM(program, output, memory, heap, registers, ip);
+		}
+	}
+}
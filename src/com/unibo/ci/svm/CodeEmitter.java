@@ -0,0 +1,227 @@
+package com.unibo.ci.svm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the code generated by the AST nodes. Instructions are appended
+ * to a list, the jumps to labels not yet defined are patched by
+ * {@link #getCode()}.
+ *
+ * The assembly text is rendered only when the emitter is created with
+ * {@code text} true, comments included only if {@code comments} is true.
+ */
+public class CodeEmitter {
+	private final List<Instruction> code = new ArrayList<>();
+	private final Map<String, Integer> labels = new HashMap<>();
+	private final List<Integer> references = new ArrayList<>(); // jumps to patch
+	private final StringBuilder text;
+	private final boolean comments;
+	private boolean resolved = false;
+
+	public CodeEmitter() {
+		this(false, false);
+	}
+
+	public CodeEmitter(boolean text, boolean comments) {
+		this.text = text ? new StringBuilder() : null;
+		this.comments = text && comments;
+	}
+
+	private CodeEmitter emit(Instruction instr, String line) {
+		if (resolved)
+			throw new IllegalStateException("Code already resolved");
+		code.add(instr);
+		if (text != null)
+			text.append(line).append('\n');
+		return this;
+	}
+
+	private CodeEmitter emitJump(Instruction instr, String line) {
+		references.add(code.size());
+		return emit(instr, line);
+	}
+
+	/**
+	 * Adds a comment on its own line.
+	 */
+	public CodeEmitter comment(String comment) {
+		if (comments)
+			text.append(';').append(comment).append('\n');
+		return this;
+	}
+
+	/**
+	 * Adds a comment at the end of the last instruction.
+	 */
+	public CodeEmitter note(String comment) {
+		if (comments) {
+			text.setLength(text.length() - 1);
+			text.append(" ;").append(comment).append('\n');
+		}
+		return this;
+	}
+
+	public CodeEmitter label(String label) {
+		if (labels.put(label, code.size()) != null)
+			throw new IllegalStateException("Label " + label + " already defined");
+		if (text != null)
+			text.append(label).append(":\n");
+		return this;
+	}
+
+	public CodeEmitter push(String reg) {
+		return emit(new Instruction("push", reg, 0, null, null), "push " + reg);
+	}
+
+	public CodeEmitter pop() {
+		return emit(new Instruction("pop", null, 0, null, null), "pop");
+	}
+
+	/** lw out offset(in) */
+	public CodeEmitter lw(String out, int offset, String in) {
+		return emit(new Instruction("lw", out, offset, in, null), "lw " + out + " " + offset + "(" + in + ")");
+	}
+
+	/** sw in offset(out) */
+	public CodeEmitter sw(String in, int offset, String out) {
+		return emit(new Instruction("sw", in, offset, out, null), "sw " + in + " " + offset + "(" + out + ")");
+	}
+
+	public CodeEmitter li(String out, int value) {
+		return emit(new Instruction("li", out, 0, Integer.toString(value), null), "li " + out + " " + value);
+	}
+
+	public CodeEmitter mv(String out, String in) {
+		return emit(new Instruction("mv", out, 0, in, null), "mv " + out + " " + in);
+	}
+
+	public CodeEmitter not(String out, String in) {
+		return emit(new Instruction("not", out, 0, in, null), "not " + out + " " + in);
+	}
+
+	private CodeEmitter binary(String op, String out, String in, String in2) {
+		return emit(new Instruction(op, out, 0, in, in2), op + " " + out + " " + in + " " + in2);
+	}
+
+	public CodeEmitter add(String out, String in, String in2) {
+		return binary("add", out, in, in2);
+	}
+
+	public CodeEmitter sub(String out, String in, String in2) {
+		return binary("sub", out, in, in2);
+	}
+
+	public CodeEmitter mul(String out, String in, String in2) {
+		return binary("mul", out, in, in2);
+	}
+
+	public CodeEmitter div(String out, String in, String in2) {
+		return binary("div", out, in, in2);
+	}
+
+	public CodeEmitter and(String out, String in, String in2) {
+		return binary("and", out, in, in2);
+	}
+
+	public CodeEmitter or(String out, String in, String in2) {
+		return binary("or", out, in, in2);
+	}
+
+	private CodeEmitter immediate(String op, String out, String in, int value) {
+		return emit(new Instruction(op, out, 0, in, Integer.toString(value)), op + " " + out + " " + in + " " + value);
+	}
+
+	public CodeEmitter addi(String out, String in, int value) {
+		return immediate("addi", out, in, value);
+	}
+
+	public CodeEmitter subi(String out, String in, int value) {
+		return immediate("subi", out, in, value);
+	}
+
+	public CodeEmitter muli(String out, String in, int value) {
+		return immediate("muli", out, in, value);
+	}
+
+	public CodeEmitter divi(String out, String in, int value) {
+		return immediate("divi", out, in, value);
+	}
+
+	public CodeEmitter beq(String in, String in2, String label) {
+		return emitJump(new Instruction("beq", in, 0, in2, label), "beq " + in + " " + in2 + " " + label);
+	}
+
+	public CodeEmitter bleq(String in, String in2, String label) {
+		return emitJump(new Instruction("bleq", in, 0, in2, label), "bleq " + in + " " + in2 + " " + label);
+	}
+
+	public CodeEmitter b(String label) {
+		return emitJump(new Instruction("b", label, 0, null, null), "b " + label);
+	}
+
+	public CodeEmitter jal(String label) {
+		return emitJump(new Instruction("jal", label, 0, null, null), "jal " + label);
+	}
+
+	public CodeEmitter jr(String reg) {
+		return emit(new Instruction("jr", reg, 0, null, null), "jr " + reg);
+	}
+
+	public CodeEmitter del(String reg) {
+		return emit(new Instruction("del", reg, 0, null, null), "del " + reg);
+	}
+
+	public CodeEmitter print(String reg) {
+		return emit(new Instruction("print", reg, 0, null, null), "print " + reg);
+	}
+
+	public CodeEmitter printchar(String reg) {
+		return emit(new Instruction("printchar", reg, 0, null, null), "printchar " + reg);
+	}
+
+	public CodeEmitter halt() {
+		return emit(new Instruction("halt", null, 0, null, null), "halt");
+	}
+
+	/**
+	 * @return the instructions with the labels resolved, as produced by
+	 *         {@link SVMVisitorImpl}
+	 * @throws IllegalStateException if a jump refers to an undefined label
+	 */
+	public List<Instruction> getCode() {
+		if (!resolved) {
+			for (int pc : references) {
+				Instruction instr = code.get(pc);
+				boolean branch = instr.getArg3() != null; // beq, bleq
+				String label = branch ? instr.getArg3() : instr.getArg1();
+				Integer address = labels.get(label);
+				if (address == null)
+					throw new IllegalStateException("Undefined label " + label);
+				if (branch)
+					code.set(pc, new Instruction(instr.getInstruction(), instr.getArg1(), 0, instr.getArg2(),
+							address.toString()));
+				else
+					code.set(pc, new Instruction(instr.getInstruction(), address.toString(), 0, null, null));
+			}
+			resolved = true;
+		}
+		return code;
+	}
+
+	/**
+	 * @return address of each label
+	 */
+	public Map<String, Integer> getLabels() {
+		return labels;
+	}
+
+	/**
+	 * @return the assembly text, null if the emitter does not render it
+	 */
+	public String getAssembly() {
+		return text != null ? text.toString() : null;
+	}
+}
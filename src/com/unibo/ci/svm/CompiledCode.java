@@ -0,0 +1,127 @@
+package com.unibo.ci.svm;
+
+import com.unibo.ci.svm.SVM.MemoryAccessException;
+
+/**
+ * Base class of the programs compiled to JVM bytecode by {@link JvmCompiler}.
+ *
+ * A generated class groups the basic blocks of the program in static
+ * methods and implements {@link #runGroup} to dispatch to them; everything
+ * that touches the VM goes through the static helpers below.
+ */
+public abstract class CompiledCode {
+	static final int HALTED = -1;
+	static final int PAUSED = -2; // the fuel is over, the SVM keeps the address to resume
+
+	private int[] groupOf; // method group of each block leader, -1 for the other addresses
+	private ThreadedCode fallback;
+
+	protected CompiledCode() {
+	}
+
+	void link(int[] groupOf, ThreadedCode fallback) {
+		this.groupOf = groupOf;
+		this.fallback = fallback;
+	}
+
+	/**
+	 * @return {@link #HALTED} or {@link #PAUSED}
+	 */
+	int run(SVM vm, int[] regs, int ip) throws MemoryAccessException {
+		while (ip >= 0) {
+			ip = enter(vm, regs, ip);
+			if (ip >= 0) // jump in the middle of a block, step until the next leader
+				ip = fallback.step(vm, regs, ip);
+		}
+		return ip;
+	}
+
+	/**
+	 * Runs the compiled code as long as the execution stays on compiled
+	 * blocks.
+	 *
+	 * @return the first address that is not the start of a compiled block,
+	 *         {@link #HALTED} after halt, {@link #PAUSED} without fuel
+	 */
+	int enter(SVM vm, int[] regs, int ip) throws MemoryAccessException {
+		final int[] groupOf = this.groupOf;
+		while (ip >= 0 && ip < groupOf.length && groupOf[ip] >= 0)
+			ip = runGroup(groupOf[ip], vm, regs, ip);
+		return ip;
+	}
+
+	/**
+	 * Runs the blocks of a group starting from the leader at ip, registers
+	 * are read from and written back to regs.
+	 *
+	 * @return the next address to execute, {@link #HALTED} after halt,
+	 *         {@link #PAUSED} without fuel
+	 */
+	protected abstract int runGroup(int group, SVM vm, int[] regs, int ip) throws MemoryAccessException;
+
+	protected static boolean readable(SVM vm, int address) {
+		return vm.isInitialized(address);
+	}
+
+	protected static int read(SVM vm, int address) {
+		return vm.read(address);
+	}
+
+	protected static MemoryAccessException loadFault(SVM vm, int pc) {
+		return vm.invalidAccess(pc);
+	}
+
+	protected static int guard(SVM vm) {
+		return vm.getGuard();
+	}
+
+	protected static MemoryAccessException stackOverflow(SVM vm, int pc) {
+		return vm.stackOverflow(pc);
+	}
+
+	protected static MemoryAccessException divisionByZero(SVM vm, int pc) {
+		return vm.divisionByZero(pc);
+	}
+
+	protected static void store(SVM vm, int address, int value) throws MemoryAccessException {
+		vm.store(address, value);
+	}
+
+	protected static int allocate(SVM vm, int value, int pc) throws MemoryAccessException {
+		return vm.allocate(value, pc);
+	}
+
+	protected static void free(SVM vm, int address) throws MemoryAccessException {
+		vm.free(address);
+	}
+
+	protected static void print(SVM vm, int value) {
+		vm.print(value);
+	}
+
+	protected static void printChar(SVM vm, int value, int pc) throws MemoryAccessException {
+		vm.printChar(value, pc);
+	}
+
+	protected static boolean consume(SVM vm, int cost) {
+		return vm.consume(cost);
+	}
+
+	protected static int pause(SVM vm, int ip) {
+		return vm.pause(ip);
+	}
+
+	/**
+	 * Checks the target of a jr and spends its fuel, see
+	 * {@link SVM#jumpTarget}.
+	 *
+	 * @return false if the fuel is over
+	 */
+	protected static boolean jump(SVM vm, int target, int pc) throws MemoryAccessException {
+		return vm.jumpTarget(target, pc) > pc || vm.consume(pc - target + 1);
+	}
+
+	protected static void halt(SVM vm, int pc) {
+		vm.halt(pc);
+	}
+}
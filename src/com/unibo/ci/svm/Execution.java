@@ -0,0 +1,69 @@
+package com.unibo.ci.svm;
+
+import com.unibo.ci.svm.SVM.MemoryAccessException;
+
+/**
+ * A run of a {@link Program}, with its own SVM. The SVM comes from a pool
+ * of the program and goes back to it on {@link #close()}, so many runs of
+ * the same program do not allocate a memory each.
+ *
+ * An execution is used by one thread at a time, the program can be shared.
+ */
+public final class Execution implements AutoCloseable {
+	private final SVMPool pool;
+	private SVM vm;
+
+	Execution(SVMPool pool, Limits limits, OutputSink output) {
+		this.pool = pool;
+		this.vm = pool.acquire(output);
+		vm.setLimits(limits);
+	}
+
+	/**
+	 * Runs the program until halt or until a limit, see {@link SVM#run()}.
+	 * An error of the program ends the run like a limit, with status
+	 * {@link RunResult.Status#FAULT} and the message of the error.
+	 */
+	public RunResult run() {
+		return run(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs the program for a quantum of fuel at most, see
+	 * {@link SVM#run(long)}; a suspended run goes on with the next call.
+	 */
+	public RunResult run(long quantum) {
+		SVM vm = vm();
+		try {
+			return vm.run(quantum);
+		} catch (MemoryAccessException e) {
+			return vm.failure(e);
+		}
+	}
+
+	/**
+	 * @return the SVM of the execution, to set the engine, a listener or the
+	 *         garbage collection before the run
+	 */
+	public SVM getVM() {
+		return vm();
+	}
+
+	private SVM vm() {
+		if (vm == null)
+			throw new IllegalStateException("Execution closed");
+		return vm;
+	}
+
+	/**
+	 * Gives the SVM back to the program, the execution cannot be used
+	 * anymore.
+	 */
+	@Override
+	public void close() {
+		if (vm != null) {
+			pool.release(vm);
+			vm = null;
+		}
+	}
+}
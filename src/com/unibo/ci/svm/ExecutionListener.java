@@ -0,0 +1,45 @@
+package com.unibo.ci.svm;
+
+/**
+ * Receives the events of an execution. When a listener is attached the SVM
+ * runs on a separate interpreter loop without superinstructions, so every
+ * instruction is reported; without listeners nothing is checked.
+ *
+ * The events of an instruction come before {@link #instruction}.
+ */
+public interface ExecutionListener {
+
+	/**
+	 * The instruction at pc has been executed, also called for halt.
+	 */
+	default void instruction(int pc) {
+	}
+
+	default void memoryWrite(int pc, int address, int value) {
+	}
+
+	/**
+	 * jal at pc to the function at target.
+	 */
+	default void call(int pc, int target) {
+	}
+
+	/**
+	 * jr at pc back to target.
+	 */
+	default void returned(int pc, int target) {
+	}
+
+	default void allocated(int pc, int address) {
+	}
+
+	default void freed(int pc, int address) {
+	}
+
+	/**
+	 * The instruction at pc stopped the execution with an invalid memory
+	 * access.
+	 */
+	default void fault(int pc) {
+	}
+}
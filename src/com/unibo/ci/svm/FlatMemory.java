@@ -0,0 +1,57 @@
+package com.unibo.ci.svm;
+
+/**
+ * Memory in a single array allocated up front, for the small sizes.
+ */
+final class FlatMemory implements Memory {
+	private final int[] cells;
+	private final long[] written;
+
+	FlatMemory(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("Memory size must be positive");
+		cells = new int[size];
+		written = new long[(size + 63) >>> 6];
+	}
+
+	@Override
+	public int size() {
+		return cells.length;
+	}
+
+	@Override
+	public boolean isInitialized(int address) {
+		return address >= 0 && address < cells.length && (written[address >>> 6] & (1L << address)) != 0;
+	}
+
+	@Override
+	public int read(int address) {
+		return cells[address];
+	}
+
+	@Override
+	public void write(int address, int value) {
+		cells[address] = value;
+		written[address >>> 6] |= 1L << address;
+	}
+
+	@Override
+	public int nextInitialized(int from) {
+		return Bitmaps.next(written, from, cells.length, true);
+	}
+
+	@Override
+	public int nextUninitialized(int from) {
+		return Bitmaps.next(written, from, cells.length, false);
+	}
+
+	@Override
+	public void clear(int from, int to) {
+		Bitmaps.clear(written, Math.max(from, 0), Math.min(to, cells.length));
+	}
+
+	@Override
+	public long getCommitted() {
+		return cells.length * 4L + written.length * 8L;
+	}
+}
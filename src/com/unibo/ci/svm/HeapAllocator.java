@@ -0,0 +1,170 @@
+package com.unibo.ci.svm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Allocator of the heap cells. The heap starts at address 0 and grows with
+ * a bump pointer; the cells released by del go on a free list and are
+ * handed out again before the heap grows.
+ */
+final class HeapAllocator {
+	private static final int MIN_COLLECT = 64;
+
+	private long[] allocated = new long[16]; // bitmap of the cells in use, grows with the heap
+	private int top = 0; // first cell never allocated
+	private int[] free = new int[16]; // stack of the released cells
+	private int freeCount = 0;
+	private int collectAt = MIN_COLLECT; // heap top that triggers a collection, see needsCollection
+
+	private long allocations = 0;
+	private long frees = 0;
+	private long reuseHits = 0;
+	private int highWater = 0; // maximum number of cells in use
+	private int live = 0;
+
+	HeapAllocator() {
+	}
+
+	/**
+	 * Reads the state written by {@link #save(DataOutputStream)}.
+	 */
+	HeapAllocator(ByteBuffer in) {
+		top = in.getInt();
+		freeCount = in.getInt();
+		collectAt = in.getInt();
+		allocations = in.getLong();
+		frees = in.getLong();
+		reuseHits = in.getLong();
+		highWater = in.getInt();
+		live = in.getInt();
+		allocated = new long[Math.max(16, (top + 63) >>> 6)];
+		for (int w = 0; w < (top + 63) >>> 6; w++)
+			allocated[w] = in.getLong();
+		free = new int[Math.max(16, freeCount)];
+		for (int i = 0; i < freeCount; i++)
+			free[i] = in.getInt();
+	}
+
+	/**
+	 * @param limit first address the heap cannot use
+	 * @return the address of the new cell, -1 if the heap is full
+	 */
+	int allocate(int limit) {
+		int address;
+		if (freeCount > 0) {
+			address = free[--freeCount];
+			reuseHits++;
+		} else if (top < limit) {
+			address = top++;
+			if (address >>> 6 == allocated.length)
+				allocated = Arrays.copyOf(allocated, allocated.length * 2);
+		} else {
+			return -1;
+		}
+		allocated[address >>> 6] |= 1L << address;
+		allocations++;
+		if (++live > highWater)
+			highWater = live;
+		return address;
+	}
+
+	/**
+	 * Releases a cell, addresses that are not allocated are ignored.
+	 */
+	void free(int address) {
+		if (!isAllocated(address))
+			return;
+		release(address);
+		frees++;
+	}
+
+	private void release(int address) {
+		allocated[address >>> 6] &= ~(1L << address);
+		if (freeCount == free.length)
+			free = Arrays.copyOf(free, freeCount * 2);
+		free[freeCount++] = address;
+		live--;
+	}
+
+	boolean isAllocated(int address) {
+		return address >= 0 && address < top && (allocated[address >>> 6] & (1L << address)) != 0;
+	}
+
+	/**
+	 * Empties the heap and zeroes the counters, the arrays are kept.
+	 */
+	void reset() {
+		Arrays.fill(allocated, 0, (top + 63) >>> 6, 0);
+		top = 0;
+		freeCount = 0;
+		collectAt = MIN_COLLECT;
+		allocations = frees = reuseHits = 0;
+		highWater = live = 0;
+	}
+
+	/**
+	 * With a collector, the heap grows only if the cells in use are more
+	 * than half of it; otherwise a collection comes first, so the heap does
+	 * not take the memory needed by the stack.
+	 */
+	boolean needsCollection() {
+		return freeCount == 0 && top >= collectAt;
+	}
+
+	/**
+	 * Releases every allocated cell that is not marked.
+	 *
+	 * @param marked bitmap of the reachable cells
+	 * @return number of cells released
+	 */
+	int sweep(long[] marked) {
+		int released = 0;
+		for (int w = 0; w < marked.length && w < allocated.length; w++) {
+			long garbage = allocated[w] & ~marked[w];
+			while (garbage != 0) {
+				int address = (w << 6) + Long.numberOfTrailingZeros(garbage);
+				garbage &= garbage - 1;
+				release(address);
+				released++;
+			}
+		}
+		collectAt = Math.max(MIN_COLLECT, live * 2);
+		return released;
+	}
+
+	/**
+	 * @return first address above the heap
+	 */
+	int getTop() {
+		return top;
+	}
+
+	void save(DataOutputStream out) throws IOException {
+		out.writeInt(top);
+		out.writeInt(freeCount);
+		out.writeInt(collectAt);
+		out.writeLong(allocations);
+		out.writeLong(frees);
+		out.writeLong(reuseHits);
+		out.writeInt(highWater);
+		out.writeInt(live);
+		for (int w = 0; w < (top + 63) >>> 6; w++)
+			out.writeLong(allocated[w]);
+		for (int i = 0; i < freeCount; i++)
+			out.writeInt(free[i]);
+	}
+
+	void printStats(PrintStream out) {
+		out.println("Heap");
+		out.println(String.format("  %-14s %10d", "allocations", allocations));
+		out.println(String.format("  %-14s %10d", "frees", frees));
+		out.println(String.format("  %-14s %10d", "reuse hits", reuseHits));
+		out.println(String.format("  %-14s %10d", "live cells", live));
+		out.println(String.format("  %-14s %10d", "high-water", highWater));
+		out.println(String.format("  %-14s %10d", "heap top", top));
+	}
+}
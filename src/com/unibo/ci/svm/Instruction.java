@@ -35,6 +35,19 @@ public class Instruction {
 		return arg3;
 	}
 
+	/**
+	 * @return the instruction as written in the assembly
+	 */
+	public String toAssembly() {
+		if (instr.equals("lw") || instr.equals("sw"))
+			return instr + " " + arg1 + " " + offset + "(" + arg2 + ")";
+		StringBuilder out = new StringBuilder(instr);
+		for (String arg : new String[] { arg1, arg2, arg3 })
+			if (arg != null)
+				out.append(' ').append(arg);
+		return out.toString();
+	}
+
 	public String toString() {
 		return instr + " " + arg1 + " " + offset + "(" + arg2 + ") " + arg3;
 	}
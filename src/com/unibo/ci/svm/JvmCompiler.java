@@ -0,0 +1,626 @@
+package com.unibo.ci.svm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.unibo.ci.svm.jvm.ClassFile;
+import com.unibo.ci.svm.jvm.Code;
+import com.unibo.ci.svm.jvm.Label;
+
+/**
+ * Ahead-of-time compiler from SVM programs to JVM classes.
+ *
+ * The program is split in basic blocks (every label and every instruction
+ * after a jump starts a new one). Consecutive blocks are grouped in static
+ * methods that keep the registers in local variables and jump between their
+ * blocks with goto; jr and jumps to other groups return the target address
+ * to the dispatch loop of {@link CompiledCode}. Groups are kept small so
+ * that HotSpot compiles every method to native code.
+ */
+final class JvmCompiler {
+	private static final String BASE = "com/unibo/ci/svm/CompiledCode";
+	private static final String SVM_DESC = "Lcom/unibo/ci/svm/SVM;";
+	private static final String EXCEPTION = "com/unibo/ci/svm/SVM$MemoryAccessException";
+	private static final String EXCEPTION_DESC = "L" + EXCEPTION + ";";
+	private static final String GROUP_DESC = "(" + SVM_DESC + "[II)I";
+
+	// Instructions per method, keeps the generated methods under the size
+	// limit of the JIT (HugeMethodLimit)
+	private static final int MAX_GROUP_SIZE = 160;
+
+	private static final int SP = Register.SP.ordinal();
+	private static final int HP = Register.HP.ordinal();
+	private static final int A0 = Register.A0.ordinal();
+	private static final int RA = Register.RA.ordinal();
+
+	// Local variables of the group methods
+	private static final int VM = 0;
+	private static final int REGS = 1;
+	private static final int IP = 2;
+	private static final int REG_BASE = 3;
+	private static final int TMP = REG_BASE + Register.COUNT;
+	private static final int PC = TMP + 1;
+	private static final int EXC = PC + 1;
+	private static final int LOCALS = EXC + 1;
+
+	private static final AtomicInteger classCounter = new AtomicInteger();
+
+	private final Program program;
+	private final boolean[] region; // instructions to compile
+	private final int entry;
+	private final boolean[] leader;
+	private final int[] groupOf;
+	private final List<Integer> groupStarts = new ArrayList<>();
+
+	private JvmCompiler(Program program, boolean[] region, int entry) {
+		this.program = program;
+		this.region = region;
+		this.entry = entry;
+		int size = program.size();
+		leader = new boolean[size + 1];
+		groupOf = new int[size];
+	}
+
+	/**
+	 * Compiles the whole program to a new class.
+	 *
+	 * @throws IllegalStateException if the program cannot be compiled (es.
+	 *                               constant pool too large)
+	 */
+	static CompiledCode compile(Program program) {
+		boolean[] region = new boolean[program.size()];
+		Arrays.fill(region, true);
+		return new JvmCompiler(program, region, 0).compile("Program");
+	}
+
+	/**
+	 * Compiles only the given instructions, control leaves the compiled code
+	 * as soon as it reaches an address outside the region.
+	 *
+	 * @param region instructions to compile
+	 * @param entry  address where the execution enters the region
+	 * @throws IllegalStateException if the region cannot be compiled
+	 */
+	static CompiledCode compileRegion(Program program, boolean[] region, int entry) {
+		return new JvmCompiler(program, region, entry).compile("Function");
+	}
+
+	private CompiledCode compile(String prefix) {
+		findBlocks();
+		String name = "com/unibo/ci/svm/generated/" + prefix + classCounter.incrementAndGet();
+		ClassFile cf = new ClassFile(name, BASE);
+
+		Code init = cf.newCode(1);
+		init.aload(0);
+		init.invoke(Code.INVOKESPECIAL, BASE, "<init>", "()V");
+		init.op(Code.RETURN, 0);
+		cf.addMethod(ClassFile.ACC_PUBLIC, "<init>", "()V", init);
+
+		for (int g = 0; g < groupStarts.size(); g++)
+			cf.addMethod(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, "group" + g, GROUP_DESC, emitGroup(cf, g));
+		cf.addMethod(ClassFile.ACC_PROTECTED, "runGroup", "(I" + SVM_DESC + "[II)I", emitRunGroup(cf, name));
+
+		byte[] bytes = cf.toByteArray();
+		CompiledCode code;
+		try {
+			Class<?> cls = new GeneratedClassLoader().define(name.replace('/', '.'), bytes);
+			code = (CompiledCode) cls.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			throw new IllegalStateException("Cannot load compiled program", e);
+		}
+
+		int[] entries = new int[program.size()];
+		for (int i = 0; i < entries.length; i++)
+			entries[i] = leader[i] ? groupOf[i] : -1;
+		code.link(entries, program.getThreadedCode());
+		return code;
+	}
+
+	private static boolean isJump(Opcode op) {
+		return op == Opcode.B || op == Opcode.BEQ || op == Opcode.BLEQ || op == Opcode.JAL;
+	}
+
+	private static boolean isUnconditional(Opcode op) {
+		return op == Opcode.B || op == Opcode.JAL || op == Opcode.JR || op == Opcode.HALT;
+	}
+
+	private boolean inRegion(int address) {
+		return address >= 0 && address < region.length && region[address];
+	}
+
+	private void findBlocks() {
+		int size = program.size();
+		leader[entry] = true;
+		for (int i = 0; i < size; i++) {
+			if (!region[i])
+				continue;
+			Opcode op = program.opcodes[i];
+			if (isJump(op) && inRegion(program.imm[i]))
+				leader[program.imm[i]] = true;
+			if ((isJump(op) || isUnconditional(op)) && inRegion(i + 1))
+				leader[i + 1] = true;
+			if (!inRegion(i - 1)) // first instruction after a gap
+				leader[i] = true;
+		}
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (!region[i]) {
+				groupOf[i] = -1;
+				continue;
+			}
+			if (groupStarts.isEmpty() || (leader[i] && count >= MAX_GROUP_SIZE)) {
+				groupStarts.add(i);
+				count = 0;
+			}
+			groupOf[i] = groupStarts.size() - 1;
+			count++;
+		}
+	}
+
+	private int groupEnd(int g) {
+		return g + 1 < groupStarts.size() ? groupStarts.get(g + 1) : program.size();
+	}
+
+	private Code emitRunGroup(ClassFile cf, String name) {
+		Code c = cf.newCode(5);
+		Label[] targets = new Label[groupStarts.size()];
+		Label invalid = new Label();
+		for (int g = 0; g < targets.length; g++)
+			targets[g] = new Label();
+		c.iload(1);
+		c.tableSwitch(0, targets, invalid);
+		for (int g = 0; g < targets.length; g++) {
+			c.mark(targets[g]);
+			c.aload(2);
+			c.aload(3);
+			c.iload(4);
+			c.invoke(Code.INVOKESTATIC, name, "group" + g, GROUP_DESC);
+			c.op(Code.IRETURN, -1);
+		}
+		c.mark(invalid);
+		c.iload(4);
+		c.op(Code.IRETURN, -1);
+		return c;
+	}
+
+	private Code emitGroup(ClassFile cf, int g) {
+		GroupEmitter e = new GroupEmitter(cf.newCode(LOCALS), g);
+		e.emit();
+		return e.code;
+	}
+
+	/**
+	 * Emits the static method of a single group.
+	 */
+	private class GroupEmitter {
+		final Code code;
+		final int start;
+		final int end;
+		final Label[] blocks;
+		final Label dispatch = new Label();
+		final Label exit = new Label();
+		final Label collision = new Label();
+		final Label loadFault = new Label();
+		final Label divisionFault = new Label();
+		final Label paused = new Label();
+
+		GroupEmitter(Code code, int group) {
+			this.code = code;
+			this.start = groupStarts.get(group);
+			this.end = groupEnd(group);
+			this.blocks = new Label[end - start];
+			for (int i = start; i < end; i++)
+				if (leader[i])
+					blocks[i - start] = new Label();
+		}
+
+		void emit() {
+			for (int r = 0; r < Register.COUNT; r++) {
+				code.aload(REGS);
+				code.iconst(r);
+				code.op(Code.IALOAD, -1);
+				code.istore(REG_BASE + r);
+			}
+
+			code.mark(dispatch);
+			List<Integer> keys = new ArrayList<>();
+			for (int i = start; i < end; i++)
+				if (leader[i])
+					keys.add(i);
+			int[] keyArray = new int[keys.size()];
+			Label[] targets = new Label[keys.size()];
+			for (int k = 0; k < keyArray.length; k++) {
+				keyArray[k] = keys.get(k);
+				targets[k] = blocks[keyArray[k] - start];
+			}
+			code.iload(IP);
+			code.lookupSwitch(keyArray, targets, exit);
+
+			Label tryStart = new Label();
+			Label tryEnd = new Label();
+			Label handler = new Label();
+			code.mark(tryStart);
+			for (int pc = start; pc < end; pc++) {
+				if (!region[pc])
+					continue;
+				if (leader[pc])
+					code.mark(blocks[pc - start]);
+				instruction(pc);
+				if (!isUnconditional(program.opcodes[pc]) && (pc + 1 == end || !region[pc + 1]))
+					exitTo(pc + 1);
+			}
+			code.mark(tryEnd);
+
+			// Registers are written back on every way out of the method
+			code.mark(exit);
+			sync();
+			code.iload(IP);
+			code.op(Code.IRETURN, -1);
+
+			code.mark(paused);
+			sync();
+			code.aload(VM);
+			code.iload(IP);
+			helper("pause", "(" + SVM_DESC + "I)I");
+			code.op(Code.IRETURN, -1);
+
+			code.mark(collision);
+			sync();
+			code.aload(VM);
+			code.iload(IP);
+			code.invoke(Code.INVOKESTATIC, BASE, "stackOverflow", "(" + SVM_DESC + "I)" + EXCEPTION_DESC);
+			code.op(Code.ATHROW, -1);
+
+			code.mark(loadFault);
+			sync();
+			code.aload(VM);
+			code.iload(PC);
+			code.invoke(Code.INVOKESTATIC, BASE, "loadFault", "(" + SVM_DESC + "I)" + EXCEPTION_DESC);
+			code.op(Code.ATHROW, -1);
+
+			code.mark(divisionFault);
+			sync();
+			code.aload(VM);
+			code.iload(PC);
+			code.invoke(Code.INVOKESTATIC, BASE, "divisionByZero", "(" + SVM_DESC + "I)" + EXCEPTION_DESC);
+			code.op(Code.ATHROW, -1);
+
+			code.markHandler(handler);
+			code.astore(EXC);
+			sync();
+			code.aload(EXC);
+			code.op(Code.ATHROW, -1);
+			code.tryCatch(tryStart, tryEnd, handler, EXCEPTION);
+		}
+
+		private int reg(int r) {
+			return REG_BASE + r;
+		}
+
+		private void sync() {
+			for (int r = 0; r < Register.COUNT; r++) {
+				code.aload(REGS);
+				code.iconst(r);
+				code.iload(reg(r));
+				code.op(Code.IASTORE, -3);
+			}
+		}
+
+		private void exitTo(int address) {
+			code.iconst(address);
+			code.istore(IP);
+			code.jump(Code.GOTO, exit);
+		}
+
+		private boolean inGroup(int address) {
+			return address >= start && address < end && leader[address];
+		}
+
+		private void jumpTo(int address) {
+			if (inGroup(address))
+				code.jump(Code.GOTO, blocks[address - start]);
+			else
+				exitTo(address);
+		}
+
+		/**
+		 * Compares the two values on the stack and jumps to address if the
+		 * condition holds.
+		 */
+		private void branchTo(int condition, int inverse, int address) {
+			if (inGroup(address)) {
+				code.jump(condition, blocks[address - start]);
+			} else {
+				Label skip = new Label();
+				code.jump(inverse, skip);
+				exitTo(address);
+				code.mark(skip);
+			}
+		}
+
+		/**
+		 * Jump of the instruction at pc, spending its fuel first if it has a
+		 * cost; without fuel the method returns to the SVM.
+		 */
+		private void meteredJumpTo(int pc, int address) {
+			int cost = program.cost[pc];
+			if (cost > 0) {
+				Label ok = new Label();
+				code.aload(VM);
+				code.iconst(cost);
+				helper("consume", "(" + SVM_DESC + "I)Z");
+				code.jump(Code.IFNE, ok);
+				code.iconst(address);
+				code.istore(IP);
+				code.jump(Code.GOTO, paused);
+				code.mark(ok);
+			}
+			jumpTo(address);
+		}
+
+		/**
+		 * Branch of the instruction at pc on the two values on the stack.
+		 */
+		private void meteredBranchTo(int pc, int condition, int inverse, int address) {
+			if (program.cost[pc] == 0) {
+				branchTo(condition, inverse, address);
+				return;
+			}
+			Label skip = new Label();
+			code.jump(inverse, skip);
+			meteredJumpTo(pc, address);
+			code.mark(skip);
+		}
+
+		/**
+		 * Stack check of the instruction at pc, emitted only if it writes $sp.
+		 */
+		private void checkStack(int written, int pc) {
+			if (written != SP)
+				return;
+			Label ok = new Label();
+			code.iload(reg(SP));
+			code.aload(VM);
+			helper("guard", "(" + SVM_DESC + ")I");
+			code.jump(Code.IF_ICMPGT, ok);
+			code.iconst(pc);
+			code.istore(IP);
+			code.jump(Code.GOTO, collision);
+			code.mark(ok);
+		}
+
+		private void binary(int pc, int opcode) {
+			code.iload(reg(program.reg2[pc]));
+			code.iload(reg(program.reg3[pc]));
+			code.op(opcode, -1);
+			code.istore(reg(program.reg1[pc]));
+			checkStack(program.reg1[pc], pc);
+		}
+
+		/**
+		 * Fails the run if the divisor on the stack, which is consumed, is
+		 * zero.
+		 */
+		private void checkDivisor(int pc) {
+			Label ok = new Label();
+			code.jump(Code.IFNE, ok);
+			code.iconst(pc);
+			code.istore(PC);
+			code.jump(Code.GOTO, divisionFault);
+			code.mark(ok);
+		}
+
+		private void immediate(int pc, int opcode) {
+			int out = program.reg1[pc], in = program.reg2[pc], value = program.imm[pc];
+			if (out == in && (opcode == Code.IADD || opcode == Code.ISUB) && value != Integer.MIN_VALUE) {
+				code.iinc(reg(out), opcode == Code.IADD ? value : -value);
+			} else {
+				code.iload(reg(in));
+				code.iconst(value);
+				code.op(opcode, -1);
+				code.istore(reg(out));
+			}
+			checkStack(out, pc);
+		}
+
+		private void helper(String name, String descriptor) {
+			code.invoke(Code.INVOKESTATIC, BASE, name, descriptor);
+		}
+
+		private void instruction(int pc) {
+			int r1 = program.reg1[pc], r2 = program.reg2[pc], imm = program.imm[pc];
+			switch (program.opcodes[pc]) {
+				case PUSH:
+					code.iinc(reg(SP), -1);
+					checkStack(SP, pc);
+					code.aload(VM);
+					code.iload(reg(SP));
+					code.iload(reg(r1));
+					helper("store", "(" + SVM_DESC + "II)V");
+					break;
+				case POP:
+					code.iinc(reg(SP), 1);
+					break;
+				case LW: {
+					Label ok = new Label();
+					code.iload(reg(r2));
+					code.iconst(imm);
+					code.op(Code.IADD, -1);
+					code.istore(TMP);
+					code.aload(VM);
+					code.iload(TMP);
+					helper("readable", "(" + SVM_DESC + "I)Z");
+					code.jump(Code.IFNE, ok);
+					code.iconst(pc);
+					code.istore(PC);
+					code.jump(Code.GOTO, loadFault);
+					code.mark(ok);
+					code.aload(VM);
+					code.iload(TMP);
+					helper("read", "(" + SVM_DESC + "I)I");
+					code.istore(reg(r1));
+					checkStack(r1, pc);
+					break;
+				}
+				case SW:
+					code.aload(VM);
+					if (r2 == HP) {
+						sync(); // the allocator reads $sp and the collector all the registers
+						code.iload(reg(r1));
+						code.iconst(pc);
+						helper("allocate", "(" + SVM_DESC + "II)I");
+						code.istore(reg(A0));
+						// $hp is moved by the allocator
+						code.aload(REGS);
+						code.iconst(HP);
+						code.op(Code.IALOAD, -1);
+						code.istore(reg(HP));
+					} else {
+						code.iload(reg(r2));
+						code.iconst(imm);
+						code.op(Code.IADD, -1);
+						code.iload(reg(r1));
+						helper("store", "(" + SVM_DESC + "II)V");
+					}
+					break;
+				case LI:
+					code.iconst(imm);
+					code.istore(reg(r1));
+					checkStack(r1, pc);
+					break;
+				case MV:
+					code.iload(reg(r2));
+					code.istore(reg(r1));
+					checkStack(r1, pc);
+					break;
+				case ADD:
+					binary(pc, Code.IADD);
+					break;
+				case SUB:
+					binary(pc, Code.ISUB);
+					break;
+				case MUL:
+					binary(pc, Code.IMUL);
+					break;
+				case DIV:
+					code.iload(reg(program.reg3[pc]));
+					checkDivisor(pc);
+					binary(pc, Code.IDIV);
+					break;
+				case ADDI:
+					immediate(pc, Code.IADD);
+					break;
+				case SUBI:
+					immediate(pc, Code.ISUB);
+					break;
+				case MULI:
+					immediate(pc, Code.IMUL);
+					break;
+				case DIVI:
+					code.iconst(imm);
+					checkDivisor(pc);
+					immediate(pc, Code.IDIV);
+					break;
+				case AND:
+				case OR: {
+					boolean and = program.opcodes[pc] == Opcode.AND;
+					Label shortCircuit = new Label();
+					Label done = new Label();
+					code.iload(reg(r2));
+					code.iconst(1);
+					code.jump(and ? Code.IF_ICMPNE : Code.IF_ICMPEQ, shortCircuit);
+					code.iload(reg(program.reg3[pc]));
+					code.iconst(1);
+					code.jump(and ? Code.IF_ICMPNE : Code.IF_ICMPEQ, shortCircuit);
+					code.iconst(and ? 1 : 0);
+					code.jump(Code.GOTO, done);
+					code.mark(shortCircuit);
+					code.iconst(and ? 0 : 1);
+					code.mark(done);
+					code.istore(reg(r1));
+					checkStack(r1, pc);
+					break;
+				}
+				case NOT: {
+					Label one = new Label();
+					Label done = new Label();
+					code.iload(reg(r2));
+					code.iconst(1);
+					code.jump(Code.IF_ICMPNE, one);
+					code.iconst(0);
+					code.jump(Code.GOTO, done);
+					code.mark(one);
+					code.iconst(1);
+					code.mark(done);
+					code.istore(reg(r1));
+					checkStack(r1, pc);
+					break;
+				}
+				case DEL:
+					code.aload(VM);
+					code.iload(reg(r1));
+					helper("free", "(" + SVM_DESC + "I)V");
+					break;
+				case PRINT:
+					code.aload(VM);
+					code.iload(reg(r1));
+					helper("print", "(" + SVM_DESC + "I)V");
+					break;
+				case PRINTCHAR:
+					code.aload(VM);
+					code.iload(reg(r1));
+					code.iconst(pc);
+					helper("printChar", "(" + SVM_DESC + "II)V");
+					break;
+				case BEQ:
+					code.iload(reg(r1));
+					code.iload(reg(r2));
+					meteredBranchTo(pc, Code.IF_ICMPEQ, Code.IF_ICMPNE, imm);
+					break;
+				case BLEQ:
+					code.iload(reg(r1));
+					code.iload(reg(r2));
+					meteredBranchTo(pc, Code.IF_ICMPLE, Code.IF_ICMPGT, imm);
+					break;
+				case B:
+					meteredJumpTo(pc, imm);
+					break;
+				case JAL:
+					code.iconst(pc + 1);
+					code.istore(reg(RA));
+					meteredJumpTo(pc, imm);
+					break;
+				case JR:
+					code.aload(VM);
+					code.iload(reg(r1));
+					code.iconst(pc);
+					helper("jump", "(" + SVM_DESC + "II)Z");
+					code.iload(reg(r1));
+					code.istore(IP);
+					code.jump(Code.IFEQ, paused);
+					code.jump(Code.GOTO, dispatch);
+					break;
+				case HALT:
+					sync();
+					code.aload(VM);
+					code.iconst(pc);
+					helper("halt", "(" + SVM_DESC + "I)V");
+					code.iconst(CompiledCode.HALTED);
+					code.op(Code.IRETURN, -1);
+					break;
+			}
+		}
+	}
+
+	private static class GeneratedClassLoader extends ClassLoader {
+		GeneratedClassLoader() {
+			super(CompiledCode.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
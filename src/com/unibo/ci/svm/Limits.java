@@ -0,0 +1,112 @@
+package com.unibo.ci.svm;
+
+/**
+ * Resources given to an execution, see {@link Program#newExecution}.
+ * Instances are immutable, every with method returns a copy.
+ *
+ * A run that goes over a limit stops with a {@link RunResult} telling which
+ * limit and where, see {@link SVM#setLimits}. The instructions executed are
+ * estimated by the fuel of the backward jumps and of the calls, see
+ * {@link RunResult#getFuel()}.
+ */
+public final class Limits {
+	public static final Limits DEFAULT = new Limits(1 << 26, Memory.AUTO, Long.MAX_VALUE, Integer.MAX_VALUE,
+			Integer.MAX_VALUE, 0);
+
+	private final int memorySize;
+	private final String memory;
+	private final long maxFuel;
+	private final int maxStackDepth;
+	private final int maxHeapCells;
+	private final long timeLimit; // milliseconds, 0 for none
+
+	private Limits(int memorySize, String memory, long maxFuel, int maxStackDepth, int maxHeapCells,
+			long timeLimit) {
+		this.memorySize = memorySize;
+		this.memory = memory;
+		this.maxFuel = maxFuel;
+		this.maxStackDepth = maxStackDepth;
+		this.maxHeapCells = maxHeapCells;
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * @param cells size of the memory, heap and stack
+	 */
+	public Limits withMemorySize(int cells) {
+		if (cells <= 0)
+			throw new IllegalArgumentException("Memory size must be positive");
+		return new Limits(cells, memory, maxFuel, maxStackDepth, maxHeapCells, timeLimit);
+	}
+
+	/**
+	 * @param kind backend of the memory: flat, segmented, offheap, or auto to
+	 *             choose by size
+	 */
+	public Limits withMemory(String kind) {
+		if (!Memory.isKind(kind))
+			throw new IllegalArgumentException("Unknown memory " + kind);
+		return new Limits(memorySize, kind, maxFuel, maxStackDepth, maxHeapCells, timeLimit);
+	}
+
+	/**
+	 * @param fuel see {@link RunResult#getFuel()}
+	 */
+	public Limits withMaxFuel(long fuel) {
+		if (fuel <= 0)
+			throw new IllegalArgumentException("Fuel limit must be positive");
+		return new Limits(memorySize, memory, fuel, maxStackDepth, maxHeapCells, timeLimit);
+	}
+
+	/**
+	 * @param cells cells between $sp and the end of the memory
+	 */
+	public Limits withMaxStackDepth(int cells) {
+		if (cells <= 0)
+			throw new IllegalArgumentException("Stack limit must be positive");
+		return new Limits(memorySize, memory, maxFuel, cells, maxHeapCells, timeLimit);
+	}
+
+	/**
+	 * @param cells cells of the heap, from 0 to its top
+	 */
+	public Limits withMaxHeapCells(int cells) {
+		if (cells <= 0)
+			throw new IllegalArgumentException("Heap limit must be positive");
+		return new Limits(memorySize, memory, maxFuel, maxStackDepth, cells, timeLimit);
+	}
+
+	/**
+	 * @param millis time from the start of the run after which it stops, 0
+	 *               for none
+	 */
+	public Limits withTimeLimit(long millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("Time limit cannot be negative");
+		return new Limits(memorySize, memory, maxFuel, maxStackDepth, maxHeapCells, millis);
+	}
+
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	public String getMemory() {
+		return memory;
+	}
+
+	public long getMaxFuel() {
+		return maxFuel;
+	}
+
+	public int getMaxStackDepth() {
+		return maxStackDepth;
+	}
+
+	public int getMaxHeapCells() {
+		return maxHeapCells;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+}
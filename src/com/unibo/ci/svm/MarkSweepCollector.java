@@ -0,0 +1,93 @@
+package com.unibo.ci.svm;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Conservative mark-sweep collector of the heap, run when an allocation
+ * finds the heap full or before the heap grows beyond twice the cells that
+ * survived the last collection.
+ *
+ * The roots are the registers and the initialized cells of the stack, from
+ * $sp to the end of the memory. Any value that is the address of an
+ * allocated cell keeps the cell alive, the same holds for the values
+ * stored in the live cells. The other allocated cells go back to the free
+ * list of the {@link HeapAllocator}.
+ *
+ * The statistics are totals, only the last {@link #RECENT} cycles are kept
+ * one by one, so a long run does not grow them.
+ */
+final class MarkSweepCollector {
+	static final int RECENT = 16;
+
+	private final HeapAllocator heap;
+	private long[] marked = new long[0];
+	private int[] work = new int[64];
+
+	private final long[] recentNanos = new long[RECENT];
+	private final int[] recentReleased = new int[RECENT];
+	private long cycles = 0;
+	private long totalNanos = 0;
+	private long maxNanos = 0;
+	private long totalReleased = 0;
+
+	MarkSweepCollector(HeapAllocator heap) {
+		this.heap = heap;
+	}
+
+	/**
+	 * @return number of cells released
+	 */
+	int collect(Memory memory, int[] registers) {
+		long start = System.nanoTime();
+		int words = (heap.getTop() + 63) >>> 6;
+		if (marked.length < words)
+			marked = new long[words];
+		else
+			Arrays.fill(marked, 0);
+		int count = 0;
+		for (int value : registers)
+			count = mark(value, count);
+		for (int a = Math.max(registers[Register.SP.ordinal()], 0); a < memory.size(); a++)
+			if (memory.isInitialized(a))
+				count = mark(memory.read(a), count);
+		while (count > 0)
+			count = mark(memory.read(work[--count]), count);
+
+		int released = heap.sweep(marked);
+		long nanos = System.nanoTime() - start;
+		int i = (int) (cycles++ % RECENT);
+		recentNanos[i] = nanos;
+		recentReleased[i] = released;
+		totalNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+		totalReleased += released;
+		return released;
+	}
+
+	/**
+	 * Marks the cell if the value is the address of an allocated one, new
+	 * cells are added to the work list.
+	 */
+	private int mark(int value, int count) {
+		if (!heap.isAllocated(value) || (marked[value >>> 6] & (1L << value)) != 0)
+			return count;
+		marked[value >>> 6] |= 1L << value;
+		if (count == work.length)
+			work = Arrays.copyOf(work, count * 2);
+		work[count] = value;
+		return count + 1;
+	}
+
+	void printStats(PrintStream out) {
+		out.println("Garbage collection");
+		out.println(String.format("  %-14s %10d", "cycles", cycles));
+		out.println(String.format("  %-14s %10d", "released", totalReleased));
+		out.println(String.format("  %-14s %10.3f", "pause ms", totalNanos / 1e6));
+		out.println(String.format("  %-14s %10.3f", "max pause ms", maxNanos / 1e6));
+		for (long c = Math.max(0, cycles - RECENT); c < cycles; c++) {
+			int i = (int) (c % RECENT);
+			out.println(String.format("    #%-4d %8.3f ms %8d cells", c + 1, recentNanos[i] / 1e6, recentReleased[i]));
+		}
+	}
+}
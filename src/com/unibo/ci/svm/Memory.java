@@ -0,0 +1,80 @@
+package com.unibo.ci.svm;
+
+/**
+ * Cells of the SVM with the bitmap of the ones written at least once.
+ * Addresses are checked by the SVM before a write, reads of cells never
+ * written are not allowed.
+ */
+public interface Memory {
+	/** Sizes up to this one use a single array */
+	int FLAT_LIMIT = 1 << 20;
+	/** Sizes above this one are kept out of the Java heap */
+	int OFF_HEAP_LIMIT = 1 << 26;
+	/** Backend chosen by size */
+	String AUTO = "auto";
+
+	int size();
+
+	boolean isInitialized(int address);
+
+	/**
+	 * Reads a cell without any check, see {@link #isInitialized(int)}.
+	 */
+	int read(int address);
+
+	/**
+	 * Writes a cell, the address must be in the memory.
+	 */
+	void write(int address, int value);
+
+	/**
+	 * @return the first initialized address from the given one, size() if
+	 *         there is none
+	 */
+	int nextInitialized(int from);
+
+	/**
+	 * @return the first address never written from the given one, size() if
+	 *         there is none
+	 */
+	int nextUninitialized(int from);
+
+	/**
+	 * Forgets the cells written in [from, to), they read again as never
+	 * written. The space of the cells is kept.
+	 */
+	void clear(int from, int to);
+
+	/**
+	 * @return bytes taken by the cells and their bitmap, for the off-heap
+	 *         memory the space reserved
+	 */
+	long getCommitted();
+
+	/**
+	 * @return whether {@link #create} knows the backend
+	 */
+	static boolean isKind(String kind) {
+		return kind.equals("flat") || kind.equals("segmented") || kind.equals("offheap") || kind.equals(AUTO);
+	}
+
+	/**
+	 * @param kind flat, segmented, offheap, or auto to choose by size
+	 */
+	static Memory create(int size, String kind) {
+		switch (kind) {
+			case "flat":
+				return new FlatMemory(size);
+			case "segmented":
+				return new SegmentedMemory(size);
+			case "offheap":
+				return new OffHeapMemory(size);
+			case AUTO:
+				if (size <= FLAT_LIMIT)
+					return new FlatMemory(size);
+				return size <= OFF_HEAP_LIMIT ? new SegmentedMemory(size) : new OffHeapMemory(size);
+			default:
+				throw new IllegalArgumentException("Unknown memory " + kind);
+		}
+	}
+}
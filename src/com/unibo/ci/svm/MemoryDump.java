@@ -0,0 +1,105 @@
+package com.unibo.ci.svm;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Dumps of registers and memory for --print and --debug, written through a
+ * single buffered writer that is flushed at the end of every dump.
+ *
+ * A full dump shows only the initialized cells of the heap and of the
+ * stack, the cells never written are skipped. In debug mode the dumps after
+ * the first one show only the cells written since the previous dump.
+ */
+final class MemoryDump {
+	private static final int SP = Register.SP.ordinal();
+
+	private final PrintWriter out;
+	private int[] dirty = new int[16]; // cells written since the last dump
+	private int dirtyCount = 0;
+	private boolean first = true;
+
+	MemoryDump(OutputStream stream) {
+		out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stream), 1 << 16));
+	}
+
+	void written(int address) {
+		if (dirtyCount == dirty.length)
+			dirty = Arrays.copyOf(dirty, dirtyCount * 2);
+		dirty[dirtyCount++] = address;
+	}
+
+	/**
+	 * Registers, then the heap [0, heapTop) and the stack from $sp to the end
+	 * of the memory.
+	 */
+	void full(String instruction, int ip, int[] registers, Memory memory, int heapTop) {
+		out.println("Instruction: " + instruction);
+		out.println("  -----------------------");
+		out.println("  | Registers\t| Value\t|");
+		out.println("  -----------------------");
+		out.println("  | IP \t\t| " + ip + "\t| ");
+		for (Register r : Register.values())
+			out.println("  | " + name(r) + " \t\t| " + registers[r.ordinal()] + "\t| ");
+		out.println("  -----------------------");
+		out.println("  | Address\t| Value\t| ");
+		out.println("  -----------------------");
+		int stack = Math.max(heapTop, Math.min(registers[SP], memory.size()));
+		int next = printRanges(memory, 0, heapTop, 0);
+		// the gap after the last cell, if the stack does not reach the end
+		if (printRanges(memory, Math.max(stack, 0), memory.size(), next) < memory.size())
+			out.println("  | ...\t\t|\t|");
+		out.println("  -----------------------");
+		out.flush();
+		dirtyCount = 0;
+		first = false;
+	}
+
+	/**
+	 * Prints the initialized cells in [from, to), with a gap marker before
+	 * every range that does not follow the previous one.
+	 *
+	 * @param next address after the last cell printed
+	 * @return address after the last cell printed
+	 */
+	private int printRanges(Memory memory, int from, int to, int next) {
+		for (int start = memory.nextInitialized(from); start < to; start = memory.nextInitialized(start)) {
+			int end = Math.min(to, memory.nextUninitialized(start));
+			if (start != next)
+				out.println("  | ...\t\t|\t|");
+			for (int a = start; a < end; a++)
+				out.println("  | " + a + "\t\t| " + memory.read(a) + "\t|");
+			next = start = end;
+		}
+		return next;
+	}
+
+	/**
+	 * Registers on a line and the cells written since the previous dump, a
+	 * full dump if this is the first one.
+	 */
+	void changes(String instruction, int ip, int[] registers, Memory memory, int heapTop) {
+		if (first) {
+			full(instruction, ip, registers, memory, heapTop);
+			return;
+		}
+		out.println("Instruction: " + instruction);
+		StringBuilder line = new StringBuilder("  IP ").append(ip);
+		for (Register r : Register.values())
+			line.append("  ").append(name(r)).append(' ').append(registers[r.ordinal()]);
+		out.println(line);
+		Arrays.sort(dirty, 0, dirtyCount);
+		for (int i = 0; i < dirtyCount; i++)
+			if (i == 0 || dirty[i] != dirty[i - 1])
+				out.println("  | " + dirty[i] + "\t\t| " + memory.read(dirty[i]) + "\t|");
+		out.flush();
+		dirtyCount = 0;
+	}
+
+	private static String name(Register r) {
+		return r.getName().substring(1).toUpperCase();
+	}
+}
@@ -0,0 +1,133 @@
+package com.unibo.ci.svm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory outside the Java heap, for the very large sizes: the cells are in
+ * a temporary file mapped in memory, so the operating system provides the
+ * pages only when they are written and the garbage collector never sees
+ * them. Only the bitmap of the written cells is an array, with a summary
+ * that has a bit for every word of the bitmap.
+ *
+ * A mapping cannot exceed 2GB, the cells are split in regions of
+ * {@link #REGION} cells.
+ */
+final class OffHeapMemory implements Memory {
+	private static final int SHIFT = 28;
+	static final int REGION = 1 << SHIFT;
+	private static final int MASK = REGION - 1;
+
+	private final int size;
+	private final IntBuffer[] regions;
+	private final long[] written;
+	private final long[] summary; // bit per word of written, set if the word may not be zero
+
+	OffHeapMemory(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("Memory size must be positive");
+		this.size = size;
+		written = new long[(int) (((long) size + 63) >>> 6)];
+		summary = new long[(written.length + 63) >>> 6];
+		try {
+			Path file = Files.createTempFile("svm", ".mem");
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				regions = map(channel, 0, size, FileChannel.MapMode.READ_WRITE, ByteOrder.nativeOrder());
+			} finally {
+				// the mappings stay valid, the file goes away with them
+				if (!file.toFile().delete())
+					file.toFile().deleteOnExit();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot map the SVM memory", e);
+		}
+	}
+
+	/**
+	 * Memory over the cells saved in a file, see {@link Checkpoint}. The
+	 * mapping is private: the pages are read when first used and the writes
+	 * never reach the file.
+	 *
+	 * @param ranges start and end of the initialized ranges, in pairs
+	 */
+	OffHeapMemory(FileChannel channel, long offset, int size, int[] ranges) throws IOException {
+		this.size = size;
+		written = new long[(int) (((long) size + 63) >>> 6)];
+		summary = new long[(written.length + 63) >>> 6];
+		regions = map(channel, offset, size, FileChannel.MapMode.PRIVATE, ByteOrder.BIG_ENDIAN);
+		for (int i = 0; i < ranges.length; i += 2) {
+			Bitmaps.set(written, ranges[i], ranges[i + 1]);
+			if (ranges[i] < ranges[i + 1])
+				Bitmaps.set(summary, ranges[i] >>> 6, ((ranges[i + 1] - 1) >>> 6) + 1);
+		}
+	}
+
+	private static IntBuffer[] map(FileChannel channel, long offset, int size, FileChannel.MapMode mode,
+			ByteOrder order) throws IOException {
+		IntBuffer[] regions = new IntBuffer[(int) (((long) size + MASK) >>> SHIFT)];
+		for (int r = 0; r < regions.length; r++) {
+			long cells = Math.min(REGION, size - ((long) r << SHIFT));
+			regions[r] = channel.map(mode, offset + ((long) r << SHIFT) * 4, cells * 4).order(order).asIntBuffer();
+		}
+		return regions;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isInitialized(int address) {
+		return address >= 0 && address < size && (written[address >>> 6] & (1L << address)) != 0;
+	}
+
+	@Override
+	public int read(int address) {
+		return regions[address >>> SHIFT].get(address & MASK);
+	}
+
+	@Override
+	public void write(int address, int value) {
+		regions[address >>> SHIFT].put(address & MASK, value);
+		written[address >>> 6] |= 1L << address;
+		summary[address >>> 12] |= 1L << (address >>> 6);
+	}
+
+	@Override
+	public int nextInitialized(int from) {
+		if (from >= size)
+			return size;
+		int w = from >>> 6;
+		long word = written[w] & (-1L << from);
+		// the summary skips the words never written, the memory is large
+		for (int next = w + 1; word == 0; next = w + 1) {
+			w = Bitmaps.next(summary, next, written.length, true);
+			if (w == written.length)
+				return size;
+			word = written[w];
+		}
+		return (int) Math.min(size, ((long) w << 6) + Long.numberOfTrailingZeros(word));
+	}
+
+	@Override
+	public int nextUninitialized(int from) {
+		return Bitmaps.next(written, from, size, false);
+	}
+
+	@Override
+	public void clear(int from, int to) {
+		Bitmaps.clear(written, Math.max(from, 0), Math.min(to, size));
+	}
+
+	@Override
+	public long getCommitted() {
+		return size * 4L + written.length * 8L + summary.length * 8L;
+	}
+}
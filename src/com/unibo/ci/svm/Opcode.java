@@ -0,0 +1,71 @@
+package com.unibo.ci.svm;
+
+import java.util.HashMap;
+
+/**
+ * Instruction set of the SVM. The mnemonic of each opcode is the lowercase
+ * name used in the assembly.
+ *
+ * The last opcodes never appear in the assembly, they are introduced by the
+ * loader in {@link Program#dispatch}: superinstructions in place of the
+ * sequences emitted by the code generator and {@link #SET_SP}.
+ */
+public enum Opcode {
+	PUSH, POP, LW, SW, LI, MV, ADD, SUB, MUL, DIV, ADDI, SUBI, MULI, DIVI, AND, OR, NOT, DEL, PRINT, PRINTCHAR, BEQ,
+	BLEQ, B, JAL, JR, HALT,
+
+	/** mv $al $fp; lw $al 0($al) ... walk of the static links */
+	LINK(true),
+	/** static link walk followed by lw $r offset($al), load of a variable */
+	LOAD_VAR(true),
+	/** lw $r 0($sp); pop */
+	POP_INTO(true),
+	/** push $fp; push $sp; mv $cl $sp; addi $t1 $cl 2; sw $t1 0($cl); addi $sp $sp -1 */
+	CALL_PROLOGUE(true),
+	/** instruction writing $sp other than push and pop, followed by the stack check */
+	SET_SP(true);
+
+	private static final HashMap<String, Opcode> BY_MNEMONIC = new HashMap<>();
+
+	static {
+		for (Opcode op : values())
+			if (!op.fused)
+				BY_MNEMONIC.put(op.getMnemonic(), op);
+	}
+
+	private final boolean fused;
+
+	private Opcode() {
+		this(false);
+	}
+
+	private Opcode(boolean fused) {
+		this.fused = fused;
+	}
+
+	/**
+	 * @return true for the opcodes that exist only in the dispatch
+	 */
+	public boolean isFused() {
+		return fused;
+	}
+
+	/**
+	 * @return true for b, beq, bleq and jal, whose immediate is an address
+	 */
+	public boolean isJump() {
+		return this == B || this == BEQ || this == BLEQ || this == JAL;
+	}
+
+	public String getMnemonic() {
+		return name().toLowerCase();
+	}
+
+	/**
+	 * @param mnemonic mnemonic as written in the assembly
+	 * @return the opcode, null if the mnemonic is unknown
+	 */
+	public static Opcode fromMnemonic(String mnemonic) {
+		return BY_MNEMONIC.get(mnemonic);
+	}
+}
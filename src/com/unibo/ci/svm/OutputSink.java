@@ -0,0 +1,28 @@
+package com.unibo.ci.svm;
+
+/**
+ * Destination of the print and printchar instructions, every value is
+ * followed by a line separator.
+ */
+public interface OutputSink {
+
+	void printInt(int value);
+
+	/**
+	 * @throws IllegalArgumentException if the value is not a valid code point
+	 */
+	void printChar(int codePoint);
+
+	/**
+	 * Writes out what has been buffered, called by the SVM when it stops.
+	 */
+	void flush();
+
+	/**
+	 * Called by the SVM between two slices of a run, also when the program
+	 * prints nothing: a sink that keeps the output only for a limited time
+	 * writes it out here.
+	 */
+	default void poll() {
+	}
+}
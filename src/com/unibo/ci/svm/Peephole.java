@@ -0,0 +1,525 @@
+package com.unibo.ci.svm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peephole optimizer over resolved SVM code, the output of
+ * {@link SVMVisitorImpl}, both for generated and hand-written assembly.
+ *
+ * The passes are repeated until nothing changes:
+ * <ul>
+ * <li>push $a0; lw $a0 0($sp); pop is removed</li>
+ * <li>addi $r $r 0 (and subi) is removed</li>
+ * <li>branches are threaded through b and through the li $a0 / li $t1 1 /
+ * beq $a0 $t1 chains of the conditions when the outcome is known, as long
+ * as the skipped registers are dead at the new target</li>
+ * <li>b to the next instruction is removed</li>
+ * <li>instructions that are no more reachable are removed</li>
+ * </ul>
+ *
+ * Addresses are renumbered at the end, so every jr must jump only after a
+ * jal: that holds when jr uses only $ra, and $ra is written only by jal or
+ * loaded back from a slot where only sw $ra stores. Otherwise a jr can go to
+ * an address computed by the program and no instruction is removed or
+ * skipped: only the branches to a b are threaded.
+ */
+public final class Peephole {
+	private static final int A0 = Register.A0.ordinal();
+	private static final int T1 = Register.T1.ordinal();
+	private static final int SP = Register.SP.ordinal();
+	private static final int HP = Register.HP.ordinal();
+	private static final int RA = Register.RA.ordinal();
+
+	private static final int MAX_WALK = 16;
+
+	private final List<Instruction> code;
+	private final int size;
+	private final Opcode[] opcodes;
+	private final int[] reg1, reg2, reg3, imm;
+	private final boolean[] removed;
+	private final boolean[] isTarget; // reached by a jump or by jr
+	private final int[] live; // live registers at the start of each instruction
+	private final boolean returns; // every jr goes back after a jal
+	private final Map<String, Integer> rewrites = new LinkedHashMap<>();
+	private int threaded = 0;
+	private boolean folded; // the last walk decided a beq or a bleq
+
+	private Peephole(List<Instruction> code) {
+		Program p = Program.load(code);
+		this.code = p.getCode(); // with a halt at the end if a jump goes there
+		size = p.size();
+		opcodes = p.opcodes;
+		reg1 = p.reg1;
+		reg2 = p.reg2;
+		reg3 = p.reg3;
+		imm = p.imm.clone();
+		removed = new boolean[size];
+		isTarget = new boolean[size + 1];
+		live = new int[size + 1];
+		rewrites.put("push $a0; lw $a0 0($sp); pop", 0);
+		rewrites.put("addi $r $r 0", 0);
+		rewrites.put("branch threaded through b", 0);
+		rewrites.put("li $a0; li $t1; beq folded", 0);
+		rewrites.put("b to next instruction", 0);
+		rewrites.put("unreachable", 0);
+		returns = onlyReturns();
+	}
+
+	/**
+	 * Optimizes the code.
+	 *
+	 * @param code   resolved instructions
+	 * @param labels address of each label, updated with the new addresses
+	 * @return the optimized code with its statistics
+	 * @throws IllegalArgumentException if an instruction is not valid or a
+	 *                                  jump leaves the program
+	 */
+	public static Result optimize(List<Instruction> code, Map<String, Integer> labels) {
+		Peephole peephole = new Peephole(code);
+		peephole.run();
+		return peephole.result(labels);
+	}
+
+	private void run() {
+		if (!returns) {
+			// any instruction can be a target and any register can be read there
+			Arrays.fill(isTarget, true);
+			Arrays.fill(live, -1);
+			while (thread())
+				;
+			return;
+		}
+		boolean changed = true;
+		while (changed) {
+			findTargets();
+			changed = removeRedundant();
+			computeLiveness();
+			changed |= thread();
+			findTargets();
+			changed |= removeBranchToNext();
+			changed |= removeUnreachable();
+		}
+	}
+
+	private void remove(int pc, String pattern) {
+		removed[pc] = true;
+		rewrites.merge(pattern, 1, Integer::sum);
+	}
+
+	private int next(int pc) {
+		pc++;
+		while (pc < size && removed[pc])
+			pc++;
+		return pc;
+	}
+
+	/**
+	 * @return true if every jr is a return: it uses $ra, and $ra is written
+	 *         only by jal or by a lw from a slot where only sw $ra stores
+	 */
+	private boolean onlyReturns() {
+		Set<String> saved = new HashSet<>(); // offset($r) of the sw $ra
+		Set<String> stored = new HashSet<>(); // offset($r) of the other sw
+		for (int pc = 0; pc < size; pc++) {
+			Opcode op = opcodes[pc];
+			if (op == Opcode.JR && reg1[pc] != RA)
+				return false;
+			if ((defs(pc) & bit(RA)) != 0 && op != Opcode.JAL && op != Opcode.LW)
+				return false;
+			if (op == Opcode.SW)
+				(reg1[pc] == RA ? saved : stored).add(imm[pc] + "(" + reg2[pc] + ")");
+		}
+		for (int pc = 0; pc < size; pc++) {
+			String slot = imm[pc] + "(" + reg2[pc] + ")";
+			if (opcodes[pc] == Opcode.LW && reg1[pc] == RA && (!saved.contains(slot) || stored.contains(slot)))
+				return false;
+		}
+		return true;
+	}
+
+	private void findTargets() {
+		Arrays.fill(isTarget, false);
+		for (int pc = 0; pc < size; pc++) {
+			if (removed[pc])
+				continue;
+			if (opcodes[pc].isJump())
+				isTarget[imm[pc]] = true;
+			if (opcodes[pc] == Opcode.JAL)
+				isTarget[pc + 1] = true;
+		}
+	}
+
+	/**
+	 * @return true if no jump lands in (start, end]
+	 */
+	private boolean straight(int start, int end) {
+		for (int pc = start + 1; pc <= end; pc++)
+			if (isTarget[pc])
+				return false;
+		return true;
+	}
+
+	private boolean removeRedundant() {
+		boolean changed = false;
+		for (int pc = 0; pc < size; pc++) {
+			if (removed[pc])
+				continue;
+			Opcode op = opcodes[pc];
+			if ((op == Opcode.ADDI || op == Opcode.SUBI) && reg1[pc] == reg2[pc] && imm[pc] == 0) {
+				remove(pc, "addi $r $r 0");
+				changed = true;
+			} else if (op == Opcode.PUSH && reg1[pc] == A0) {
+				int lw = next(pc), pop = lw < size ? next(lw) : size;
+				if (pop < size && opcodes[lw] == Opcode.LW && reg1[lw] == A0 && reg2[lw] == SP && imm[lw] == 0
+						&& opcodes[pop] == Opcode.POP && straight(pc, pop)) {
+					String pattern = "push $a0; lw $a0 0($sp); pop";
+					remove(pc, pattern);
+					remove(lw, pattern);
+					remove(pop, pattern);
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	private boolean removeBranchToNext() {
+		boolean changed = false;
+		for (int pc = 0; pc < size; pc++)
+			if (!removed[pc] && opcodes[pc] == Opcode.B && imm[pc] == next(pc)) {
+				remove(pc, "b to next instruction");
+				changed = true;
+			}
+		return changed;
+	}
+
+	private boolean removeUnreachable() {
+		boolean[] reached = new boolean[size + 1];
+		List<Integer> work = new ArrayList<>();
+		List<Integer> returns = new ArrayList<>();
+		boolean returned = false;
+		work.add(0);
+		while (!work.isEmpty()) {
+			int pc = work.remove(work.size() - 1);
+			if (pc < 0 || pc >= size || reached[pc])
+				continue;
+			reached[pc] = true;
+			if (removed[pc]) {
+				work.add(pc + 1);
+				continue;
+			}
+			switch (opcodes[pc]) {
+				case B:
+					work.add(imm[pc]);
+					break;
+				case BEQ:
+				case BLEQ:
+					work.add(imm[pc]);
+					work.add(pc + 1);
+					break;
+				case JAL:
+					work.add(imm[pc]);
+					returns.add(pc + 1);
+					if (returned)
+						work.add(pc + 1);
+					break;
+				case JR:
+					if (!returned) {
+						returned = true;
+						work.addAll(returns);
+					}
+					break;
+				case HALT:
+					break;
+				default:
+					work.add(pc + 1);
+			}
+		}
+		boolean changed = false;
+		for (int pc = 0; pc < size; pc++)
+			if (!reached[pc] && !removed[pc]) {
+				remove(pc, "unreachable");
+				changed = true;
+			}
+		return changed;
+	}
+
+	private static int bit(int register) {
+		return 1 << register;
+	}
+
+	private int uses(int pc) {
+		switch (opcodes[pc]) {
+			case PUSH:
+				return bit(reg1[pc]) | bit(SP);
+			case POP:
+				return bit(SP);
+			case LW:
+			case MV:
+			case NOT:
+			case ADDI:
+			case SUBI:
+			case MULI:
+			case DIVI:
+				return bit(reg2[pc]);
+			case SW:
+			case BEQ:
+			case BLEQ:
+				return bit(reg1[pc]) | bit(reg2[pc]);
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+			case AND:
+			case OR:
+				return bit(reg2[pc]) | bit(reg3[pc]);
+			case DEL:
+			case PRINT:
+			case PRINTCHAR:
+			case JR:
+				return bit(reg1[pc]);
+			default:
+				return 0;
+		}
+	}
+
+	private int defs(int pc) {
+		switch (opcodes[pc]) {
+			case PUSH:
+			case POP:
+				return bit(SP);
+			case SW:
+				return reg2[pc] == HP ? bit(A0) : 0;
+			case JAL:
+				return bit(RA);
+			case LW:
+			case LI:
+			case MV:
+			case NOT:
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+			case AND:
+			case OR:
+			case ADDI:
+			case SUBI:
+			case MULI:
+			case DIVI:
+				return bit(reg1[pc]);
+			default:
+				return 0;
+		}
+	}
+
+	private void computeLiveness() {
+		int returns = 0; // registers live after any jal, jr can go there
+		Arrays.fill(live, 0);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			int returnsOut = 0;
+			for (int pc = size - 1; pc >= 0; pc--) {
+				int out;
+				if (removed[pc]) {
+					live[pc] = live[pc + 1];
+					continue;
+				}
+				switch (opcodes[pc]) {
+					case B:
+					case JAL:
+						out = live[imm[pc]];
+						break;
+					case BEQ:
+					case BLEQ:
+						out = live[imm[pc]] | live[pc + 1];
+						break;
+					case JR:
+						out = returns;
+						break;
+					case HALT:
+						out = 0;
+						break;
+					default:
+						out = live[pc + 1];
+				}
+				if (opcodes[pc] == Opcode.JAL)
+					returnsOut |= live[pc + 1];
+				int in = (out & ~defs(pc)) | uses(pc);
+				if (in != live[pc]) {
+					live[pc] = in;
+					changed = true;
+				}
+			}
+			if (returnsOut != returns) {
+				returns = returnsOut;
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * Follows the jumps from start while the outcome is known, a0 is the
+	 * value of $a0 when it is known at the jump.
+	 *
+	 * @return the new target, start if it cannot be moved
+	 */
+	private int walk(int start, Integer a0) {
+		Integer t1 = null;
+		int written = 0;
+		int pc = start;
+		int result = start;
+		boolean decided = false;
+		folded = false;
+		for (int steps = 0; steps < MAX_WALK && pc < size; steps++) {
+			if (removed[pc]) {
+				pc++;
+				continue;
+			}
+			Opcode op = opcodes[pc];
+			if (op == Opcode.LI && (reg1[pc] == A0 || reg1[pc] == T1)) {
+				if (reg1[pc] == A0)
+					a0 = imm[pc];
+				else
+					t1 = imm[pc];
+				written |= bit(reg1[pc]);
+				pc++;
+			} else if (op == Opcode.B) {
+				pc = imm[pc];
+			} else if ((op == Opcode.BEQ || op == Opcode.BLEQ) && a0 != null && t1 != null
+					&& (reg1[pc] == A0 && reg2[pc] == T1 || reg1[pc] == T1 && reg2[pc] == A0)) {
+				int left = reg1[pc] == A0 ? a0 : t1;
+				int right = reg2[pc] == A0 ? a0 : t1;
+				boolean taken = op == Opcode.BEQ ? left == right : left <= right;
+				pc = taken ? imm[pc] : pc + 1;
+				decided = true;
+			} else {
+				break;
+			}
+			if (pc == start)
+				return start; // loop
+			if ((live[pc] & written) == 0) {
+				result = pc;
+				folded = decided;
+			}
+		}
+		return result;
+	}
+
+	private boolean thread() {
+		boolean changed = false;
+		for (int pc = 0; pc < size; pc++) {
+			Opcode op = opcodes[pc];
+			if (removed[pc] || (op != Opcode.B && op != Opcode.BEQ && op != Opcode.BLEQ))
+				continue;
+			Integer a0 = null;
+			if (op == Opcode.B && !isTarget[pc] && pc > 0 && !removed[pc - 1] && opcodes[pc - 1] == Opcode.LI
+					&& reg1[pc - 1] == A0)
+				a0 = imm[pc - 1];
+			int target = walk(imm[pc], a0);
+			if (target != imm[pc]) {
+				imm[pc] = target;
+				threaded++;
+				rewrites.merge(folded ? "li $a0; li $t1; beq folded" : "branch threaded through b", 1, Integer::sum);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private Result result(Map<String, Integer> labels) {
+		int[] address = new int[size + 1];
+		int n = 0;
+		for (int pc = 0; pc < size; pc++) {
+			address[pc] = n;
+			if (!removed[pc])
+				n++;
+		}
+		address[size] = n;
+
+		List<Instruction> optimized = new ArrayList<>(n);
+		for (int pc = 0; pc < size; pc++) {
+			if (removed[pc])
+				continue;
+			Instruction instr = code.get(pc);
+			switch (opcodes[pc]) {
+				case B:
+				case JAL:
+					instr = new Instruction(instr.getInstruction(), Integer.toString(address[imm[pc]]), 0, null, null);
+					break;
+				case BEQ:
+				case BLEQ:
+					instr = new Instruction(instr.getInstruction(), instr.getArg1(), 0, instr.getArg2(),
+							Integer.toString(address[imm[pc]]));
+					break;
+				default:
+			}
+			optimized.add(instr);
+		}
+		Map<String, Integer> moved = new HashMap<>();
+		labels.forEach((label, pc) -> moved.put(label, address[Math.min(Math.max(pc, 0), size)]));
+		labels.putAll(moved);
+		return new Result(optimized, rewrites, threaded, size, returns);
+	}
+
+	public static final class Result {
+		private final List<Instruction> code;
+		private final Map<String, Integer> rewrites;
+		private final int threaded;
+		private final int originalSize;
+		private final boolean complete;
+
+		private Result(List<Instruction> code, Map<String, Integer> rewrites, int threaded, int originalSize,
+				boolean complete) {
+			this.code = code;
+			this.rewrites = rewrites;
+			this.threaded = threaded;
+			this.originalSize = originalSize;
+			this.complete = complete;
+		}
+
+		public List<Instruction> getCode() {
+			return code;
+		}
+
+		/**
+		 * @return instructions removed, or branches moved, by each pattern
+		 */
+		public Map<String, Integer> getRewrites() {
+			return rewrites;
+		}
+
+		/**
+		 * @return branches moved to a later target
+		 */
+		public int getThreaded() {
+			return threaded;
+		}
+
+		/**
+		 * @return false if a jr may not be a return, then only the branches to
+		 *         a b were threaded
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append("Peephole: " + originalSize + " -> " + code.size() + " instructions, " + threaded
+					+ " branches threaded");
+			if (!complete)
+				builder.append(", jr not only after jal: nothing removed");
+			rewrites.forEach((pattern, count) -> builder.append("\n\t" + count + "\t" + pattern));
+			return builder.toString();
+		}
+	}
+}
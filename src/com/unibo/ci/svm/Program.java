@@ -0,0 +1,570 @@
+package com.unibo.ci.svm;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Decoded SVM program: opcodes, register indexes, immediates and branch
+ * targets are resolved once at load time so the interpreter never looks at
+ * strings.
+ *
+ * A program does not change after the load (the engines are compiled once
+ * on first use and the counters of the tiered engine are only hints), so it
+ * can be shared by threads; the state of a run is in its SVM, see
+ * {@link #newExecution}.
+ *
+ * The interpreters dispatch on {@link #dispatch}, where the first
+ * instruction of the sequences that the code generator repeats is replaced
+ * by a superinstruction covering {@link #span} instructions. The covered
+ * instructions stay in place, so a jump in the middle of a sequence still
+ * finds them, and the operands of a superinstruction are the ones of the
+ * instructions it covers.
+ */
+public final class Program {
+	private final static Logger LOGGER = Logger.getLogger(Program.class.getCanonicalName());
+
+	private static final int POOL_SIZE = 16; // idle SVMs kept for each memory
+
+	private static final int T1 = Register.T1.ordinal();
+	private static final int SP = Register.SP.ordinal();
+	private static final int FP = Register.FP.ordinal();
+	private static final int HP = Register.HP.ordinal();
+	private static final int CL = Register.CL.ordinal();
+
+	final Opcode[] opcodes;
+	final int[] reg1;
+	final int[] reg2;
+	final int[] reg3;
+	final int[] imm; // offset, immediate value or resolved jump target
+	final Opcode[] dispatch; // opcodes with the superinstructions
+	final int[] span; // instructions executed by dispatch[i]
+	final int[] cost; // fuel of a taken backward branch or of a call, 0 elsewhere
+
+	private List<Instruction> code; // rebuilt from the decoded fields for the binary programs
+	private final Map<Integer, String> labels = new HashMap<>(); // address -> label names
+	private ThreadedCode threadedCode; // compiled on first use
+	private CompiledCode compiledCode;
+	private TieredCode tieredCode;
+	private boolean compileFailed = false;
+	private byte[] hash;
+	private final Map<String, SVMPool> pools = new ConcurrentHashMap<>(); // by memory backend and size
+
+	private Program(List<Instruction> code, Map<String, Integer> labelAddresses) {
+		code = terminated(code);
+		int size = code.size();
+		this.code = Collections.unmodifiableList(code);
+		opcodes = new Opcode[size];
+		reg1 = new int[size];
+		reg2 = new int[size];
+		reg3 = new int[size];
+		imm = new int[size];
+		dispatch = new Opcode[size];
+		span = new int[size];
+		cost = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			Instruction instr = code.get(i);
+			Opcode op = Opcode.fromMnemonic(instr.getInstruction());
+			if (op == null)
+				throw new IllegalArgumentException("Unrecognized instruction: " + instr.getInstruction());
+			opcodes[i] = op;
+			switch (op) {
+				case PUSH:
+				case DEL:
+				case PRINT:
+				case PRINTCHAR:
+				case JR:
+					reg1[i] = Register.indexOf(instr.getArg1());
+					break;
+				case LW:
+				case SW:
+					reg1[i] = Register.indexOf(instr.getArg1());
+					reg2[i] = Register.indexOf(instr.getArg2());
+					imm[i] = instr.getOffset();
+					break;
+				case LI:
+					reg1[i] = Register.indexOf(instr.getArg1());
+					imm[i] = Integer.parseInt(instr.getArg2());
+					break;
+				case MV:
+				case NOT:
+					reg1[i] = Register.indexOf(instr.getArg1());
+					reg2[i] = Register.indexOf(instr.getArg2());
+					break;
+				case ADD:
+				case SUB:
+				case MUL:
+				case DIV:
+				case AND:
+				case OR:
+					reg1[i] = Register.indexOf(instr.getArg1());
+					reg2[i] = Register.indexOf(instr.getArg2());
+					reg3[i] = Register.indexOf(instr.getArg3());
+					break;
+				case ADDI:
+				case SUBI:
+				case MULI:
+				case DIVI:
+				case BEQ:
+				case BLEQ:
+					reg1[i] = Register.indexOf(instr.getArg1());
+					reg2[i] = Register.indexOf(instr.getArg2());
+					imm[i] = Integer.parseInt(instr.getArg3());
+					break;
+				case B:
+				case JAL:
+					imm[i] = Integer.parseInt(instr.getArg1());
+					break;
+				case POP:
+				case HALT:
+					break;
+			}
+			if (op.isJump() && (imm[i] < 0 || imm[i] >= size))
+				throw new IllegalArgumentException("Jump out of the program at " + i + ": " + instr.toAssembly());
+		}
+
+		fuse();
+		meter();
+
+		Map<Integer, TreeSet<String>> names = new HashMap<>();
+		labelAddresses.forEach((label, address) -> names.computeIfAbsent(address, a -> new TreeSet<>()).add(label));
+		names.forEach((address, set) -> labels.put(address, String.join(",", set)));
+	}
+
+	/**
+	 * A label after the last instruction is a valid target for the compiler,
+	 * the run must halt there: in that case the code gets a halt at the end, so
+	 * every jump stays inside the program.
+	 */
+	private static List<Instruction> terminated(List<Instruction> code) {
+		String end = Integer.toString(code.size());
+		for (Instruction instr : code) {
+			Opcode op = Opcode.fromMnemonic(instr.getInstruction());
+			if (op != null && op.isJump()
+					&& end.equals(op == Opcode.BEQ || op == Opcode.BLEQ ? instr.getArg3() : instr.getArg1())) {
+				List<Instruction> halted = new ArrayList<>(code);
+				halted.add(new Instruction("halt", null, 0, null, null));
+				return halted;
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Program already decoded, see {@link ProgramFile}.
+	 */
+	Program(Opcode[] opcodes, int[] reg1, int[] reg2, int[] reg3, int[] imm, Map<Integer, String> labels) {
+		int size = opcodes.length;
+		this.opcodes = opcodes;
+		this.reg1 = reg1;
+		this.reg2 = reg2;
+		this.reg3 = reg3;
+		this.imm = imm;
+		dispatch = new Opcode[size];
+		span = new int[size];
+		cost = new int[size];
+		fuse();
+		meter();
+		this.labels.putAll(labels);
+	}
+
+	private Instruction toInstruction(int i) {
+		String name = opcodes[i].getMnemonic();
+		String r1 = Register.values()[reg1[i]].getName();
+		String r2 = Register.values()[reg2[i]].getName();
+		switch (opcodes[i]) {
+			case PUSH:
+			case DEL:
+			case PRINT:
+			case PRINTCHAR:
+			case JR:
+				return new Instruction(name, r1, 0, null, null);
+			case LW:
+			case SW:
+				return new Instruction(name, r1, imm[i], r2, null);
+			case LI:
+				return new Instruction(name, r1, 0, Integer.toString(imm[i]), null);
+			case MV:
+			case NOT:
+				return new Instruction(name, r1, 0, r2, null);
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+			case AND:
+			case OR:
+				return new Instruction(name, r1, 0, r2, Register.values()[reg3[i]].getName());
+			case ADDI:
+			case SUBI:
+			case MULI:
+			case DIVI:
+			case BEQ:
+			case BLEQ:
+				return new Instruction(name, r1, 0, r2, Integer.toString(imm[i]));
+			case B:
+			case JAL:
+				return new Instruction(name, Integer.toString(imm[i]), 0, null, null);
+			default:
+				return new Instruction(name, null, 0, null, null);
+		}
+	}
+
+	private void fuse() {
+		int size = opcodes.length;
+		for (int i = 0; i < size; i++) {
+			dispatch[i] = opcodes[i];
+			span[i] = 1;
+		}
+		for (int i = 0; i < size;) {
+			int n = callPrologue(i);
+			if (n == 0)
+				n = link(i);
+			if (n == 0)
+				n = popInto(i);
+			i += Math.max(n, 1);
+		}
+		// only the instructions that can grow the stack check it, push does it by itself
+		for (int i = 0; i < size; i++)
+			if (dispatch[i] == opcodes[i] && writesStackPointer(i))
+				dispatch[i] = Opcode.SET_SP;
+	}
+
+	private boolean writesStackPointer(int i) {
+		switch (opcodes[i]) {
+			case LW:
+			case LI:
+			case MV:
+			case NOT:
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+			case AND:
+			case OR:
+			case ADDI:
+			case SUBI:
+			case MULI:
+			case DIVI:
+				return reg1[i] == SP;
+			default:
+				return false;
+		}
+	}
+
+	private boolean is(int i, Opcode op, int r1, int r2) {
+		return i < opcodes.length && opcodes[i] == op && reg1[i] == r1 && reg2[i] == r2;
+	}
+
+	private boolean isStackOrHeap(int r) {
+		return r == SP || r == HP;
+	}
+
+	// mv $al $fp; lw $al 0($al) ... [lw $r offset($al)]
+	private int link(int i) {
+		if (opcodes[i] != Opcode.MV || isStackOrHeap(reg1[i]) || isStackOrHeap(reg2[i]))
+			return 0;
+		int link = reg1[i];
+		int end = i + 1;
+		while (is(end, Opcode.LW, link, link) && imm[end] == 0)
+			end++;
+		if (end < opcodes.length && opcodes[end] == Opcode.LW && reg2[end] == link && !isStackOrHeap(reg1[end])) {
+			dispatch[i] = Opcode.LOAD_VAR;
+			span[i] = end - i + 1;
+		} else if (end - i > 1) {
+			dispatch[i] = Opcode.LINK;
+			span[i] = end - i;
+		}
+		return span[i];
+	}
+
+	// lw $r 0($sp); pop
+	private int popInto(int i) {
+		if (opcodes[i] != Opcode.LW || reg2[i] != SP || imm[i] != 0 || isStackOrHeap(reg1[i])
+				|| i + 1 >= opcodes.length || opcodes[i + 1] != Opcode.POP)
+			return 0;
+		dispatch[i] = Opcode.POP_INTO;
+		return span[i] = 2;
+	}
+
+	// push $fp; push $sp; mv $cl $sp; addi $t1 $cl 2; sw $t1 0($cl); addi $sp $sp -1
+	private int callPrologue(int i) {
+		if (opcodes[i] == Opcode.PUSH && reg1[i] == FP && i + 5 < opcodes.length
+				&& opcodes[i + 1] == Opcode.PUSH && reg1[i + 1] == SP
+				&& is(i + 2, Opcode.MV, CL, SP)
+				&& is(i + 3, Opcode.ADDI, T1, CL) && imm[i + 3] == 2
+				&& is(i + 4, Opcode.SW, T1, CL) && imm[i + 4] == 0
+				&& is(i + 5, Opcode.ADDI, SP, SP) && imm[i + 5] == -1) {
+			dispatch[i] = Opcode.CALL_PROLOGUE;
+			return span[i] = 6;
+		}
+		return 0;
+	}
+
+	/**
+	 * Decodes the code produced by {@link SVMVisitorImpl}, labels must be
+	 * already resolved.
+	 *
+	 * @param code resolved instructions
+	 * @return the decoded program
+	 * @throws IllegalArgumentException if an instruction is not valid or a
+	 *                                  jump leaves the program
+	 */
+	public static Program load(List<Instruction> code) {
+		return new Program(code, Collections.emptyMap());
+	}
+
+	/**
+	 * Decodes the code keeping the label names, they are used only for
+	 * diagnostics.
+	 *
+	 * @param code   resolved instructions
+	 * @param labels address of each label
+	 * @return the decoded program
+	 * @throws IllegalArgumentException if an instruction is not valid or a
+	 *                                  jump leaves the program
+	 */
+	public static Program load(List<Instruction> code, Map<String, Integer> labels) {
+		return new Program(code, labels);
+	}
+
+	public int size() {
+		return opcodes.length;
+	}
+
+	public Opcode getOpcode(int address) {
+		return opcodes[address];
+	}
+
+	public Instruction getInstruction(int address) {
+		return getCode().get(address);
+	}
+
+	public synchronized List<Instruction> getCode() {
+		if (code == null) {
+			List<Instruction> instructions = new ArrayList<>(size());
+			for (int i = 0; i < size(); i++)
+				instructions.add(toInstruction(i));
+			code = Collections.unmodifiableList(instructions);
+		}
+		return code;
+	}
+
+	/**
+	 * Renders the program as assembly that {@link SVMVisitorImpl} reads back:
+	 * every jump goes to a label, a target without one gets a name of its own.
+	 *
+	 * @return the assembly text, without comments
+	 */
+	public String toAssembly() {
+		Set<String> taken = new HashSet<>();
+		labels.values().forEach(set -> taken.addAll(Arrays.asList(set.split(","))));
+		Map<Integer, String> targets = new HashMap<>();
+		for (int i = 0; i < size(); i++)
+			if (opcodes[i].isJump())
+				targets.computeIfAbsent(imm[i], a -> {
+					if (labels.containsKey(a))
+						return labels.get(a).split(",")[0];
+					String name = "address" + a;
+					while (taken.contains(name))
+						name = "x" + name;
+					return name;
+				});
+
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < size(); i++) {
+			if (labels.containsKey(i)) {
+				for (String label : labels.get(i).split(","))
+					out.append(label).append(":\n");
+			} else if (targets.containsKey(i)) {
+				out.append(targets.get(i)).append(":\n");
+			}
+			Instruction instr = getInstruction(i);
+			switch (opcodes[i]) {
+				case B:
+				case JAL:
+					instr = new Instruction(instr.getInstruction(), targets.get(imm[i]), 0, null, null);
+					break;
+				case BEQ:
+				case BLEQ:
+					instr = new Instruction(instr.getInstruction(), instr.getArg1(), 0, instr.getArg2(),
+							targets.get(imm[i]));
+					break;
+				default:
+			}
+			out.append(instr.toAssembly()).append('\n');
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Fuel charged by the jumps that can repeat code: a taken backward branch
+	 * costs the instructions from its target to the branch, a call the
+	 * instructions of the function body. A jr has no fixed target, the
+	 * engines charge a backward one in the same way when they take it. Every
+	 * loop and every recursion goes through one of them, so a run always
+	 * stops when the fuel is over. The fuel spent is only an estimate of the
+	 * instructions executed: the code run once costs nothing, a call costs
+	 * the whole body also when it returns early.
+	 */
+	private void meter() {
+		Map<Integer, Integer> bodies = new HashMap<>();
+		for (int pc = 0; pc < size(); pc++) {
+			int target = imm[pc];
+			switch (opcodes[pc]) {
+				case B:
+				case BEQ:
+				case BLEQ:
+					if (target <= pc)
+						cost[pc] = pc - target + 1;
+					break;
+				case JAL:
+					cost[pc] = bodies.computeIfAbsent(target, entry -> {
+						int count = 0;
+						for (boolean b : functionRegion(entry))
+							if (b)
+								count++;
+						return Math.max(1, count);
+					});
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Instructions of the function body: everything reachable from the entry
+	 * without following calls, up to the returns.
+	 */
+	boolean[] functionRegion(int entry) {
+		int size = size();
+		boolean[] region = new boolean[size];
+		ArrayDeque<Integer> work = new ArrayDeque<>();
+		work.push(entry);
+		while (!work.isEmpty()) {
+			int pc = work.pop();
+			if (pc < 0 || pc >= size || region[pc])
+				continue;
+			region[pc] = true;
+			switch (opcodes[pc]) {
+				case B:
+					work.push(imm[pc]);
+					break;
+				case BEQ:
+				case BLEQ:
+					work.push(imm[pc]);
+					work.push(pc + 1);
+					break;
+				case JR:
+				case HALT:
+					break;
+				default: // jal continues at the return address
+					work.push(pc + 1);
+			}
+		}
+		return region;
+	}
+
+	/**
+	 * @return address -> label names, comma separated
+	 */
+	Map<Integer, String> getLabels() {
+		return labels;
+	}
+
+	/**
+	 * @return the nearest label at or before the address, as label+offset,
+	 *         null if there is none
+	 */
+	public String getLocation(int address) {
+		for (int a = Math.min(address, size() - 1); a >= 0; a--) {
+			String label = labels.get(a);
+			if (label != null)
+				return address == a ? label : label + "+" + (address - a);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the labels at the given address, null if there are none
+	 */
+	public String getLabel(int address) {
+		return labels.get(address);
+	}
+
+	/**
+	 * Starts a new run of the program, the program can run on any number of
+	 * threads at the same time.
+	 *
+	 * @param limits memory and limits of the run
+	 * @param output where the program prints
+	 */
+	public Execution newExecution(Limits limits, OutputSink output) {
+		SVMPool pool = pools.computeIfAbsent(limits.getMemory() + ":" + limits.getMemorySize(),
+				key -> new SVMPool(this, limits.getMemorySize(), limits.getMemory(), POOL_SIZE));
+		return new Execution(pool, limits, output);
+	}
+
+	/**
+	 * @return SHA-256 of the decoded instructions, the labels are not part of
+	 *         it
+	 */
+	public synchronized byte[] getHash() {
+		if (hash == null) {
+			ByteBuffer words = ByteBuffer.allocate(size() * 20);
+			for (int i = 0; i < size(); i++)
+				words.putInt(opcodes[i].ordinal()).putInt(reg1[i]).putInt(reg2[i]).putInt(reg3[i]).putInt(imm[i]);
+			try {
+				hash = MessageDigest.getInstance("SHA-256").digest(words.array());
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e); // every JVM has SHA-256
+			}
+		}
+		return hash.clone();
+	}
+
+	synchronized ThreadedCode getThreadedCode() {
+		if (threadedCode == null)
+			threadedCode = ThreadedCode.compile(this);
+		return threadedCode;
+	}
+
+	/**
+	 * @param threshold calls before a function is compiled, used only by the
+	 *                  first call
+	 */
+	synchronized TieredCode getTieredCode(int threshold) {
+		if (tieredCode == null)
+			tieredCode = new TieredCode(this, threshold);
+		return tieredCode;
+	}
+
+	/**
+	 * @return the program compiled to a JVM class, null if it cannot be
+	 *         compiled
+	 */
+	synchronized CompiledCode getCompiledCode() {
+		if (compiledCode == null && !compileFailed) {
+			try {
+				compiledCode = JvmCompiler.compile(this);
+			} catch (IllegalStateException e) {
+				LOGGER.warning("JVM compilation failed, using the threaded engine: " + e.getMessage());
+				compileFailed = true;
+			}
+		}
+		return compiledCode;
+	}
+}
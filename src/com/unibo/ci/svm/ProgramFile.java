@@ -0,0 +1,187 @@
+package com.unibo.ci.svm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary object format of SVM programs (.svmb), loaded without parsing.
+ *
+ * <pre>
+ * header     magic "SVMB", u2 version, u2 flags (0),
+ *            u4 instructions, u4 constants, u4 labels
+ * constants  s4 * constants
+ * code       u4 * instructions
+ * labels     per label: u4 address, u2 length, utf-8 name
+ * </pre>
+ *
+ * Everything is big endian. Every instruction is a single word:
+ *
+ * <pre>
+ * 31..27 opcode, 26..24 reg1, 23..21 reg2, 20..18 reg3,
+ * 17     operand in the constant table,
+ * 16..0  operand (signed) or index of the constant
+ * </pre>
+ *
+ * The operand is the offset, the immediate or the resolved branch target.
+ */
+public final class ProgramFile {
+	public static final String EXTENSION = ".svmb";
+
+	private static final int MAGIC = 0x53564D42; // SVMB
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+
+	private static final int OPERAND_BITS = 17;
+	private static final int CONSTANT_FLAG = 1 << OPERAND_BITS;
+	private static final int MIN_INLINE = -(1 << (OPERAND_BITS - 1));
+	private static final int MAX_INLINE = (1 << (OPERAND_BITS - 1)) - 1;
+
+	private ProgramFile() {
+	}
+
+	/**
+	 * Writes the program, the superinstructions are not saved since they are
+	 * computed again when the program is loaded.
+	 */
+	public static void write(Program program, String filename) throws IOException {
+		try (OutputStream file = Files.newOutputStream(Paths.get(filename))) {
+			write(program, file);
+		}
+	}
+
+	/**
+	 * Writes the program on the stream, which is flushed but not closed.
+	 */
+	public static void write(Program program, OutputStream stream) throws IOException {
+		int size = program.size();
+		int[] words = new int[size];
+		List<Integer> constants = new ArrayList<>();
+		Map<Integer, Integer> constantIndex = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			int value = program.imm[i];
+			int operand;
+			if (value >= MIN_INLINE && value <= MAX_INLINE) {
+				operand = value & (CONSTANT_FLAG - 1);
+			} else {
+				Integer index = constantIndex.get(value);
+				if (index == null) {
+					index = constants.size();
+					constants.add(value);
+					constantIndex.put(value, index);
+				}
+				operand = CONSTANT_FLAG | index;
+			}
+			words[i] = program.opcodes[i].ordinal() << 27 | program.reg1[i] << 24 | program.reg2[i] << 21
+					| program.reg3[i] << 18 | operand;
+		}
+
+		Map<Integer, String> labels = program.getLabels();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeShort(0);
+		out.writeInt(size);
+		out.writeInt(constants.size());
+		out.writeInt(labels.size());
+		for (int constant : constants)
+			out.writeInt(constant);
+		for (int word : words)
+			out.writeInt(word);
+		for (Map.Entry<Integer, String> label : labels.entrySet()) {
+			byte[] name = label.getValue().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(label.getKey());
+			out.writeShort(name.length);
+			out.write(name);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Maps the file in memory and decodes it.
+	 *
+	 * @throws IOException if the file cannot be read or is not a valid
+	 *                     program
+	 */
+	public static Program load(String filename) throws IOException {
+		Path path = Paths.get(filename);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return decode(buffer.order(ByteOrder.BIG_ENDIAN), filename);
+		}
+	}
+
+	private static Program decode(ByteBuffer buffer, String filename) throws IOException {
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+			throw new IOException(filename + " is not an SVM program");
+		int version = buffer.getShort();
+		buffer.getShort(); // flags
+		if (version != VERSION)
+			throw new IOException(filename + ": unsupported version " + version);
+		int size = buffer.getInt();
+		int constantCount = buffer.getInt();
+		int labelCount = buffer.getInt();
+		if (size < 0 || constantCount < 0 || labelCount < 0
+				|| ((long) size + constantCount) * 4 > buffer.remaining())
+			throw new IOException(filename + ": truncated file");
+
+		int[] constants = new int[constantCount];
+		buffer.asIntBuffer().get(constants);
+		buffer.position(buffer.position() + constantCount * 4);
+
+		Opcode[] all = Opcode.values();
+		Opcode[] opcodes = new Opcode[size];
+		int[] reg1 = new int[size];
+		int[] reg2 = new int[size];
+		int[] reg3 = new int[size];
+		int[] imm = new int[size];
+		for (int i = 0; i < size; i++) {
+			int word = buffer.getInt();
+			int op = word >>> 27;
+			if (op >= all.length || all[op].isFused())
+				throw new IOException(filename + ": invalid opcode at " + i);
+			opcodes[i] = all[op];
+			reg1[i] = word >>> 24 & 0x7;
+			reg2[i] = word >>> 21 & 0x7;
+			reg3[i] = word >>> 18 & 0x7;
+			if ((word & CONSTANT_FLAG) != 0) {
+				int index = word & (CONSTANT_FLAG - 1);
+				if (index >= constantCount)
+					throw new IOException(filename + ": invalid constant at " + i);
+				imm[i] = constants[index];
+			} else {
+				imm[i] = word << (32 - OPERAND_BITS) >> (32 - OPERAND_BITS); // sign extension
+			}
+			if (opcodes[i].isJump() && (imm[i] < 0 || imm[i] >= size))
+				throw new IOException(filename + ": jump out of the program at " + i);
+		}
+
+		Map<Integer, String> labels = new HashMap<>();
+		try {
+			for (int i = 0; i < labelCount; i++) {
+				int address = buffer.getInt();
+				byte[] name = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(name);
+				labels.put(address, new String(name, StandardCharsets.UTF_8));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException(filename + ": truncated label table");
+		}
+		return new Program(opcodes, reg1, reg2, reg3, imm, labels);
+	}
+}
@@ -0,0 +1,38 @@
+package com.unibo.ci.svm;
+
+/**
+ * Registers of the SVM, the ordinal is the index in the register file.
+ */
+public enum Register {
+	A0("$a0"), // results in the accumulator
+	T1("$t1"), // tmp register
+	SP("$sp"), // top of the stack
+	FP("$fp"), // points to al relative to the active frame
+	AL("$al"), // static chain for scopes
+	RA("$ra"), // return address
+	HP("$hp"), // pointer for the heap
+	CL("$cl"); // control link
+
+	public static final int COUNT = values().length;
+
+	private final String name;
+
+	Register(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name register name as written in the assembly (es. $sp)
+	 * @return index in the register file
+	 */
+	public static int indexOf(String name) {
+		for (Register r : values())
+			if (r.name.equals(name))
+				return r.ordinal();
+		throw new IllegalArgumentException("Unknown register: " + name);
+	}
+}
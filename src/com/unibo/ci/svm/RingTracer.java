@@ -0,0 +1,111 @@
+package com.unibo.ci.svm;
+
+import java.io.PrintStream;
+
+/**
+ * Keeps the last events of the execution in preallocated arrays, older
+ * events are overwritten. Nothing is printed until {@link #dump}.
+ */
+public class RingTracer implements ExecutionListener {
+	private static final byte INSTRUCTION = 0, WRITE = 1, CALL = 2, RETURN = 3, ALLOC = 4, FREE = 5, FAULT = 6;
+
+	private final Program program;
+	private final byte[] kind;
+	private final int[] pc;
+	private final int[] arg1;
+	private final int[] arg2;
+	private long count = 0; // events since the start
+
+	public RingTracer(Program program, int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.program = program;
+		kind = new byte[capacity];
+		pc = new int[capacity];
+		arg1 = new int[capacity];
+		arg2 = new int[capacity];
+	}
+
+	private void record(byte k, int at, int a, int b) {
+		int i = (int) (count++ % kind.length);
+		kind[i] = k;
+		pc[i] = at;
+		arg1[i] = a;
+		arg2[i] = b;
+	}
+
+	@Override
+	public void instruction(int pc) {
+		record(INSTRUCTION, pc, 0, 0);
+	}
+
+	@Override
+	public void memoryWrite(int pc, int address, int value) {
+		record(WRITE, pc, address, value);
+	}
+
+	@Override
+	public void call(int pc, int target) {
+		record(CALL, pc, target, 0);
+	}
+
+	@Override
+	public void returned(int pc, int target) {
+		record(RETURN, pc, target, 0);
+	}
+
+	@Override
+	public void allocated(int pc, int address) {
+		record(ALLOC, pc, address, 0);
+	}
+
+	@Override
+	public void freed(int pc, int address) {
+		record(FREE, pc, address, 0);
+	}
+
+	@Override
+	public void fault(int pc) {
+		record(FAULT, pc, 0, 0);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Prints the recorded events, oldest first.
+	 */
+	public void dump(PrintStream out) {
+		long first = Math.max(0, count - kind.length);
+		out.println("Last " + (count - first) + " of " + count + " events");
+		for (long n = first; n < count; n++) {
+			int i = (int) (n % kind.length);
+			out.println(String.format("  %6d  %s", pc[i], describe(i)));
+		}
+	}
+
+	private String describe(int i) {
+		switch (kind[i]) {
+			case INSTRUCTION:
+				return program.getInstruction(pc[i]).toAssembly();
+			case WRITE:
+				return "  write " + arg2[i] + " at " + arg1[i];
+			case CALL:
+				return "  call " + label(arg1[i]);
+			case RETURN:
+				return "  return to " + arg1[i];
+			case ALLOC:
+				return "  alloc " + arg1[i];
+			case FREE:
+				return "  free " + arg1[i];
+			default:
+				return program.getInstruction(pc[i]).toAssembly() + "  <- fault";
+		}
+	}
+
+	private String label(int address) {
+		String label = program.getLabel(address);
+		return label != null ? label + " (" + address + ")" : Integer.toString(address);
+	}
+}
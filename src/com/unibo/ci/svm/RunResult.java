@@ -0,0 +1,94 @@
+package com.unibo.ci.svm;
+
+/**
+ * How a run ended: halt, a limit of {@link Limits}, the end of a quantum or
+ * an error, with the fuel spent and the address reached.
+ */
+public final class RunResult {
+	public enum Status {
+		HALTED("Halted"),
+		FUEL_LIMIT("Fuel limit reached"),
+		STACK_LIMIT("Stack limit reached"),
+		HEAP_LIMIT("Heap limit reached"),
+		TIME_LIMIT("Time limit reached"),
+		SUSPENDED("Suspended"),
+		FAULT("Error");
+
+		private final String description;
+
+		Status(String description) {
+			this.description = description;
+		}
+	}
+
+	private final Status status;
+	private final long fuel;
+	private final int pc;
+	private final String location;
+	private final String message;
+
+	RunResult(Status status, long fuel, int pc, String location, String message) {
+		this.status = status;
+		this.fuel = fuel;
+		this.pc = pc;
+		this.location = location;
+		this.message = message;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return true if the program reached halt
+	 */
+	public boolean isHalted() {
+		return status == Status.HALTED;
+	}
+
+	/**
+	 * @return true if the run stopped at the end of its quantum and can go on,
+	 *         see {@link SVM#run(long)}
+	 */
+	public boolean isSuspended() {
+		return status == Status.SUSPENDED;
+	}
+
+	/**
+	 * @return the fuel spent by the run: every taken backward branch counts
+	 *         the instructions of its loop and every call the instructions of
+	 *         the function, so the number estimates the instructions executed
+	 *         but is 0 for a program without loops and calls
+	 */
+	public long getFuel() {
+		return fuel;
+	}
+
+	/**
+	 * @return address of the instruction reached: the next one to execute
+	 *         after a limit, the failing one after an error
+	 */
+	public int getPc() {
+		return pc;
+	}
+
+	/**
+	 * @return the address as label+offset, null if no label precedes it
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return the error message, null if the run did not fail
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return (message != null ? message : status.description + " at " + pc
+				+ (location != null ? " (" + location + ")" : "")) + " after " + fuel + " fuel";
+	}
+}
@@ -1,257 +1,1018 @@
 package com.unibo.ci.svm;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
-import com.unibo.ci.util.GlobalConfig;
 
 public class SVM {
 	private final static Logger LOGGER = Logger.getLogger(SVM.class.getCanonicalName());
+
+	private static final int A0 = Register.A0.ordinal();
+	private static final int T1 = Register.T1.ordinal();
+	private static final int SP = Register.SP.ordinal();
+	private static final int FP = Register.FP.ordinal();
+	private static final int RA = Register.RA.ordinal();
+	private static final int HP = Register.HP.ordinal();
+	private static final int CL = Register.CL.ordinal();
+
+	public static final String DEFAULT_ENGINE = "switch";
+
+	private static final long SLICE = 1 << 20; // fuel between two looks at the clock and at the output
+
 	private final int memSize; // heap + stack
 
-	private final List<Instruction> code;
-	private final MemoryCell[] memory;
+	private final Program program;
+	private OutputSink output;
+	private final Memory memory;
+	private final HeapAllocator heap;
+	private MarkSweepCollector collector = null;
+	private int guard = 1; // $sp must stay above, heap top + 1 or the stack floor
+	private int heapMark = 0; // cells written below the guard are below the mark
+	private int stackMark; // cells written from the guard on are from the mark on
 
 	private int ip = 0;
-	private HashMap<String, Integer> registers;
+	private final int[] registers = new int[Register.COUNT];
+	private String engine = DEFAULT_ENGINE;
+	private int jitThreshold = TieredCode.DEFAULT_THRESHOLD;
+	private boolean memoryDump = false;
+	private ExecutionListener listener = null;
+	private MemoryDump dump = null; // created by the first dump
+	private String checkpoint = null;
+	private long checkpointFuel;
+	private long nextCheckpoint = Long.MAX_VALUE; // fuel spent at the next checkpoint
+
+	private long maxFuel = Long.MAX_VALUE;
+	private int stackFloor = Integer.MIN_VALUE; // lowest $sp of the stack limit - 1
+	private int heapLimit = Integer.MAX_VALUE;
+	private long timeLimit = 0; // ms
+	private long fuel; // left in the current slice, spent by the engines
+	private long spent = 0; // fuel of the slices before the current one
+	private long deadline = 0; // System.nanoTime() of the time limit, 0 for none
+	private boolean suspended = false; // the last run stopped at the end of its quantum
+	private int faultPc = -1;
 
 	public SVM(int memSize, List<Instruction> code) {
+		this(memSize, Program.load(code));
+	}
+
+	public SVM(int memSize, Program program) {
+		this(memSize, program, new BufferedOutputSink(System.out));
+	}
+
+	public SVM(int memSize, Program program, OutputSink output) {
+		this(memSize, Memory.AUTO, program, output);
+	}
+
+	/**
+	 * @param memory backend of the memory, see {@link Limits#withMemory}
+	 */
+	public SVM(int memSize, String memory, Program program, OutputSink output) {
 		this.memSize = memSize;
-		this.code = code;
+		this.program = program;
+		this.output = output;
+
+		this.memory = Memory.create(memSize, memory);
+		heap = new HeapAllocator();
+		stackMark = memSize;
+
+		registers[SP] = memSize;
+		registers[CL] = memSize;
+		registers[FP] = memSize - 1;
+		registers[HP] = 0;
+	}
+
+	/**
+	 * SVM resumed from a checkpoint, see {@link #restore}.
+	 */
+	SVM(Program program, OutputSink output, Memory memory, HeapAllocator heap, int[] registers, int ip) {
+		this.memSize = memory.size();
+		this.program = program;
+		this.output = output;
+		this.memory = memory;
+		this.heap = heap;
+		System.arraycopy(registers, 0, this.registers, 0, Register.COUNT);
+		this.ip = ip;
+		guard = heap.getTop() + 1;
+		// the restored cells are the heap up to its top and the stack
+		heapMark = heap.getTop();
+		stackMark = memory.nextInitialized(heapMark);
+	}
+
+	/**
+	 * Sets the limits of the following runs, the memory size of the limits is
+	 * ignored. The fuel counts from the start of the SVM (or from its
+	 * last {@link #reset}), so a run stopped by the limit can go on with a
+	 * higher one; the time counts from the start of each run, the time
+	 * suspended included, see {@link #run(long)}.
+	 */
+	public void setLimits(Limits limits) {
+		maxFuel = limits.getMaxFuel();
+		stackFloor = (int) Math.max(Integer.MIN_VALUE, (long) memSize - limits.getMaxStackDepth() - 1);
+		heapLimit = limits.getMaxHeapCells();
+		timeLimit = limits.getTimeLimit();
+		guard = Math.max(heap.getTop() + 1, stackFloor);
+	}
+
+	/**
+	 * Resumes the execution saved by {@link #checkpoint(String)}. The memory
+	 * is mapped from the file whatever the memory backend.
+	 *
+	 * @throws IOException if the file cannot be read, is not a checkpoint or
+	 *                     belongs to another program
+	 */
+	public static SVM restore(String filename, Program program, OutputSink output) throws IOException {
+		return Checkpoint.read(filename, program, output);
+	}
+
+	/**
+	 * Saves registers, the initialized memory and the heap, the output is
+	 * flushed first.
+	 */
+	public void checkpoint(String filename) throws IOException {
+		output.flush();
+		Checkpoint.write(filename, program, memory, heap, registers, ip);
+	}
 
-		memory = new MemoryCell[memSize];
-		for (int i = 0; i < memSize; i++) {
-			memory[i] = new MemoryCell();
+	/**
+	 * Saves a checkpoint every given millions of units of fuel, null to stop,
+	 * see {@link RunResult#getFuel()}.
+	 */
+	public void setCheckpoints(String filename, long millionFuel) {
+		this.checkpoint = filename;
+		this.checkpointFuel = Math.max(1, millionFuel) * 1_000_000;
+		nextCheckpoint = filename != null ? spent + checkpointFuel : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Brings the SVM back to the state of a new one writing to the given
+	 * output: registers and heap start again, engine, JIT threshold, memory
+	 * dumps, listener, collection, checkpoints and limits go back to the
+	 * defaults.
+	 *
+	 * Only the cells written since the start are forgotten: {@link #store}
+	 * keeps the highest cell written below the guard and the lowest one
+	 * written from the guard on, and the memory is cleared from 0 to the
+	 * first and from the second to the end.
+	 */
+	public void reset(OutputSink output) {
+		memory.clear(0, heapMark);
+		memory.clear(stackMark, memSize);
+		heapMark = 0;
+		stackMark = memSize;
+		heap.reset();
+		Arrays.fill(registers, 0);
+		registers[SP] = memSize;
+		registers[CL] = memSize;
+		registers[FP] = memSize - 1;
+		ip = 0;
+		guard = 1;
+		this.output = output;
+		engine = DEFAULT_ENGINE;
+		jitThreshold = TieredCode.DEFAULT_THRESHOLD;
+		memoryDump = false;
+		collector = null;
+		listener = null;
+		dump = null;
+		checkpoint = null;
+		nextCheckpoint = Long.MAX_VALUE;
+		maxFuel = Long.MAX_VALUE;
+		stackFloor = Integer.MIN_VALUE;
+		heapLimit = Integer.MAX_VALUE;
+		timeLimit = 0;
+		spent = 0;
+		suspended = false;
+	}
+
+	void setOutput(OutputSink output) {
+		this.output = output;
+	}
+
+	public Program getProgram() {
+		return program;
+	}
+
+	public int getMemorySize() {
+		return memSize;
+	}
+
+	boolean isInitialized(int address) {
+		return memory.isInitialized(address);
+	}
+
+	/**
+	 * Reads a cell without any check, see {@link #isInitialized(int)}.
+	 */
+	int read(int address) {
+		return memory.read(address);
+	}
+
+	int load(int address, int pc) throws MemoryAccessException {
+		if (!isInitialized(address))
+			throw invalidAccess(pc);
+		return memory.read(address);
+	}
+
+	void store(int address, int value) throws MemoryAccessException {
+		if (address < 0 || address >= memSize)
+			throw new MemoryAccessException();
+		if (address >= guard) {
+			if (address < stackMark)
+				stackMark = address;
+		} else if (address >= heapMark)
+			heapMark = address + 1;
+		memory.write(address, value);
+	}
+
+	/**
+	 * Stores the value in a new heap cell, $hp follows the top of the heap
+	 * and the heap cannot reach the cell below $sp nor the heap limit.
+	 *
+	 * @return address of the cell
+	 */
+	int allocate(int value, int pc) throws MemoryAccessException {
+		if (collector != null && heap.needsCollection())
+			collector.collect(memory, registers);
+		int limit = Math.min(registers[SP] - 2, heapLimit);
+		int address = heap.allocate(limit);
+		if (address < 0 && collector != null
+				&& collector.collect(memory, registers) > 0)
+			address = heap.allocate(limit);
+		if (address < 0)
+			throw limit == heapLimit ? limitExceeded(RunResult.Status.HEAP_LIMIT, pc) : heapExhausted(pc);
+		store(address, value);
+		registers[HP] = heap.getTop();
+		guard = Math.max(registers[HP] + 1, stackFloor);
+		return address;
+	}
+
+	void free(int address) throws MemoryAccessException {
+		if (address < 0 || address >= memSize)
+			throw new MemoryAccessException();
+		heap.free(address);
+	}
+
+	/**
+	 * Static link walk of the LINK and LOAD_VAR superinstructions: copies base
+	 * in link and follows the link depth times.
+	 */
+	void walkLinks(int[] regs, int link, int base, int depth, int pc) throws MemoryAccessException {
+		regs[link] = regs[base];
+		for (int k = 1; k <= depth; k++)
+			regs[link] = load(regs[link], pc + k);
+	}
+
+	/**
+	 * Superinstruction for the prologue of a call, checks the collision after
+	 * every push as if the instructions were executed one by one.
+	 */
+	void callPrologue(int[] regs, int pc) throws MemoryAccessException {
+		if (--regs[SP] <= guard)
+			throw stackOverflow(pc);
+		store(regs[SP], regs[FP]);
+		if (--regs[SP] <= guard)
+			throw stackOverflow(pc + 1);
+		store(regs[SP], regs[SP]);
+		regs[CL] = regs[SP];
+		regs[T1] = regs[CL] + 2;
+		store(regs[CL], regs[T1]);
+		if (--regs[SP] <= guard)
+			throw stackOverflow(pc + 5);
+	}
+
+	/**
+	 * Executes an instruction that writes $sp, see {@link Opcode#SET_SP}.
+	 */
+	void setStackPointer(int[] regs, int pc) throws MemoryAccessException {
+		final int r2 = program.reg2[pc], r3 = program.reg3[pc], imm = program.imm[pc];
+		int sp;
+		switch (program.opcodes[pc]) {
+			case LW:
+				sp = load(regs[r2] + imm, pc);
+				break;
+			case LI:
+				sp = imm;
+				break;
+			case MV:
+				sp = regs[r2];
+				break;
+			case NOT:
+				sp = regs[r2] == 1 ? 0 : 1;
+				break;
+			case ADD:
+				sp = regs[r2] + regs[r3];
+				break;
+			case SUB:
+				sp = regs[r2] - regs[r3];
+				break;
+			case MUL:
+				sp = regs[r2] * regs[r3];
+				break;
+			case DIV:
+				if (regs[r3] == 0)
+					throw divisionByZero(pc);
+				sp = regs[r2] / regs[r3];
+				break;
+			case AND:
+				sp = (regs[r2] == 1 && regs[r3] == 1) ? 1 : 0;
+				break;
+			case OR:
+				sp = (regs[r2] == 1 || regs[r3] == 1) ? 1 : 0;
+				break;
+			case ADDI:
+				sp = regs[r2] + imm;
+				break;
+			case SUBI:
+				sp = regs[r2] - imm;
+				break;
+			case MULI:
+				sp = regs[r2] * imm;
+				break;
+			case DIVI:
+				if (imm == 0)
+					throw divisionByZero(pc);
+				sp = regs[r2] / imm;
+				break;
+			default:
+				throw new IllegalStateException("Not a write of $sp at " + pc);
+		}
+		regs[SP] = sp;
+		if (sp <= guard)
+			throw stackOverflow(pc);
+	}
+
+	/**
+	 * @return the lowest value of $sp that is not allowed
+	 */
+	int getGuard() {
+		return guard;
+	}
+
+	void print(int value) {
+		output.printInt(value);
+	}
+
+	void printChar(int value, int pc) throws MemoryAccessException {
+		if (!Character.isValidCodePoint(value)) {
+			dumpOnError(pc);
+			throw new InvalidCharacter(value, describe(pc));
+		}
+		output.printChar(value);
+	}
+
+	/**
+	 * Spends fuel, see {@link Program#cost}.
+	 *
+	 * @return false if the fuel is over and the engine has to stop
+	 */
+	boolean consume(int cost) {
+		return (fuel -= cost) > 0;
+	}
+
+	/**
+	 * Stops an engine without fuel, the run goes on from ip.
+	 *
+	 * @return {@link CompiledCode#PAUSED}
+	 */
+	int pause(int ip) {
+		this.ip = ip;
+		return CompiledCode.PAUSED;
+	}
+
+	MemoryAccessException stackOverflow(int pc) {
+		if (guard == stackFloor)
+			return limitExceeded(RunResult.Status.STACK_LIMIT, pc);
+		dumpOnError(pc);
+		return new StackOverflow(describe(pc));
+	}
+
+	MemoryAccessException heapExhausted(int pc) {
+		dumpOnError(pc);
+		return new HeapExhausted(describe(pc));
+	}
+
+	MemoryAccessException divisionByZero(int pc) {
+		dumpOnError(pc);
+		return new DivisionByZero(describe(pc));
+	}
+
+	/**
+	 * Target of a jr: it must be an instruction of the program, a negative
+	 * address would reach the run loops as a halt or a pause. A jr back to
+	 * the target or before it costs fuel like a backward branch, see
+	 * {@link Program#cost}.
+	 */
+	int jumpTarget(int target, int pc) throws MemoryAccessException {
+		if (target < 0 || target >= program.size()) {
+			dumpOnError(pc);
+			throw new MemoryAccessException("Invalid jump to " + target + " at " + describe(pc));
 		}
+		return target;
+	}
 
-		registers = new HashMap<>();
-		registers.put("$sp", memSize);
-		registers.put("$cl", memSize);
-		registers.put("$fp", memSize - 1);
-		registers.put("$hp", 0);
-		registers.put("$ra", null);
-		registers.put("$al", null);
-		registers.put("$a0", null);
-		registers.put("$t1", null);
+	private MemoryAccessException limitExceeded(RunResult.Status status, int pc) {
+		faultPc = pc;
+		return new LimitExceeded(status, pc);
+	}
+
+	private void dumpOnError(int pc) {
+		faultPc = pc;
+		if (memoryDump) {
+			output.flush();
+			this.ip = pc;
+			printMemory(pc);
+		}
+	}
+
+	private String describe(int pc) {
+		String location = program.getLocation(pc);
+		return pc + ": " + program.getInstruction(pc).toAssembly() + (location != null ? " (" + location + ")" : "");
+	}
+
+	MemoryAccessException invalidAccess(int pc) {
+		faultPc = pc;
+		if (memoryDump) {
+			output.flush();
+			this.ip = pc + 1;
+			printMemory(pc);
+		}
+		return new MemoryAccessException();
+	}
+
+	void halt(int pc) {
+		this.ip = pc + 1;
+		output.flush();
+		if (memoryDump && !(listener instanceof DebugPrinter)) // it has printed every step
+			printMemory(pc);
+	}
+
+	/**
+	 * Runs the program until halt or until a limit, see {@link #setLimits}.
+	 * The output is flushed also when the execution stops with an error.
+	 *
+	 * @return halted or the limit reached, with the instruction where the
+	 *         run stopped
+	 * @throws MemoryAccessException if the program fails
+	 */
+	public RunResult run() throws MemoryAccessException {
+		return run(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs the program for a quantum of fuel at most, counted as the
+	 * limits count them. At the end of the quantum the run is suspended: the
+	 * result has status {@link RunResult.Status#SUSPENDED} and the next call
+	 * goes on from the same instruction, on any thread.
+	 *
+	 * @see #run()
+	 */
+	public RunResult run(long quantum) throws MemoryAccessException {
+		faultPc = -1;
+		if (!suspended)
+			deadline = timeLimit > 0 ? System.nanoTime() + timeLimit * 1_000_000 : 0;
+		RunResult.Status status = RunResult.Status.FAULT;
+		try {
+			status = execute(quantum);
+			return result(status, ip - (status == RunResult.Status.HALTED ? 1 : 0), null);
+		} catch (LimitExceeded e) {
+			status = e.status;
+			return result(e.status, e.pc, null);
+		} finally {
+			suspended = status == RunResult.Status.SUSPENDED;
+			output.flush();
+		}
+	}
 
+	/**
+	 * @return the result of a run that failed with the given exception, at
+	 *         the instruction that raised it if known
+	 */
+	RunResult failure(MemoryAccessException e) {
+		return result(RunResult.Status.FAULT, faultPc, e.getMessage());
 	}
 
-	private int getFirstHeapMemoryCell() {
-		int i = 0;
-		while (!memory[i].isFree())
-			i++;
-		return i;
+	private RunResult result(RunResult.Status status, int pc, String message) {
+		return new RunResult(status, spent, pc, pc >= 0 ? program.getLocation(pc) : null, message);
 	}
 
-	public void run() throws MemoryAccessException {
+	/**
+	 * @param engine switch, threaded, aot or tiered, {@link #DEFAULT_ENGINE}
+	 *               if not set
+	 */
+	public void setEngine(String engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Calls of a function before the tiered engine compiles it. The counters
+	 * belong to the program, so the threshold is the one of the first tiered
+	 * run of the program.
+	 */
+	public void setJitThreshold(int calls) {
+		this.jitThreshold = calls;
+	}
+
+	/**
+	 * Prints registers and memory on stderr when the program halts or fails.
+	 */
+	public void setMemoryDump(boolean enabled) {
+		this.memoryDump = enabled;
+	}
+
+	/**
+	 * Enables the collection of the unreachable heap cells when the heap is
+	 * full, see {@link MarkSweepCollector}.
+	 */
+	public void setGarbageCollection(boolean enabled) {
+		collector = enabled ? new MarkSweepCollector(heap) : null;
+	}
+
+	/**
+	 * Attaches a listener to the execution, null to remove it. With a
+	 * listener the program always runs on the tracing interpreter, whatever
+	 * the engine.
+	 */
+	public void setListener(ExecutionListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return a listener printing the registers and the cells written by
+	 *         every instruction, the whole heap and stack only the first time
+	 */
+	public ExecutionListener debugPrinter() {
+		return new DebugPrinter();
+	}
+
+	private final class DebugPrinter implements ExecutionListener {
+		@Override
+		public void memoryWrite(int pc, int address, int value) {
+			dump().written(address);
+		}
+
+		@Override
+		public void instruction(int pc) {
+			if (program.getOpcode(pc) == Opcode.HALT)
+				return;
+			dump().changes(program.getInstruction(pc).toString(), ip, registers, memory, heap.getTop());
+		}
+	}
+
+	/**
+	 * Runs the engine in slices of fuel: between two slices the SVM checks
+	 * the instruction limit, the quantum, the clock and the checkpoints, and
+	 * lets the output flush what it has kept too long, so the engines only
+	 * spend fuel on the backward jumps and on the calls.
+	 */
+	private RunResult.Status execute(long quantum) throws MemoryAccessException {
+		long end = quantum < Long.MAX_VALUE - spent ? spent + quantum : Long.MAX_VALUE;
 		while (true) {
-			if (registers.get("$hp") + 1 >= registers.get("$sp")) {
-				if(GlobalConfig.SHOW_MEM){
-					LOGGER.severe("Accessing a not initialized memory cell");
-					printMemory();
+			if (spent >= maxFuel)
+				return RunResult.Status.FUEL_LIMIT;
+			if (spent >= end)
+				return RunResult.Status.SUSPENDED;
+			long slice = Math.min(Math.min(Math.min(maxFuel, nextCheckpoint), end) - spent, SLICE);
+			fuel = slice;
+			boolean halted;
+			try {
+				halted = listener != null ? trace(listener) : runEngine();
+			} finally {
+				spent += slice - fuel;
+			}
+			if (halted)
+				return RunResult.Status.HALTED;
+			output.poll();
+			if (deadline != 0 && System.nanoTime() - deadline >= 0)
+				return RunResult.Status.TIME_LIMIT;
+			if (spent >= nextCheckpoint) {
+				try {
+					checkpoint(checkpoint);
+				} catch (IOException e) {
+					LOGGER.severe("Error writing checkpoint [" + checkpoint + "]: " + e.getMessage());
 				}
-				throw new MemoryAccessException();
-			} else {
-				Instruction bytecode = code.get(ip);
-				ip++;
-				String arg1 = bytecode.getArg1();
-				String arg2 = bytecode.getArg2();
-				String arg3 = bytecode.getArg3();
-				int offset = bytecode.getOffset();
-				switch (bytecode.getInstruction()) {
-					case "push":
-						registers.put("$sp", registers.get("$sp") - 1);
-						memory[registers.get("$sp")].setData(registers.get(arg1));
-						break;
-					case "pop":
-						registers.put("$sp", registers.get("$sp") + 1);
-
-						break;
-					case "lw":
-						// pop the value x on top of the stack and push MEMORY[x]
-						int address;
-						try {
-							address = memory[registers.get(arg2) + offset].getData();
-
-						} catch (IndexOutOfBoundsException | NotInitializedVariableException e) {
-							if(GlobalConfig.SHOW_MEM){
-								System.err.println("Instruction: " + bytecode.toString());
-								printMemory();
-							}
-							throw new MemoryAccessException();
-						}
-						registers.put(arg1, address); // lw $r1 offset($r2)
-						break;
-					case "sw":
+				nextCheckpoint = spent + checkpointFuel;
+			}
+		}
+	}
+
+	/**
+	 * @return true after halt, false if the fuel is over
+	 */
+	private boolean runEngine() throws MemoryAccessException {
+		int end;
+		switch (engine) {
+			case "threaded":
+				end = program.getThreadedCode().run(this, registers, ip);
+				break;
+			case "aot":
+				CompiledCode compiled = program.getCompiledCode();
+				if (compiled != null)
+					end = compiled.run(this, registers, ip);
+				else
+					end = program.getThreadedCode().run(this, registers, ip);
+				break;
+			case "tiered":
+				end = program.getTieredCode(jitThreshold).run(this, registers, ip);
+				break;
+			default:
+				return interpret();
+		}
+		return end == CompiledCode.HALTED;
+	}
 
-						if (arg2.equals("$hp")) {
-							int heapMemCell = getFirstHeapMemoryCell();
-							memory[heapMemCell].setData(registers.get(arg1));
-							registers.put("$a0", heapMemCell); // //after sw automatically save the value saved in $a0,
-																// it's essentially needed for pointer initialization
+	/**
+	 * Prints the heap counters and the statistics of the execution engine,
+	 * if it collects any.
+	 */
+	public void printStats(PrintStream out) {
+		out.println(String.format("Memory\n  %-14s %10d\n  %-14s %10d KB", "size", memSize, "committed",
+				memory.getCommitted() / 1024));
+		out.println(String.format("Execution\n  %-14s %10d", "fuel", spent));
+		heap.printStats(out);
+		if (collector != null)
+			collector.printStats(out);
+		if (engine.equals("tiered"))
+			program.getTieredCode(jitThreshold).printStats(out);
+	}
+
+	/**
+	 * @return true after halt, false if the fuel is over
+	 */
+	private boolean interpret() throws MemoryAccessException {
+		final Opcode[] opcodes = program.dispatch;
+		final int[] reg1 = program.reg1;
+		final int[] reg2 = program.reg2;
+		final int[] reg3 = program.reg3;
+		final int[] imm = program.imm;
+		final int[] span = program.span;
+		final int[] cost = program.cost;
+		final int[] regs = registers;
+		final OutputSink output = this.output;
+		int ip = this.ip;
+		long fuel = this.fuel;
+
+		try {
+			while (true) {
+				int pc = ip++;
+				switch (opcodes[pc]) {
+					case PUSH:
+						if (--regs[SP] <= guard)
+							throw stackOverflow(pc);
+						store(regs[SP], regs[reg1[pc]]);
+						break;
+					case POP:
+						regs[SP]++;
+						break;
+					case LW:
+						// lw $r1 offset($r2)
+						regs[reg1[pc]] = load(regs[reg2[pc]] + imm[pc], pc);
+						break;
+					case SW:
+						if (reg2[pc] == HP) {
+							// after sw automatically save the address in $a0,
+							// it's essentially needed for pointer initialization
+							regs[A0] = allocate(regs[reg1[pc]], pc);
 						} else
-							memory[registers.get(arg2) + offset].setData(registers.get(arg1));
+							store(regs[reg2[pc]] + imm[pc], regs[reg1[pc]]);
+						break;
+					case LI:
+						regs[reg1[pc]] = imm[pc];
+						break;
+					case MV:
+						regs[reg1[pc]] = regs[reg2[pc]];
+						break;
+					case ADD:
+						regs[reg1[pc]] = regs[reg2[pc]] + regs[reg3[pc]];
+						break;
+					case SUB:
+						regs[reg1[pc]] = regs[reg2[pc]] - regs[reg3[pc]];
+						break;
+					case MUL:
+						regs[reg1[pc]] = regs[reg2[pc]] * regs[reg3[pc]];
+						break;
+					case DIV:
+						if (regs[reg3[pc]] == 0)
+							throw divisionByZero(pc);
+						regs[reg1[pc]] = regs[reg2[pc]] / regs[reg3[pc]];
+						break;
+					case ADDI:
+						regs[reg1[pc]] = regs[reg2[pc]] + imm[pc];
+						break;
+					case SUBI:
+						regs[reg1[pc]] = regs[reg2[pc]] - imm[pc];
+						break;
+					case MULI:
+						regs[reg1[pc]] = regs[reg2[pc]] * imm[pc];
+						break;
+					case DIVI:
+						if (imm[pc] == 0)
+							throw divisionByZero(pc);
+						regs[reg1[pc]] = regs[reg2[pc]] / imm[pc];
 						break;
-					case "li":
-						registers.put(arg1, Integer.parseInt(arg2));
+					case AND:
+						regs[reg1[pc]] = (regs[reg2[pc]] == 1 && regs[reg3[pc]] == 1) ? 1 : 0;
 						break;
-					case "mv":
-						registers.put(arg1, registers.get(arg2));
+					case OR:
+						regs[reg1[pc]] = (regs[reg2[pc]] == 1 || regs[reg3[pc]] == 1) ? 1 : 0;
 						break;
-					case "add":
-						registers.put(arg1, registers.get(arg2) + registers.get(arg3));
+					case NOT:
+						regs[reg1[pc]] = regs[reg2[pc]] == 1 ? 0 : 1;
 						break;
-					case "sub":
-						registers.put(arg1, registers.get(arg2) - registers.get(arg3));
+					case DEL:
+						free(regs[reg1[pc]]);
 						break;
-					case "mul":
-						registers.put(arg1, registers.get(arg2) * registers.get(arg3));
+					case PRINT:
+						output.printInt(regs[reg1[pc]]);
 						break;
-					case "div":
-						registers.put(arg1, registers.get(arg2) / registers.get(arg3));
+					case PRINTCHAR:
+						printChar(regs[reg1[pc]], pc);
 						break;
-					case "addi":
-						registers.put(arg1, registers.get(arg2) + Integer.parseInt(arg3));
+					case BEQ:
+						if (regs[reg1[pc]] == regs[reg2[pc]]) {
+							ip = imm[pc];
+							if ((fuel -= cost[pc]) <= 0)
+								return false;
+						}
+						break;
+					case BLEQ:
+						if (regs[reg1[pc]] <= regs[reg2[pc]]) {
+							ip = imm[pc];
+							if ((fuel -= cost[pc]) <= 0)
+								return false;
+						}
+						break;
+					case B:
+						ip = imm[pc];
+						if ((fuel -= cost[pc]) <= 0)
+							return false;
+						break;
+					case JAL:
+						regs[RA] = ip;
+						ip = imm[pc];
+						if ((fuel -= cost[pc]) <= 0)
+							return false;
+						break;
+					case JR:
+						ip = jumpTarget(regs[reg1[pc]], pc);
+						if (ip <= pc && (fuel -= pc - ip + 1) <= 0)
+							return false;
+						break;
+					case HALT:
+						halt(pc);
+						return true;
+					case LINK:
+					case LOAD_VAR: {
+						int link = reg1[pc];
+						int last = pc + span[pc] - 1;
+						regs[link] = regs[reg2[pc]];
+						for (ip = pc + 1; ip < last; ip++)
+							regs[link] = load(regs[link], ip);
+						// the last lw follows the link or loads the variable
+						regs[reg1[last]] = load(regs[link] + imm[last], last);
+						ip = last + 1;
+						break;
+					}
+					case POP_INTO:
+						ip = pc + 2;
+						regs[reg1[pc]] = load(regs[SP], pc);
+						regs[SP]++;
+						break;
+					case CALL_PROLOGUE:
+						ip = pc + 6;
+						callPrologue(regs, pc);
+						break;
+					case SET_SP:
+						setStackPointer(regs, pc);
+						break;
+				}
+			}
+		} finally {
+			this.ip = ip;
+			this.fuel = fuel;
+		}
+	}
+
+	/**
+	 * Interpreter loop reporting every event to the listener, it runs the
+	 * plain instructions so that each one is seen.
+	 *
+	 * @return true after halt, false if the fuel is over
+	 */
+	private boolean trace(ExecutionListener listener) throws MemoryAccessException {
+		final Opcode[] opcodes = program.opcodes;
+		final Opcode[] dispatch = program.dispatch;
+		final int[] reg1 = program.reg1;
+		final int[] reg2 = program.reg2;
+		final int[] reg3 = program.reg3;
+		final int[] imm = program.imm;
+		final int[] cost = program.cost;
+		final int[] regs = registers;
+		int ip = this.ip;
+		int pc = ip;
+
+		try {
+			while (true) {
+				pc = ip++;
+				switch (opcodes[pc]) {
+					case PUSH:
+						if (--regs[SP] <= guard)
+							throw stackOverflow(pc);
+						store(regs[SP], regs[reg1[pc]]);
+						listener.memoryWrite(pc, regs[SP], regs[reg1[pc]]);
+						break;
+					case POP:
+						regs[SP]++;
+						break;
+					case LW:
+						regs[reg1[pc]] = load(regs[reg2[pc]] + imm[pc], pc);
+						break;
+					case SW:
+						if (reg2[pc] == HP) {
+							regs[A0] = allocate(regs[reg1[pc]], pc);
+							listener.allocated(pc, regs[A0]);
+							listener.memoryWrite(pc, regs[A0], regs[reg1[pc]]);
+						} else {
+							store(regs[reg2[pc]] + imm[pc], regs[reg1[pc]]);
+							listener.memoryWrite(pc, regs[reg2[pc]] + imm[pc], regs[reg1[pc]]);
+						}
 						break;
-					case "subi":
-						registers.put(arg1, registers.get(arg2) - Integer.parseInt(arg3));
+					case LI:
+						regs[reg1[pc]] = imm[pc];
 						break;
-					case "muli":
-						registers.put(arg1, registers.get(arg2) * Integer.parseInt(arg3));
+					case MV:
+						regs[reg1[pc]] = regs[reg2[pc]];
 						break;
-					case "divi":
-						registers.put(arg1, registers.get(arg2) / Integer.parseInt(arg3));
+					case ADD:
+						regs[reg1[pc]] = regs[reg2[pc]] + regs[reg3[pc]];
 						break;
-					case "and":
-						if (registers.get(arg2) == 1 && registers.get(arg3) == 1)
-							registers.put(arg1, 1);
-						else
-							registers.put(arg1, null);
+					case SUB:
+						regs[reg1[pc]] = regs[reg2[pc]] - regs[reg3[pc]];
 						break;
-					case "or":
-						if (registers.get(arg2) == 1 || registers.get(arg3) == 1)
-							registers.put(arg1, 1);
-						else
-							registers.put(arg1, null);
+					case MUL:
+						regs[reg1[pc]] = regs[reg2[pc]] * regs[reg3[pc]];
 						break;
-					case "not":
-						registers.put(arg1, registers.get(arg2) == 1 ? 0 : 1);
+					case DIV:
+						if (regs[reg3[pc]] == 0)
+							throw divisionByZero(pc);
+						regs[reg1[pc]] = regs[reg2[pc]] / regs[reg3[pc]];
 						break;
-					case "del":
-						memory[registers.get(arg1)].freeCell();
+					case ADDI:
+						regs[reg1[pc]] = regs[reg2[pc]] + imm[pc];
 						break;
-					case "print":
-						System.out.println(registers.get(arg1));
+					case SUBI:
+						regs[reg1[pc]] = regs[reg2[pc]] - imm[pc];
 						break;
-					case "printchar":
-						System.out.println(Character.toChars(registers.get(arg1).intValue()));
+					case MULI:
+						regs[reg1[pc]] = regs[reg2[pc]] * imm[pc];
 						break;
-					case "beq":
-						if (registers.get(arg1) == registers.get(arg2))
-							ip = Integer.parseInt(arg3);
+					case DIVI:
+						if (imm[pc] == 0)
+							throw divisionByZero(pc);
+						regs[reg1[pc]] = regs[reg2[pc]] / imm[pc];
 						break;
-					case "bleq":
-						if (registers.get(arg1) <= registers.get(arg2))
-							ip = Integer.parseInt(arg3);
+					case AND:
+						regs[reg1[pc]] = (regs[reg2[pc]] == 1 && regs[reg3[pc]] == 1) ? 1 : 0;
 						break;
-					case "b":
-						ip = Integer.parseInt(arg1);
+					case OR:
+						regs[reg1[pc]] = (regs[reg2[pc]] == 1 || regs[reg3[pc]] == 1) ? 1 : 0;
 						break;
-					case "jal":
-						registers.put("$ra", ip);
-						ip = Integer.parseInt(arg1);
+					case NOT:
+						regs[reg1[pc]] = regs[reg2[pc]] == 1 ? 0 : 1;
 						break;
-					case "jr":
-						ip = registers.get(arg1);
+					case DEL:
+						free(regs[reg1[pc]]);
+						listener.freed(pc, regs[reg1[pc]]);
 						break;
-					case "halt":
-						if(GlobalConfig.SHOW_MEM && !(GlobalConfig.SHOW_DEBUG)){
-							System.err.println("\nInstruction: " + bytecode.toString());
-							printMemory();
+					case PRINT:
+						output.printInt(regs[reg1[pc]]);
+						break;
+					case PRINTCHAR:
+						printChar(regs[reg1[pc]], pc);
+						break;
+					case BEQ:
+						if (regs[reg1[pc]] == regs[reg2[pc]]) {
+							ip = imm[pc];
+							fuel -= cost[pc];
+						}
+						break;
+					case BLEQ:
+						if (regs[reg1[pc]] <= regs[reg2[pc]]) {
+							ip = imm[pc];
+							fuel -= cost[pc];
 						}
-						return;
+						break;
+					case B:
+						ip = imm[pc];
+						fuel -= cost[pc];
+						break;
+					case JAL:
+						regs[RA] = ip;
+						ip = imm[pc];
+						fuel -= cost[pc];
+						listener.call(pc, ip);
+						break;
+					case JR:
+						ip = jumpTarget(regs[reg1[pc]], pc);
+						if (ip <= pc)
+							fuel -= pc - ip + 1;
+						listener.returned(pc, ip);
+						break;
+					case HALT:
+						halt(pc);
+						listener.instruction(pc);
+						return true;
 					default:
-						System.err.println("Unrecognized instruction: " + bytecode.getInstruction());
-						return;
-				}
-				if(GlobalConfig.SHOW_DEBUG){
-					System.err.println("\nInstruction: " + bytecode.toString());
-					printMemory();
+						throw new IllegalStateException("Superinstruction " + opcodes[pc] + " at " + pc);
 				}
+				if (dispatch[pc] == Opcode.SET_SP && regs[SP] <= guard)
+					throw stackOverflow(pc);
+				this.ip = ip;
+				listener.instruction(pc);
+				if (fuel <= 0)
+					return false;
 			}
+		} catch (MemoryAccessException e) {
+			listener.fault(pc);
+			throw e;
+		} finally {
+			this.ip = ip;
 		}
 	}
 
-	void printMemory(){
-		System.out.println("  -----------------------");
-		System.out.println("  | Registers\t| Value\t|");
-		System.out.println("  -----------------------");
-		System.err.println("  | IP \t\t| " + ip + "\t| ");
-		System.err.println("  | SP \t\t| " + registers.get("$sp") + "\t| ");
-		System.err.println("  | CL \t\t| " + registers.get("$cl") + "\t| ");
-		System.err.println("  | FP \t\t| " + registers.get("$fp") + "\t| ");
-		System.err.println("  | RA \t\t| " + registers.get("$ra") + "\t| ");
-		System.err.println("  | AL \t\t| " + registers.get("$al") + "\t| ");
-		System.err.println("  | A0 \t\t| " + registers.get("$a0") + "\t| ");
-		System.err.println("  | T1 \t\t| " + registers.get("$t1") + "\t| ");
-		System.err.println("  | HP \t\t| " + registers.get("$hp") + "\t| ");
-		System.out.println("  -----------------------");
-		System.err.println("  | Address\t| Value\t| ");
-		System.out.println("  -----------------------");
-		for(int i =0 ; i< memSize; i++ )
-			System.out.println("  | " + i + "\t\t| "+ memory[i].toString() + "\t|");
-		System.out.println("  -----------------------");
+	private MemoryDump dump() {
+		if (dump == null)
+			dump = new MemoryDump(System.err);
+		return dump;
 	}
 
-	public class MemoryAccessException extends Exception {
+	/**
+	 * Prints registers and the initialized cells of heap and stack.
+	 */
+	private void printMemory(int pc) {
+		dump().full(program.getInstruction(pc).toString(), ip, registers, memory, heap.getTop());
 	}
 
-}
-
-class MemoryCell {
-	private Integer data;
-	private boolean isUsed;
+	public class MemoryAccessException extends Exception {
+		public MemoryAccessException() {
+			super("Invalid memory access");
+		}
 
-	public MemoryCell(int data, boolean isUsed) {
-		this.data = data;
-		this.isUsed = isUsed;
+		MemoryAccessException(String message) {
+			super(message);
+		}
 	}
 
-	public MemoryCell() {
-		data = null;
-		isUsed = false;
+	/**
+	 * The stack would reach the heap.
+	 */
+	public class StackOverflow extends MemoryAccessException {
+		StackOverflow(String instruction) {
+			super("Stack overflow at " + instruction);
+		}
 	}
 
-	public int getData() throws NotInitializedVariableException {
-		if (data == null) {
-			throw new NotInitializedVariableException();
-		} else {
-			return data;
+	/**
+	 * No cell left for the heap below the stack.
+	 */
+	public class HeapExhausted extends MemoryAccessException {
+		HeapExhausted(String instruction) {
+			super("Heap exhausted at " + instruction);
 		}
 	}
 
-	public void setData(Integer data) {
-		this.data = data;
-		this.isUsed = true;
+	/**
+	 * Division, or division by an immediate, by zero.
+	 */
+	public class DivisionByZero extends MemoryAccessException {
+		DivisionByZero(String instruction) {
+			super("Division by zero at " + instruction);
+		}
 	}
 
-	public void freeCell() {
-		isUsed = false;
+	/**
+	 * printchar of a value that is not a code point.
+	 */
+	public class InvalidCharacter extends MemoryAccessException {
+		InvalidCharacter(int value, String instruction) {
+			super("Invalid character " + value + " at " + instruction);
+		}
 	}
 
-	public boolean isFree() {
-		return !isUsed;
-	}
+	/**
+	 * A limit of the stack or of the heap, turned into the {@link RunResult}
+	 * of the run.
+	 */
+	private class LimitExceeded extends MemoryAccessException {
+		final RunResult.Status status;
+		final int pc;
 
-	@Override
-	public String toString() {
-		if(data != null)
-			return data.toString();
-		else 
-			return "null";
+		LimitExceeded(RunResult.Status status, int pc) {
+			super(status + " at " + pc);
+			this.status = status;
+			this.pc = pc;
+		}
 	}
 
 }
-
-class NotInitializedVariableException extends Exception {}
\ No newline at end of file
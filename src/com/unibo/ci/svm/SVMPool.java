@@ -0,0 +1,74 @@
+package com.unibo.ci.svm;
+
+import java.util.ArrayDeque;
+
+/**
+ * SVMs of a program kept for the next runs, so a run does not pay for a
+ * new memory: a released SVM is reset, see {@link SVM#reset(OutputSink)},
+ * and handed out again by {@link #acquire(OutputSink)}.
+ *
+ * The pool can be shared by several threads, every SVM is used by one
+ * thread at a time.
+ */
+public final class SVMPool {
+	private final Program program;
+	private final int memSize;
+	private final String memory;
+	private final int capacity;
+	private final ArrayDeque<SVM> idle = new ArrayDeque<>();
+
+	private long created = 0;
+	private long reused = 0;
+
+	/**
+	 * @param memory   backend of the memory, see {@link Limits#withMemory}
+	 * @param capacity SVMs kept when released, the others are dropped
+	 */
+	public SVMPool(Program program, int memSize, String memory, int capacity) {
+		this.program = program;
+		this.memSize = memSize;
+		this.memory = memory;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return an SVM ready to run the program from the start
+	 */
+	public SVM acquire(OutputSink output) {
+		SVM vm;
+		synchronized (this) {
+			vm = idle.poll();
+			if (vm == null) {
+				created++;
+			} else {
+				reused++;
+			}
+		}
+		if (vm == null)
+			return new SVM(memSize, memory, program, output);
+		vm.setOutput(output);
+		return vm;
+	}
+
+	/**
+	 * Resets the SVM and keeps it for the next run, the caller must not use
+	 * it anymore.
+	 */
+	public void release(SVM vm) {
+		if (vm.getProgram() != program || vm.getMemorySize() != memSize)
+			throw new IllegalArgumentException("SVM of another pool");
+		vm.reset(null);
+		synchronized (this) {
+			if (idle.size() < capacity)
+				idle.push(vm);
+		}
+	}
+
+	public synchronized long getCreated() {
+		return created;
+	}
+
+	public synchronized long getReused() {
+		return reused;
+	}
+}
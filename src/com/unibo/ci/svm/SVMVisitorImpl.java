@@ -3,6 +3,7 @@ package com.unibo.ci.svm;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.unibo.ci.svm.lexer.SVMBaseVisitor;
 import com.unibo.ci.svm.lexer.SVMParser;
@@ -16,12 +17,21 @@ public class SVMVisitorImpl extends SVMBaseVisitor<Void> {
         return code;
     }
 
+    /**
+     * @return address of each label
+     */
+    public Map<String, Integer> getLabels() {
+        return labelAdd;
+    }
+
     @Override
     public Void visitAssembly(SVMParser.AssemblyContext ctx) {
         visitChildren(ctx);
         for (Integer labelInt : labelRef.keySet()) {
 
             String labelString = labelRef.get(labelInt);
+            if (!labelAdd.containsKey(labelString))
+                throw new IllegalArgumentException("Undefined label " + labelString + " at " + labelInt);
             Instruction instr = code.get(labelInt);
             if (instr.getInstruction().equals("beq") || instr.getInstruction().equals("bleq")) {
                 code.set(labelInt, new Instruction(instr.getInstruction(), instr.getArg1(), 0, instr.getArg2(),
@@ -0,0 +1,247 @@
+package com.unibo.ci.svm;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many executions on a fixed number of threads, a quantum of fuel
+ * at a time (see {@link SVM#run(long)}): a short program ends
+ * in its first quanta also when long ones are running, and an execution
+ * takes a thread only while it runs.
+ *
+ * The next quantum goes to the job that has received the least fuel
+ * weighted by its priority (stride scheduling): jobs with the same priority
+ * take turns, a job of priority 2p receives twice the fuel of one
+ * of priority p, and a new or resumed job starts from the current share,
+ * so that it neither waits for the others nor takes their turns.
+ */
+public final class Scheduler implements AutoCloseable {
+	public static final int MIN_PRIORITY = 1;
+	public static final int NORM_PRIORITY = 5;
+	public static final int MAX_PRIORITY = 10;
+	public static final long DEFAULT_QUANTUM = 1 << 20; // fuel, a few milliseconds
+
+	private final long quantum;
+	private final ThreadPoolExecutor workers;
+	private final AtomicLong tickets = new AtomicLong();
+	private final AtomicLong share = new AtomicLong(); // weighted fuel of the last job started
+
+	private final AtomicLong quanta = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+
+	public Scheduler(int threads) {
+		this(threads, DEFAULT_QUANTUM);
+	}
+
+	/**
+	 * @param threads threads running the executions
+	 * @param quantum fuel spent by a job before the next one, counted
+	 *                as {@link RunResult#getFuel()}
+	 */
+	public Scheduler(int threads, long quantum) {
+		if (threads <= 0 || quantum <= 0)
+			throw new IllegalArgumentException("Threads and quantum must be positive");
+		this.quantum = quantum;
+		AtomicInteger count = new AtomicInteger();
+		workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+				r -> {
+					Thread t = new Thread(r, "svm-worker-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	/**
+	 * Runs the program with normal priority.
+	 */
+	public Job submit(Program program, Limits limits, OutputSink output) {
+		return submit(program.newExecution(limits, output), NORM_PRIORITY);
+	}
+
+	/**
+	 * Runs an execution prepared by the caller, with its engine, listener or
+	 * garbage collection. The scheduler closes it when the job ends.
+	 *
+	 * @param priority from {@link #MIN_PRIORITY} to {@link #MAX_PRIORITY}
+	 */
+	public Job submit(Execution execution, int priority) {
+		if (priority < MIN_PRIORITY || priority > MAX_PRIORITY)
+			throw new IllegalArgumentException("Priority out of range: " + priority);
+		Job job = new Job(execution, priority);
+		job.pass = share.get();
+		queue(job);
+		return job;
+	}
+
+	private void queue(Job job) {
+		job.ticket = tickets.getAndIncrement();
+		try {
+			workers.execute(job);
+		} catch (RejectedExecutionException e) { // closed
+			job.abort();
+		}
+	}
+
+	/**
+	 * @return quanta run and jobs completed since the creation
+	 */
+	public long getQuanta() {
+		return quanta.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Stops the threads, the jobs not finished are cancelled.
+	 */
+	@Override
+	public void close() {
+		for (Runnable r : workers.shutdownNow())
+			((Job) r).abort();
+	}
+
+	private enum State {
+		QUEUED, RUNNING, PARKED, DONE
+	}
+
+	/**
+	 * An execution run by the scheduler. Its result completes when the
+	 * program halts, reaches a limit or fails; cancelling the result stops
+	 * the job at the end of its quantum.
+	 */
+	public final class Job implements Runnable, Comparable<Job> {
+		private final Execution execution;
+		private final int priority;
+		private final CompletableFuture<RunResult> result = new CompletableFuture<>();
+		private State state = State.QUEUED;
+		private boolean suspend = false;
+		private long pass; // fuel received * NORM_PRIORITY / priority
+		private long ticket; // order of the queued jobs with the same pass
+		private long fuel = 0;
+
+		private Job(Execution execution, int priority) {
+			this.execution = execution;
+			this.priority = priority;
+		}
+
+		public CompletableFuture<RunResult> getResult() {
+			return result;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		/**
+		 * Stops the job at the end of its quantum, until {@link #resume()}.
+		 */
+		public synchronized void suspend() {
+			suspend = true;
+		}
+
+		public void resume() {
+			synchronized (this) {
+				suspend = false;
+				if (state != State.PARKED)
+					return;
+				state = State.QUEUED;
+				pass = Math.max(pass, share.get());
+			}
+			queue(this);
+		}
+
+		/**
+		 * @return false if the job had already ended
+		 */
+		public boolean cancel() {
+			boolean cancelled = result.cancel(false);
+			boolean parked;
+			synchronized (this) {
+				// a queued or running job ends at its next turn, see run()
+				parked = state == State.PARKED;
+				if (parked)
+					state = State.DONE;
+			}
+			if (parked)
+				execution.close();
+			return cancelled;
+		}
+
+		/**
+		 * Cancels a job that is neither queued nor running.
+		 */
+		private void abort() {
+			result.cancel(false);
+			finish();
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (state == State.DONE)
+					return;
+				if (result.isDone()) {
+					state = State.DONE;
+					execution.close();
+					return;
+				}
+				if (suspend) {
+					state = State.PARKED;
+					return;
+				}
+				state = State.RUNNING;
+				share.accumulateAndGet(pass, Math::max);
+			}
+			quanta.incrementAndGet();
+			RunResult r;
+			try {
+				r = execution.run(quantum);
+			} catch (RuntimeException e) {
+				finish();
+				result.completeExceptionally(e);
+				return;
+			}
+			if (!r.isSuspended()) {
+				finish();
+				completed.incrementAndGet();
+				result.complete(r);
+				return;
+			}
+			boolean cancelled;
+			synchronized (this) {
+				pass += (r.getFuel() - fuel) * NORM_PRIORITY / priority;
+				fuel = r.getFuel();
+				cancelled = result.isDone();
+				if (!cancelled && suspend) {
+					state = State.PARKED;
+					return;
+				}
+				state = cancelled ? State.DONE : State.QUEUED;
+			}
+			if (cancelled)
+				execution.close();
+			else
+				queue(this);
+		}
+
+		private void finish() {
+			synchronized (this) {
+				state = State.DONE;
+			}
+			execution.close();
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			int c = Long.compare(pass, other.pass);
+			return c != 0 ? c : Long.compare(ticket, other.ticket);
+		}
+	}
+}
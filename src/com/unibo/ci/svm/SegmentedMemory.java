@@ -0,0 +1,117 @@
+package com.unibo.ci.svm;
+
+import java.util.Arrays;
+
+/**
+ * Memory of the SVM, split in chunks of {@link #CHUNK} cells that are
+ * allocated on the first write. The heap grows from the first chunk and
+ * the stack from the last one, so a run only pays for the memory it
+ * touches while the size is just a hard limit.
+ *
+ * An address is translated with a shift for the chunk and a mask for the
+ * cell. Every chunk keeps after its cells the bitmap of the ones written at
+ * least once, so a checked read looks up a single array.
+ */
+final class SegmentedMemory implements Memory {
+	static final int SHIFT = 12;
+	static final int CHUNK = 1 << SHIFT;
+	static final int MASK = CHUNK - 1;
+
+	private static final int[] MISSING = new int[CHUNK + CHUNK / 32]; // shared by the chunks never written
+
+	private final int size;
+	private final int[][] chunks;
+	private int allocated = 0;
+
+	SegmentedMemory(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("Memory size must be positive");
+		this.size = size;
+		chunks = new int[(int) (((long) size + MASK) >>> SHIFT)][];
+		Arrays.fill(chunks, MISSING);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isInitialized(int address) {
+		int chunk = address >>> SHIFT; // too large also for the negative addresses
+		return chunk < chunks.length
+				&& (chunks[chunk][CHUNK + ((address & MASK) >>> 5)] & (1 << address)) != 0;
+	}
+
+	@Override
+	public int read(int address) {
+		return chunks[address >>> SHIFT][address & MASK];
+	}
+
+	// the cells past the size in the last chunk are never written
+	@Override
+	public void write(int address, int value) {
+		int[] c = chunks[address >>> SHIFT];
+		if (c == MISSING)
+			c = allocate(address >>> SHIFT);
+		c[address & MASK] = value;
+		c[CHUNK + ((address & MASK) >>> 5)] |= 1 << address;
+	}
+
+	@Override
+	public int nextInitialized(int from) {
+		return next(from, true);
+	}
+
+	@Override
+	public int nextUninitialized(int from) {
+		return next(from, false);
+	}
+
+	private int next(int from, boolean set) {
+		for (long a = from; a < size; a = (a | MASK) + 1) {
+			int[] c = chunks[(int) (a >>> SHIFT)];
+			if (c == MISSING) {
+				if (set)
+					continue;
+				return (int) a;
+			}
+			for (int w = (int) (a & MASK) >>> 5; w < CHUNK / 32; w++) {
+				int word = set ? c[CHUNK + w] : ~c[CHUNK + w];
+				if (w == (int) (a & MASK) >>> 5)
+					word &= -1 << a;
+				if (word != 0)
+					return (int) Math.min(size, (a & ~MASK) + (w << 5) + Integer.numberOfTrailingZeros(word));
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public void clear(int from, int to) {
+		from = Math.max(from, 0);
+		to = Math.min(to, size);
+		while (from < to) {
+			int[] c = chunks[from >>> SHIFT];
+			int end = (int) Math.min(to, ((long) from | MASK) + 1);
+			if (c != MISSING) {
+				if ((from & MASK) == 0 && end - from == CHUNK)
+					Arrays.fill(c, CHUNK, CHUNK + CHUNK / 32, 0);
+				else
+					for (int a = from; a < end; a++)
+						c[CHUNK + ((a & MASK) >>> 5)] &= ~(1 << a);
+			}
+			from = end;
+		}
+	}
+
+	private int[] allocate(int chunk) {
+		allocated++;
+		return chunks[chunk] = new int[CHUNK + CHUNK / 32];
+	}
+
+	@Override
+	public long getCommitted() {
+		return (long) allocated * (CHUNK + CHUNK / 32) * 4;
+	}
+}
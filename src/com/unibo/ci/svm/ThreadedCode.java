@@ -0,0 +1,664 @@
+package com.unibo.ci.svm;
+
+import com.unibo.ci.svm.SVM.MemoryAccessException;
+
+/**
+ * Call-threaded execution engine. Every instruction of a {@link Program} is
+ * compiled to a handler with its operands bound in final fields; the run
+ * loop only calls the handler at the current address, which returns the
+ * address of the next one.
+ *
+ * Handlers are built from {@link Program#dispatch}, so a superinstruction
+ * is a single handler that jumps over the instructions it covers.
+ */
+final class ThreadedCode {
+	private static final int SP = Register.SP.ordinal();
+	private static final int HP = Register.HP.ordinal();
+	private static final int A0 = Register.A0.ordinal();
+	private static final int RA = Register.RA.ordinal();
+
+	private static final int HALTED = CompiledCode.HALTED;
+
+	private final Handler[] handlers;
+
+	private ThreadedCode(Handler[] handlers) {
+		this.handlers = handlers;
+	}
+
+	static ThreadedCode compile(Program program) {
+		Handler[] handlers = new Handler[program.size()];
+		for (int pc = 0; pc < handlers.length; pc++)
+			handlers[pc] = compile(program, pc);
+		return new ThreadedCode(handlers);
+	}
+
+	private static Handler compile(Program p, int pc) {
+		if (p.dispatch[pc] == Opcode.SET_SP)
+			return new CheckStack(compile(p, pc, p.opcodes[pc]));
+		return compile(p, pc, p.dispatch[pc]);
+	}
+
+	private static Handler compile(Program p, int pc, Opcode op) {
+		int r1 = p.reg1[pc], r2 = p.reg2[pc], r3 = p.reg3[pc], imm = p.imm[pc], span = p.span[pc];
+		int cost = p.cost[pc];
+		switch (op) {
+			case PUSH:
+				return new Push(pc, r1);
+			case POP:
+				return new Pop(pc);
+			case LW:
+				return new Lw(pc, r1, r2, imm);
+			case SW:
+				return r2 == HP ? new Alloc(pc, r1) : new Sw(pc, r1, r2, imm);
+			case LI:
+				return new Li(pc, r1, imm);
+			case MV:
+				return new Mv(pc, r1, r2);
+			case ADD:
+				return new Add(pc, r1, r2, r3);
+			case SUB:
+				return new Sub(pc, r1, r2, r3);
+			case MUL:
+				return new Mul(pc, r1, r2, r3);
+			case DIV:
+				return new Div(pc, r1, r2, r3);
+			case ADDI:
+				return new AddI(pc, r1, r2, imm);
+			case SUBI:
+				return new AddI(pc, r1, r2, -imm);
+			case MULI:
+				return new MulI(pc, r1, r2, imm);
+			case DIVI:
+				return new DivI(pc, r1, r2, imm);
+			case AND:
+				return new And(pc, r1, r2, r3);
+			case OR:
+				return new Or(pc, r1, r2, r3);
+			case NOT:
+				return new Not(pc, r1, r2);
+			case DEL:
+				return new Del(pc, r1);
+			case PRINT:
+				return new Print(pc, r1);
+			case PRINTCHAR:
+				return new PrintChar(pc, r1);
+			case BEQ:
+				return new Beq(pc, r1, r2, imm, cost);
+			case BLEQ:
+				return new Bleq(pc, r1, r2, imm, cost);
+			case B:
+				return new B(pc, imm, cost);
+			case JAL:
+				return new Jal(pc, imm, cost);
+			case JR:
+				return new Jr(pc, r1);
+			case HALT:
+				return new Halt(pc);
+			case LINK:
+				return new Link(pc, r1, r2, span - 1);
+			case LOAD_VAR: {
+				int last = pc + span - 1;
+				return new LoadVar(pc, r1, r2, span - 2, p.reg1[last], p.imm[last]);
+			}
+			case POP_INTO:
+				return new PopInto(pc, r1);
+			case CALL_PROLOGUE:
+				return new CallPrologue(pc);
+			case SET_SP:
+				break;
+		}
+		throw new IllegalStateException("Unhandled opcode " + p.opcodes[pc]);
+	}
+
+	/**
+	 * Runs from the given address until halt or until the fuel of the SVM is
+	 * over.
+	 *
+	 * @return {@link CompiledCode#HALTED} or {@link CompiledCode#PAUSED}
+	 */
+	int run(SVM vm, int[] regs, int ip) throws MemoryAccessException {
+		final Handler[] handlers = this.handlers;
+		while (ip >= 0)
+			ip = handlers[ip].execute(vm, regs);
+		return ip;
+	}
+
+	/**
+	 * Executes the single instruction at ip.
+	 *
+	 * @return the next address to execute, {@link CompiledCode#HALTED} or
+	 *         {@link CompiledCode#PAUSED}
+	 */
+	int step(SVM vm, int[] regs, int ip) throws MemoryAccessException {
+		return handlers[ip].execute(vm, regs);
+	}
+
+	abstract static class Handler {
+		final int pc;
+		final int next;
+
+		Handler(int pc) {
+			this(pc, 1);
+		}
+
+		Handler(int pc, int span) {
+			this.pc = pc;
+			this.next = pc + span;
+		}
+
+		abstract int execute(SVM vm, int[] regs) throws MemoryAccessException;
+	}
+
+	static final class Push extends Handler {
+		private final int r;
+
+		Push(int pc, int r) {
+			super(pc);
+			this.r = r;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			if (--regs[SP] <= vm.getGuard())
+				throw vm.stackOverflow(pc);
+			vm.store(regs[SP], regs[r]);
+			return next;
+		}
+	}
+
+	static final class Pop extends Handler {
+		Pop(int pc) {
+			super(pc);
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[SP]++;
+			return next;
+		}
+	}
+
+	static final class Lw extends Handler {
+		private final int out, in, offset;
+
+		Lw(int pc, int out, int in, int offset) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.offset = offset;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			regs[out] = vm.load(regs[in] + offset, pc);
+			return next;
+		}
+	}
+
+	static final class Sw extends Handler {
+		private final int in, out, offset;
+
+		Sw(int pc, int in, int out, int offset) {
+			super(pc);
+			this.in = in;
+			this.out = out;
+			this.offset = offset;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			vm.store(regs[out] + offset, regs[in]);
+			return next;
+		}
+	}
+
+	/** sw $r 0($hp), the address of the new cell is saved in $a0 */
+	static final class Alloc extends Handler {
+		private final int in;
+
+		Alloc(int pc, int in) {
+			super(pc);
+			this.in = in;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			regs[A0] = vm.allocate(regs[in], pc);
+			return next;
+		}
+	}
+
+	static final class Li extends Handler {
+		private final int out, value;
+
+		Li(int pc, int out, int value) {
+			super(pc);
+			this.out = out;
+			this.value = value;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = value;
+			return next;
+		}
+	}
+
+	static final class Mv extends Handler {
+		private final int out, in;
+
+		Mv(int pc, int out, int in) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = regs[in];
+			return next;
+		}
+	}
+
+	static final class Add extends Handler {
+		private final int out, in, in2;
+
+		Add(int pc, int out, int in, int in2) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.in2 = in2;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = regs[in] + regs[in2];
+			return next;
+		}
+	}
+
+	static final class Sub extends Handler {
+		private final int out, in, in2;
+
+		Sub(int pc, int out, int in, int in2) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.in2 = in2;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = regs[in] - regs[in2];
+			return next;
+		}
+	}
+
+	static final class Mul extends Handler {
+		private final int out, in, in2;
+
+		Mul(int pc, int out, int in, int in2) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.in2 = in2;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = regs[in] * regs[in2];
+			return next;
+		}
+	}
+
+	static final class Div extends Handler {
+		private final int out, in, in2;
+
+		Div(int pc, int out, int in, int in2) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.in2 = in2;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			if (regs[in2] == 0)
+				throw vm.divisionByZero(pc);
+			regs[out] = regs[in] / regs[in2];
+			return next;
+		}
+	}
+
+	/** addi and subi, the immediate of subi is negated at compile time */
+	static final class AddI extends Handler {
+		private final int out, in, value;
+
+		AddI(int pc, int out, int in, int value) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.value = value;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = regs[in] + value;
+			return next;
+		}
+	}
+
+	static final class MulI extends Handler {
+		private final int out, in, value;
+
+		MulI(int pc, int out, int in, int value) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.value = value;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = regs[in] * value;
+			return next;
+		}
+	}
+
+	static final class DivI extends Handler {
+		private final int out, in, value;
+
+		DivI(int pc, int out, int in, int value) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.value = value;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			if (value == 0)
+				throw vm.divisionByZero(pc);
+			regs[out] = regs[in] / value;
+			return next;
+		}
+	}
+
+	static final class And extends Handler {
+		private final int out, in, in2;
+
+		And(int pc, int out, int in, int in2) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.in2 = in2;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = (regs[in] == 1 && regs[in2] == 1) ? 1 : 0;
+			return next;
+		}
+	}
+
+	static final class Or extends Handler {
+		private final int out, in, in2;
+
+		Or(int pc, int out, int in, int in2) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+			this.in2 = in2;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = (regs[in] == 1 || regs[in2] == 1) ? 1 : 0;
+			return next;
+		}
+	}
+
+	static final class Not extends Handler {
+		private final int out, in;
+
+		Not(int pc, int out, int in) {
+			super(pc);
+			this.out = out;
+			this.in = in;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[out] = regs[in] == 1 ? 0 : 1;
+			return next;
+		}
+	}
+
+	static final class Del extends Handler {
+		private final int r;
+
+		Del(int pc, int r) {
+			super(pc);
+			this.r = r;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			vm.free(regs[r]);
+			return next;
+		}
+	}
+
+	static final class Print extends Handler {
+		private final int r;
+
+		Print(int pc, int r) {
+			super(pc);
+			this.r = r;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			vm.print(regs[r]);
+			return next;
+		}
+	}
+
+	static final class PrintChar extends Handler {
+		private final int r;
+
+		PrintChar(int pc, int r) {
+			super(pc);
+			this.r = r;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			vm.printChar(regs[r], pc);
+			return next;
+		}
+	}
+
+	/**
+	 * Taken jump to target, spending the fuel of the jump if it has a cost,
+	 * see {@link Program#cost}.
+	 */
+	private static int jump(SVM vm, int cost, int target) {
+		return cost == 0 || vm.consume(cost) ? target : vm.pause(target);
+	}
+
+	static final class Beq extends Handler {
+		private final int in, in2, target, cost;
+
+		Beq(int pc, int in, int in2, int target, int cost) {
+			super(pc);
+			this.in = in;
+			this.in2 = in2;
+			this.target = target;
+			this.cost = cost;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			return regs[in] == regs[in2] ? jump(vm, cost, target) : next;
+		}
+	}
+
+	static final class Bleq extends Handler {
+		private final int in, in2, target, cost;
+
+		Bleq(int pc, int in, int in2, int target, int cost) {
+			super(pc);
+			this.in = in;
+			this.in2 = in2;
+			this.target = target;
+			this.cost = cost;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			return regs[in] <= regs[in2] ? jump(vm, cost, target) : next;
+		}
+	}
+
+	static final class B extends Handler {
+		private final int target, cost;
+
+		B(int pc, int target, int cost) {
+			super(pc);
+			this.target = target;
+			this.cost = cost;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			return jump(vm, cost, target);
+		}
+	}
+
+	static final class Jal extends Handler {
+		private final int target, cost;
+
+		Jal(int pc, int target, int cost) {
+			super(pc);
+			this.target = target;
+			this.cost = cost;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			regs[RA] = next;
+			return jump(vm, cost, target);
+		}
+	}
+
+	static final class Jr extends Handler {
+		private final int r;
+
+		Jr(int pc, int r) {
+			super(pc);
+			this.r = r;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			int target = vm.jumpTarget(regs[r], pc);
+			return target > pc ? target : jump(vm, pc - target + 1, target);
+		}
+	}
+
+	static final class Halt extends Handler {
+		Halt(int pc) {
+			super(pc);
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) {
+			vm.halt(pc);
+			return HALTED;
+		}
+	}
+
+	static final class Link extends Handler {
+		private final int link, base, depth;
+
+		Link(int pc, int link, int base, int depth) {
+			super(pc, depth + 1);
+			this.link = link;
+			this.base = base;
+			this.depth = depth;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			vm.walkLinks(regs, link, base, depth, pc);
+			return next;
+		}
+	}
+
+	static final class LoadVar extends Handler {
+		private final int link, base, depth, out, offset;
+
+		LoadVar(int pc, int link, int base, int depth, int out, int offset) {
+			super(pc, depth + 2);
+			this.link = link;
+			this.base = base;
+			this.depth = depth;
+			this.out = out;
+			this.offset = offset;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			vm.walkLinks(regs, link, base, depth, pc);
+			regs[out] = vm.load(regs[link] + offset, next - 1);
+			return next;
+		}
+	}
+
+	static final class PopInto extends Handler {
+		private final int out;
+
+		PopInto(int pc, int out) {
+			super(pc, 2);
+			this.out = out;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			regs[out] = vm.load(regs[SP], pc);
+			regs[SP]++;
+			return next;
+		}
+	}
+
+	/** instruction writing $sp, followed by the stack check */
+	static final class CheckStack extends Handler {
+		private final Handler instruction;
+
+		CheckStack(Handler instruction) {
+			super(instruction.pc);
+			this.instruction = instruction;
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			int next = instruction.execute(vm, regs);
+			if (regs[SP] <= vm.getGuard())
+				throw vm.stackOverflow(pc);
+			return next;
+		}
+	}
+
+	static final class CallPrologue extends Handler {
+		CallPrologue(int pc) {
+			super(pc, 6);
+		}
+
+		@Override
+		int execute(SVM vm, int[] regs) throws MemoryAccessException {
+			vm.callPrologue(regs, pc);
+			return next;
+		}
+	}
+}
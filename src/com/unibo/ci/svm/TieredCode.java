@@ -0,0 +1,137 @@
+package com.unibo.ci.svm;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.unibo.ci.svm.SVM.MemoryAccessException;
+
+/**
+ * Tiered execution engine. Code runs on the threaded interpreter and every
+ * entry in a jal target counts an invocation; when a function reaches the
+ * threshold its body is compiled to a JVM class in the background and the
+ * following calls enter the compiled version.
+ *
+ * Counters and compiled functions belong to the program, so they survive
+ * across runs of the same {@link Program}, also of runs on other threads: the
+ * counters are atomic and only the call that reaches the threshold queues
+ * the compilation.
+ */
+final class TieredCode {
+	private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "svm-jit");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static final int DEFAULT_THRESHOLD = 1000;
+
+	enum Tier {
+		INTERPRETED, QUEUED, COMPILED, FAILED
+	}
+
+	private final Program program;
+	private final ThreadedCode threaded;
+	private final int threshold;
+	private final boolean[] isEntry; // targets of jal
+	private final AtomicIntegerArray calls; // interpreted invocations of each function entry
+	private final AtomicReferenceArray<CompiledCode> compiled;
+	private final Map<Integer, FunctionStats> stats = new TreeMap<>();
+
+	TieredCode(Program program, int threshold) {
+		this.program = program;
+		this.threaded = program.getThreadedCode();
+		this.threshold = Math.max(1, threshold);
+		int size = program.size();
+		isEntry = new boolean[size];
+		calls = new AtomicIntegerArray(size);
+		compiled = new AtomicReferenceArray<>(size);
+		for (int pc = 0; pc < size; pc++) {
+			int target = program.imm[pc];
+			if (program.opcodes[pc] == Opcode.JAL && target >= 0 && target < size) {
+				isEntry[target] = true;
+				if (!stats.containsKey(target))
+					stats.put(target, new FunctionStats(target, program.getLabel(target)));
+			}
+		}
+	}
+
+	/**
+	 * @return {@link CompiledCode#HALTED} or {@link CompiledCode#PAUSED}
+	 */
+	int run(SVM vm, int[] regs, int ip) throws MemoryAccessException {
+		final boolean[] isEntry = this.isEntry;
+		while (ip >= 0) {
+			// functions are entered only through jal, also the ones made by compiled code
+			if (isEntry[ip]) {
+				CompiledCode code = compiled.get(ip);
+				if (code != null) {
+					stats.get(ip).compiledCalls.increment();
+					ip = code.enter(vm, regs, ip);
+					continue;
+				}
+				if (calls.incrementAndGet(ip) == threshold)
+					queue(ip);
+			}
+			ip = threaded.step(vm, regs, ip);
+		}
+		return ip;
+	}
+
+	private void queue(int entry) {
+		FunctionStats s = stats.get(entry);
+		s.transition(Tier.QUEUED, calls.get(entry));
+		COMPILER.execute(() -> {
+			long start = System.nanoTime();
+			boolean[] region = program.functionRegion(entry);
+			try {
+				CompiledCode code = JvmCompiler.compileRegion(program, region, entry);
+				s.compileNanos = System.nanoTime() - start;
+				compiled.set(entry, code);
+				s.transition(Tier.COMPILED, calls.get(entry));
+			} catch (IllegalStateException e) {
+				s.transition(Tier.FAILED, calls.get(entry));
+			}
+		});
+	}
+
+	void printStats(PrintStream out) {
+		out.println("Tiered execution (threshold " + threshold + " calls)");
+		out.println(String.format("  %-20s %6s %-12s %12s %12s %11s", "function", "entry", "tier", "interpreted",
+				"compiled", "compile ms"));
+		for (FunctionStats s : stats.values()) {
+			synchronized (s) { // the compiler thread can be moving it to another tier
+				out.println(String.format("  %-20s %6d %-12s %12d %12d %11.2f", s.label, s.entry, s.tier,
+						calls.get(s.entry), s.compiledCalls.sum(), s.compileNanos / 1e6));
+				for (String t : s.transitions)
+					out.println("      " + t);
+			}
+		}
+	}
+
+	private static class FunctionStats {
+		final int entry;
+		final String label;
+		volatile Tier tier = Tier.INTERPRETED;
+		final LongAdder compiledCalls = new LongAdder();
+		volatile long compileNanos = 0;
+		final List<String> transitions = new ArrayList<>();
+
+		FunctionStats(int entry, String label) {
+			this.entry = entry;
+			this.label = label != null ? label : "@" + entry;
+		}
+
+		synchronized void transition(Tier to, int interpretedCalls) {
+			transitions.add(tier + " -> " + to + " after " + interpretedCalls + " calls");
+			tier = to;
+		}
+	}
+}
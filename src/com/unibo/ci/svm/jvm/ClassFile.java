@@ -0,0 +1,165 @@
+package com.unibo.ci.svm.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Minimal class file emitter, it supports only what the SVM compiler needs:
+ * one class with static and instance methods, int constants and method
+ * references.
+ */
+public class ClassFile {
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_PRIVATE = 0x0002;
+	public static final int ACC_PROTECTED = 0x0004;
+	public static final int ACC_STATIC = 0x0008;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+
+	// Java 5 class files are checked by the type inferencing verifier, so no
+	// StackMapTable has to be computed
+	private static final int MAJOR_VERSION = 49;
+
+	private final ConstantPool pool = new ConstantPool();
+	private final String name;
+	private final String superName;
+	private final List<byte[]> methods = new ArrayList<>();
+
+	/**
+	 * @param name      internal name of the class (es. com/unibo/ci/Foo)
+	 * @param superName internal name of the super class
+	 */
+	public ClassFile(String name, String superName) {
+		this.name = name;
+		this.superName = superName;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Code newCode(int maxLocals) {
+		return new Code(pool, maxLocals);
+	}
+
+	public void addMethod(int access, String methodName, String descriptor, Code code) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeShort(access);
+			out.writeShort(pool.utf8(methodName));
+			out.writeShort(pool.utf8(descriptor));
+			out.writeShort(1); // attributes: Code
+			byte[] body = code.toByteArray();
+			out.writeShort(pool.utf8("Code"));
+			out.writeInt(body.length);
+			out.write(body);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		methods.add(bytes.toByteArray());
+	}
+
+	public byte[] toByteArray() {
+		int thisClass = pool.classRef(name);
+		int superClass = pool.classRef(superName);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(MAJOR_VERSION);
+			pool.write(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(methods.size());
+			for (byte[] m : methods)
+				out.write(m);
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Constant pool with deduplication of the entries.
+	 */
+	static class ConstantPool {
+		private static final int UTF8 = 1;
+		private static final int INTEGER = 3;
+		private static final int CLASS = 7;
+		private static final int METHOD_REF = 10;
+		private static final int NAME_AND_TYPE = 12;
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final HashMap<String, Integer> entries = new HashMap<>();
+		private int count = 1;
+
+		private int add(String key, int tag, int a, int b, boolean twoRefs) {
+			Integer index = entries.get(key);
+			if (index != null)
+				return index;
+			try {
+				out.writeByte(tag);
+				if (twoRefs) {
+					out.writeShort(a);
+					out.writeShort(b);
+				} else if (tag == INTEGER) {
+					out.writeInt(a);
+				} else {
+					out.writeShort(a);
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			entries.put(key, count);
+			return count++;
+		}
+
+		int utf8(String value) {
+			String key = "U" + value;
+			Integer index = entries.get(key);
+			if (index != null)
+				return index;
+			try {
+				out.writeByte(UTF8);
+				out.writeUTF(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			entries.put(key, count);
+			return count++;
+		}
+
+		int integer(int value) {
+			return add("I" + value, INTEGER, value, 0, false);
+		}
+
+		int classRef(String internalName) {
+			return add("C" + internalName, CLASS, utf8(internalName), 0, false);
+		}
+
+		int nameAndType(String name, String descriptor) {
+			return add("N" + name + " " + descriptor, NAME_AND_TYPE, utf8(name), utf8(descriptor), true);
+		}
+
+		int methodRef(String owner, String name, String descriptor) {
+			return add("M" + owner + "." + name + descriptor, METHOD_REF, classRef(owner),
+					nameAndType(name, descriptor), true);
+		}
+
+		void write(DataOutputStream dest) throws IOException {
+			if (count > 0xFFFF)
+				throw new IllegalStateException("Constant pool too large");
+			dest.writeShort(count);
+			bytes.writeTo(dest);
+		}
+	}
+}
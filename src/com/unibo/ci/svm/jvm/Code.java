@@ -0,0 +1,335 @@
+package com.unibo.ci.svm.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bytecode buffer of a single method. Branches are emitted against
+ * {@link Label}s and patched when the code is serialized.
+ *
+ * The maximum stack depth is computed linearly, so every label that is
+ * reached by a jump must have the same stack depth as the instruction that
+ * precedes it (empty, after an unconditional jump).
+ */
+public class Code {
+	public static final int ICONST_0 = 0x03;
+	public static final int BIPUSH = 0x10;
+	public static final int SIPUSH = 0x11;
+	public static final int LDC = 0x12;
+	public static final int LDC_W = 0x13;
+	public static final int ILOAD = 0x15;
+	public static final int ALOAD = 0x19;
+	public static final int IALOAD = 0x2e;
+	public static final int ISTORE = 0x36;
+	public static final int ASTORE = 0x3a;
+	public static final int IASTORE = 0x4f;
+	public static final int DUP = 0x59;
+	public static final int IADD = 0x60;
+	public static final int ISUB = 0x64;
+	public static final int IMUL = 0x68;
+	public static final int IDIV = 0x6c;
+	public static final int IINC = 0x84;
+	public static final int IFEQ = 0x99;
+	public static final int IFNE = 0x9a;
+	public static final int IF_ICMPEQ = 0x9f;
+	public static final int IF_ICMPNE = 0xa0;
+	public static final int IF_ICMPLT = 0xa1;
+	public static final int IF_ICMPGE = 0xa2;
+	public static final int IF_ICMPGT = 0xa3;
+	public static final int IF_ICMPLE = 0xa4;
+	public static final int GOTO = 0xa7;
+	public static final int TABLESWITCH = 0xaa;
+	public static final int LOOKUPSWITCH = 0xab;
+	public static final int IRETURN = 0xac;
+	public static final int RETURN = 0xb1;
+	public static final int INVOKEVIRTUAL = 0xb6;
+	public static final int INVOKESPECIAL = 0xb7;
+	public static final int INVOKESTATIC = 0xb8;
+	public static final int ATHROW = 0xbf;
+	private static final int WIDE = 0xc4;
+
+	private final ClassFile.ConstantPool pool;
+	private final int maxLocals;
+	private byte[] code = new byte[256];
+	private int length = 0;
+	private int stack = 0;
+	private int maxStack = 0;
+	private final List<Fixup> fixups = new ArrayList<>();
+	private final List<TryCatch> handlers = new ArrayList<>();
+
+	Code(ClassFile.ConstantPool pool, int maxLocals) {
+		this.pool = pool;
+		this.maxLocals = maxLocals;
+	}
+
+	public int size() {
+		return length;
+	}
+
+	private void u1(int b) {
+		if (length == code.length) {
+			byte[] grown = new byte[code.length * 2];
+			System.arraycopy(code, 0, grown, 0, length);
+			code = grown;
+		}
+		code[length++] = (byte) b;
+	}
+
+	private void u2(int v) {
+		u1(v >>> 8);
+		u1(v);
+	}
+
+	private void u4(int v) {
+		u2(v >>> 16);
+		u2(v);
+	}
+
+	private void adjust(int delta) {
+		stack += delta;
+		if (stack < 0)
+			throw new IllegalStateException("Negative stack depth");
+		maxStack = Math.max(maxStack, stack);
+	}
+
+	/**
+	 * Emits an instruction without operands.
+	 *
+	 * @param opcode     the opcode
+	 * @param stackDelta effect on the operand stack
+	 */
+	public void op(int opcode, int stackDelta) {
+		u1(opcode);
+		adjust(stackDelta);
+		if (opcode == IRETURN || opcode == RETURN || opcode == ATHROW)
+			stack = 0;
+	}
+
+	public void iconst(int value) {
+		if (value >= -1 && value <= 5) {
+			u1(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			u1(BIPUSH);
+			u1(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			u1(SIPUSH);
+			u2(value);
+		} else {
+			int index = pool.integer(value);
+			if (index <= 0xFF) {
+				u1(LDC);
+				u1(index);
+			} else {
+				u1(LDC_W);
+				u2(index);
+			}
+		}
+		adjust(1);
+	}
+
+	private void local(int opcode, int index) {
+		if (index > 0xFF) {
+			u1(WIDE);
+			u1(opcode);
+			u2(index);
+		} else {
+			u1(opcode);
+			u1(index);
+		}
+	}
+
+	public void iload(int index) {
+		local(ILOAD, index);
+		adjust(1);
+	}
+
+	public void aload(int index) {
+		local(ALOAD, index);
+		adjust(1);
+	}
+
+	public void istore(int index) {
+		local(ISTORE, index);
+		adjust(-1);
+	}
+
+	public void astore(int index) {
+		local(ASTORE, index);
+		adjust(-1);
+	}
+
+	public void iinc(int index, int delta) {
+		if (index <= 0xFF && delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+			u1(IINC);
+			u1(index);
+			u1(delta);
+		} else if (delta >= Short.MIN_VALUE && delta <= Short.MAX_VALUE) {
+			u1(WIDE);
+			u1(IINC);
+			u2(index);
+			u2(delta);
+		} else {
+			iload(index);
+			iconst(delta);
+			op(IADD, -1);
+			istore(index);
+		}
+	}
+
+	public void invoke(int opcode, String owner, String name, String descriptor) {
+		u1(opcode);
+		u2(pool.methodRef(owner, name, descriptor));
+		int delta = opcode == INVOKESTATIC ? 0 : -1;
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			delta--;
+			while (descriptor.charAt(i) == '[')
+				i++;
+			i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+		}
+		if (descriptor.charAt(i + 1) != 'V')
+			delta++;
+		adjust(delta);
+	}
+
+	/**
+	 * Emits goto or a conditional branch.
+	 */
+	public void jump(int opcode, Label target) {
+		int position = length;
+		u1(opcode);
+		fixups.add(new Fixup(position, length, target, false));
+		u2(0);
+		if (opcode == GOTO)
+			stack = 0;
+		else if (opcode == IFEQ || opcode == IFNE)
+			adjust(-1);
+		else
+			adjust(-2);
+	}
+
+	public void lookupSwitch(int[] keys, Label[] targets, Label defaultTarget) {
+		int position = length;
+		u1(LOOKUPSWITCH);
+		while (length % 4 != 0)
+			u1(0);
+		fixups.add(new Fixup(position, length, defaultTarget, true));
+		u4(0);
+		u4(keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			u4(keys[i]);
+			fixups.add(new Fixup(position, length, targets[i], true));
+			u4(0);
+		}
+		stack = 0;
+	}
+
+	public void tableSwitch(int low, Label[] targets, Label defaultTarget) {
+		int position = length;
+		u1(TABLESWITCH);
+		while (length % 4 != 0)
+			u1(0);
+		fixups.add(new Fixup(position, length, defaultTarget, true));
+		u4(0);
+		u4(low);
+		u4(low + targets.length - 1);
+		for (Label target : targets) {
+			fixups.add(new Fixup(position, length, target, true));
+			u4(0);
+		}
+		stack = 0;
+	}
+
+	public void mark(Label label) {
+		if (label.position >= 0)
+			throw new IllegalStateException("Label already marked");
+		label.position = length;
+	}
+
+	/**
+	 * Marks the start of an exception handler, the exception is on the stack.
+	 */
+	public void markHandler(Label label) {
+		mark(label);
+		stack = 0;
+		adjust(1);
+	}
+
+	/**
+	 * @param type internal name of the exception class
+	 */
+	public void tryCatch(Label start, Label end, Label handler, String type) {
+		handlers.add(new TryCatch(start, end, handler, pool.classRef(type)));
+	}
+
+	byte[] toByteArray() {
+		for (Fixup f : fixups) {
+			if (f.target.position < 0)
+				throw new IllegalStateException("Label not marked");
+			int offset = f.target.position - f.instruction;
+			if (f.wide) {
+				code[f.patch] = (byte) (offset >>> 24);
+				code[f.patch + 1] = (byte) (offset >>> 16);
+				code[f.patch + 2] = (byte) (offset >>> 8);
+				code[f.patch + 3] = (byte) offset;
+			} else {
+				if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+					throw new IllegalStateException("Branch offset out of range");
+				code[f.patch] = (byte) (offset >>> 8);
+				code[f.patch + 1] = (byte) offset;
+			}
+		}
+		if (length > 0xFFFF)
+			throw new IllegalStateException("Method too large: " + length + " bytes");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(length);
+			out.write(code, 0, length);
+			out.writeShort(handlers.size());
+			for (TryCatch h : handlers) {
+				out.writeShort(h.start.position);
+				out.writeShort(h.end.position);
+				out.writeShort(h.handler.position);
+				out.writeShort(h.type);
+			}
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static class Fixup {
+		final int instruction;
+		final int patch;
+		final Label target;
+		final boolean wide;
+
+		Fixup(int instruction, int patch, Label target, boolean wide) {
+			this.instruction = instruction;
+			this.patch = patch;
+			this.target = target;
+			this.wide = wide;
+		}
+	}
+
+	private static class TryCatch {
+		final Label start;
+		final Label end;
+		final Label handler;
+		final int type;
+
+		TryCatch(Label start, Label end, Label handler, int type) {
+			this.start = start;
+			this.end = end;
+			this.handler = handler;
+			this.type = type;
+		}
+	}
+}
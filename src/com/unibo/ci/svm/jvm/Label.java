@@ -0,0 +1,9 @@
+package com.unibo.ci.svm.jvm;
+
+/**
+ * A position in a {@link Code} buffer, it can be used as a jump target
+ * before being marked.
+ */
+public class Label {
+	int position = -1;
+}
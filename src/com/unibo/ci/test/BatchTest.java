@@ -0,0 +1,103 @@
+package com.unibo.ci.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Runs --batch on a directory with a program that halts, the same one in a
+ * subdirectory, one that does not compile and one that loops: the summary
+ * must list one row per source with its status, count them, and the exit
+ * code must be 1 only if a file failed. Main exits, so it runs in another
+ * JVM with the class path of this one.
+ *
+ * Usage: BatchTest [dir], the programs are copied from test0.slp and
+ * test1.slp of dir (default test/); exits with 1 if a check fails.
+ */
+public class BatchTest {
+	private static final String LOOP = "{\n\tvoid f(int y){\n\t\tf(y);\n\t}\n\tf(1);\n}\n";
+
+	private static int failed = 0;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File dir = new File(args.length > 0 ? args[0] : "test/");
+		Path batch = Files.createTempDirectory("batch");
+		try {
+			Files.createDirectories(batch.resolve("nested"));
+			Files.copy(new File(dir, "test0.slp").toPath(), batch.resolve("ok.slp"));
+			Files.copy(new File(dir, "test0.slp").toPath(), batch.resolve("nested/ok.slp"));
+			Files.copy(new File(dir, "test1.slp").toPath(), batch.resolve("effect.slp"));
+			Files.write(batch.resolve("loop.slp"), LOOP.getBytes(StandardCharsets.UTF_8));
+			Files.write(batch.resolve("notes.txt"), "not a source".getBytes(StandardCharsets.UTF_8));
+
+			check("run", batch, new String[] { "--batch", batch.toString(), "--batch-run", "--max-fuel", "1000",
+					"--threads", "2" }, 1, "EFFECT effect.slp", "FUEL_LIMIT loop.slp", "HALTED nested/ok.slp",
+					"HALTED ok.slp", "Files: 4, ok 2, failed 2", "{EFFECT=1, FUEL_LIMIT=1, HALTED=2}");
+			check("compile", batch, new String[] { "--batch", batch.toString() }, 1, "EFFECT effect.slp",
+					"OK loop.slp", "OK nested/ok.slp", "OK ok.slp", "Files: 4, ok 3, failed 1", "{EFFECT=1, OK=3}");
+			Path nested = batch.resolve("nested");
+			check("all halt", nested, new String[] { "--batch", nested.toString(), "--batch-run" }, 0,
+					"HALTED ok.slp", "Files: 1, ok 1, failed 0", "{HALTED=1}");
+		} finally {
+			try (Stream<Path> files = Files.walk(batch)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Runs Main with the arguments.
+	 *
+	 * @param rows status and file of each row in order, then parts of the
+	 *             summary line
+	 */
+	private static void check(String name, Path directory, String[] args, int code, String... rows)
+			throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>(Arrays.asList(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java", "-cp",
+				System.getProperty("java.class.path"), "com.unibo.ci.Main"));
+		command.addAll(Arrays.asList(args));
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		String output = read(process.getInputStream());
+		int exit = process.waitFor();
+
+		// rows: status, times, fuel and the file relative to the directory
+		List<String> actual = new ArrayList<>();
+		String summary = "";
+		for (String line : output.split("\n")) {
+			String[] columns = line.trim().split("\\s+");
+			if (line.startsWith("Files: "))
+				summary = line;
+			else if (columns.length == 5 && columns[4].endsWith(".slp"))
+				actual.add(columns[0] + " " + columns[4].replace(File.separatorChar, '/'));
+		}
+		int files = rows.length - 2;
+		boolean ok = exit == code && actual.equals(Arrays.asList(rows).subList(0, files))
+				&& summary.startsWith(rows[files]) && summary.endsWith(rows[files + 1]);
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": exit " + exit + ", " + actual + ", " + summary
+				+ (ok ? "" : "\n" + output));
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n; (n = in.read(buffer)) > 0;)
+			bytes.write(buffer, 0, n);
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
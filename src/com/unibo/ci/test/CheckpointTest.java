@@ -0,0 +1,128 @@
+package com.unibo.ci.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.unibo.ci.CompileOptions;
+import com.unibo.ci.CompileResult;
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.RunResult;
+import com.unibo.ci.svm.SVM;
+
+/**
+ * Stops the test programs halfway, saves a checkpoint and resumes it in a
+ * new SVM on every memory backend: the two halves must print what a single
+ * run prints and end the same way. A checkpoint must not be restored for
+ * another program, nor when the file is damaged.
+ *
+ * Usage: CheckpointTest [dir], the programs are compiled from the .slp files
+ * of dir (default test/); exits with 1 if a check fails.
+ */
+public class CheckpointTest {
+	private static final String[] KINDS = { "flat", "segmented", "offheap" };
+	private static final int MEMORY = 1 << 16;
+
+	private static int failed = 0;
+
+	public static void main(String[] args) throws IOException {
+		Path file = Files.createTempFile("checkpoint", ".svmc");
+		try {
+			// prints 1 to 1000
+			Program loop = Program.load(PeepholeTest.code("li $t1 0", "li $al 1", "li $cl 1000", "add $t1 $t1 $al",
+					"print $t1", "beq $t1 $cl 7", "b 3", "halt"));
+			for (String kind : KINDS)
+				resume("loop " + kind, loop, kind, file);
+
+			File dir = new File(args.length > 0 ? args[0] : "test/");
+			for (String name : dir.list()) {
+				if (!name.endsWith(".slp"))
+					continue;
+				String source = new String(Files.readAllBytes(new File(dir, name).toPath()));
+				CompileResult result = com.unibo.ci.Compiler.compile(source, CompileOptions.DEFAULT);
+				if (result.isSuccess())
+					for (String kind : KINDS)
+						resume(name + " " + kind, result.getProgram(), kind, file);
+			}
+
+			SVM vm = new SVM(MEMORY, "flat", loop, new CaptureOutputSink());
+			vm.checkpoint(file.toString());
+			Program other = Program.load(PeepholeTest.code("li $a0 1", "print $a0", "halt"));
+			reject("another program", other, file);
+			byte[] valid = Files.readAllBytes(file);
+			byte[] bytes = valid.clone();
+			ByteBuffer.wrap(bytes).putInt(0, 0);
+			Files.write(file, bytes);
+			reject("magic", loop, file);
+			Files.write(file, Arrays.copyOf(valid, valid.length - 4));
+			reject("truncated", loop, file);
+
+			// one checkpoint every million units of fuel
+			Files.delete(file);
+			Program forever = Program.load(PeepholeTest.code("li $t1 0", "li $al 1", "add $t1 $t1 $al", "b 2"));
+			vm = new SVM(MEMORY, "flat", forever, new CaptureOutputSink());
+			vm.setLimits(Limits.DEFAULT.withMaxFuel(3_000_000));
+			vm.setCheckpoints(file.toString(), 1);
+			RunResult result = run(vm, Long.MAX_VALUE);
+			check("periodic", result != null && result.getStatus() == RunResult.Status.FUEL_LIMIT
+					&& Files.exists(file), String.valueOf(result));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	private static void resume(String name, Program program, String kind, Path file) throws IOException {
+		CaptureOutputSink whole = new CaptureOutputSink();
+		RunResult expected = run(new SVM(MEMORY, kind, program, whole), Long.MAX_VALUE);
+
+		// halfway by fuel, at the start if the program has no loops or fails
+		CaptureOutputSink first = new CaptureOutputSink();
+		SVM vm = new SVM(MEMORY, kind, program, first);
+		if (expected != null && expected.getFuel() > 1)
+			run(vm, expected.getFuel() / 2);
+		vm.checkpoint(file.toString());
+
+		CaptureOutputSink second = new CaptureOutputSink();
+		RunResult result = run(SVM.restore(file.toString(), program, second), Long.MAX_VALUE);
+		String status = result != null ? result.getStatus().toString() : "FAULT";
+		String output = first.getOutput() + second.getOutput();
+		check(name, status.equals(expected != null ? expected.getStatus().toString() : "FAULT")
+				&& output.equals(whole.getOutput()),
+				status + " after " + first.getLines().size() + " + " + second.getLines().size() + " lines");
+	}
+
+	/**
+	 * @return the result of the run, null if it fails
+	 */
+	private static RunResult run(SVM vm, long quantum) {
+		try {
+			return vm.run(quantum);
+		} catch (SVM.MemoryAccessException e) {
+			return null;
+		}
+	}
+
+	private static void reject(String name, Program program, Path file) {
+		try {
+			SVM.restore(file.toString(), program, new CaptureOutputSink());
+			check(name, false, "restored");
+		} catch (IOException e) {
+			check(name, true, e.getMessage().replace(file.toString(), "file"));
+		}
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + detail);
+	}
+}
@@ -0,0 +1,117 @@
+package com.unibo.ci.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.unibo.ci.CompileCache;
+import com.unibo.ci.CompileOptions;
+import com.unibo.ci.CompileResult;
+import com.unibo.ci.svm.ProgramFile;
+
+/**
+ * Compiles the test programs through the cache: a source seen again must
+ * be a hit with the same result, the least recently used results must go
+ * first, and a new cache on the same directory must load from the disk the
+ * programs and the warnings of a compilation, compiling again only the
+ * damaged files and the compilations that ask for the assembly text.
+ *
+ * Usage: CompileCacheTest [dir], the programs are the .slp files of dir
+ * (default test/); exits with 1 if a check fails.
+ */
+public class CompileCacheTest {
+	private static int failed = 0;
+
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "test/");
+		List<String> sources = new ArrayList<>();
+		String[] names = dir.list();
+		Arrays.sort(names);
+		for (String name : names)
+			if (name.endsWith(".slp"))
+				sources.add(new String(Files.readAllBytes(new File(dir, name).toPath())));
+		String a = sources.get(0);
+		String b = sources.get(1);
+		String c = sources.get(2);
+		CompileOptions options = CompileOptions.DEFAULT;
+
+		CompileCache cache = new CompileCache(2, null);
+		CompileResult first = cache.compile(a, options);
+		check("hit", cache.compile(a, options) == first && cache.getHits() == 1 && cache.getMisses() == 1,
+				cache.getHits() + " hits, " + cache.getMisses() + " misses");
+		check("options", cache.compile(a, options.withOptimize(true)) != first && cache.getMisses() == 2,
+				cache.getMisses() + " misses");
+
+		// a is used after b, so b goes first and then c
+		cache = new CompileCache(2, null);
+		cache.compile(a, options);
+		cache.compile(b, options);
+		cache.compile(a, options);
+		cache.compile(c, options);
+		cache.compile(a, options);
+		cache.compile(b, options);
+		check("eviction", cache.getHits() == 2 && cache.getMisses() == 4 && cache.getEvictions() == 2,
+				cache.getHits() + " hits, " + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions");
+
+		Path directory = Files.createTempDirectory("cache");
+		try {
+			cache = new CompileCache(sources.size(), directory);
+			List<CompileResult> compiled = new ArrayList<>();
+			for (String source : sources)
+				compiled.add(cache.compile(source, options));
+
+			cache = new CompileCache(sources.size(), directory);
+			int loaded = 0;
+			boolean same = true;
+			for (int i = 0; i < sources.size(); i++) {
+				CompileResult result = cache.compile(sources.get(i), options);
+				if (!compiled.get(i).isSuccess())
+					continue;
+				loaded++;
+				same &= result.getAst() == null
+						&& Arrays.equals(result.getProgram().getHash(), compiled.get(i).getProgram().getHash())
+						&& result.getDiagnostics().toString().equals(compiled.get(i).getDiagnostics().toString());
+			}
+			check("disk", same && cache.getMisses() == sources.size() - loaded,
+					loaded + " loaded, " + cache.getMisses() + " compiled");
+
+			CompileResult assembly = cache.compile(a, options.withAssembly(true, false));
+			check("disk assembly", assembly.getAst() != null && assembly.getAssembly() != null,
+					assembly.getAst() != null ? "compiled" : "loaded");
+
+			try (Stream<Path> files = Files.list(directory)) {
+				files.filter(f -> f.toString().endsWith(ProgramFile.EXTENSION)).forEach(f -> {
+					try {
+						Files.write(f, new byte[] { 1, 2, 3 });
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				});
+			}
+			cache = new CompileCache(sources.size(), directory);
+			CompileResult damaged = cache.compile(a, options);
+			check("disk damaged", damaged.getAst() != null && Arrays.equals(damaged.getProgram().getHash(),
+					compiled.get(0).getProgram().getHash()), damaged.getAst() != null ? "compiled" : "loaded");
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + detail);
+	}
+}
@@ -0,0 +1,217 @@
+package com.unibo.ci.test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.unibo.ci.CompileOptions;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.ProgramFile;
+
+/**
+ * Starts a daemon in another JVM and sends it requests written byte by byte
+ * as the protocol says: the answer must be a sequence of frames with the
+ * program output, the messages, the assembly or the binary program and the
+ * exit code last. A request of another version is refused with a message,
+ * and a client run must print what a local run prints.
+ *
+ * Usage: DaemonTest [dir], the programs are compiled from test0.slp and
+ * test8.slp of dir (default test/); exits with 1 if a check fails.
+ */
+public class DaemonTest {
+	// the protocol, see Daemon
+	private static final int MAGIC = 0x534c5044;
+	private static final int VERSION = 2;
+	private static final int OUT = 1, ERR = 2, EXIT = 3, ASSEMBLY = 4, PROGRAM = 5;
+
+	private static int failed = 0;
+
+	public static void main(String[] args) throws Exception {
+		File dir = new File(args.length > 0 ? args[0] : "test/");
+		String test0 = new String(Files.readAllBytes(new File(dir, "test0.slp").toPath()), StandardCharsets.UTF_8);
+		String test8 = new String(Files.readAllBytes(new File(dir, "test8.slp").toPath()),
+				StandardCharsets.UTF_8);
+		int port;
+		try (ServerSocket free = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			port = free.getLocalPort();
+		}
+		Process daemon = java("--daemon", "--port", String.valueOf(port)).redirectErrorStream(true).start();
+		try {
+			BufferedReader log = new BufferedReader(
+					new InputStreamReader(daemon.getInputStream(), StandardCharsets.UTF_8));
+			for (String line; (line = log.readLine()) != null && !line.startsWith("INFO: Listening");)
+				;
+
+			List<Frame> frames = send(port, request(test8, false, false));
+			check("run", frames, "OUT 1\n", "exit 0");
+			check("run messages", text(frames, ERR).contains("INFO: Starting SVM"), text(frames, ERR).trim());
+
+			frames = send(port, request(test0, true, false));
+			check("assembly", text(frames, ASSEMBLY).contains("halt") && exit(frames) == 0,
+					text(frames, ASSEMBLY).split("\n").length + " lines, exit " + exit(frames));
+
+			frames = send(port, request(test0, false, true));
+			Path file = Files.createTempFile("daemon", ProgramFile.EXTENSION);
+			try {
+				Files.write(file, bytes(frames, PROGRAM));
+				Program program = ProgramFile.load(file.toString());
+				Program local = com.unibo.ci.Compiler.compile(test0, CompileOptions.DEFAULT).getProgram();
+				check("program", Arrays.equals(program.getHash(), local.getHash()) && exit(frames) == 0,
+						program.size() + " instructions, exit " + exit(frames));
+			} finally {
+				Files.deleteIfExists(file);
+			}
+
+			frames = send(port, request("{ int x = ; }", false, false));
+			check("syntax error", text(frames, ERR).startsWith("SEVERE: ") && exit(frames) == -1,
+					"exit " + exit(frames));
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION + 1);
+			frames = send(port, bytes.toByteArray());
+			check("version", text(frames, ERR).startsWith("SEVERE: Invalid request") && exit(frames) == 1,
+					text(frames, ERR).trim() + ", exit " + exit(frames));
+
+			String source = new File(dir, "test8.slp").getPath();
+			String local = read(java(source).start().getInputStream());
+			Process client = java(source, "--client", "--port", String.valueOf(port)).start();
+			String remote = read(client.getInputStream());
+			check("client", remote.equals(local) && client.waitFor() == 0, remote.trim());
+		} finally {
+			daemon.destroy();
+			daemon.waitFor();
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * @return the request of a run with the default limits and engine
+	 */
+	private static byte[] request(String source, boolean assembly, boolean program) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		byte[] text = source.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(text.length);
+		out.write(text);
+		out.writeBoolean(false); // optimize
+		out.writeBoolean(assembly);
+		out.writeBoolean(false); // comments
+		out.writeBoolean(false); // AST
+		out.writeBoolean(program);
+		out.writeInt(1 << 16); // memory
+		out.writeLong(Long.MAX_VALUE); // fuel
+		out.writeInt(Integer.MAX_VALUE); // stack
+		out.writeInt(Integer.MAX_VALUE); // heap
+		out.writeLong(0); // time
+		byte[] engine = "switch".getBytes(StandardCharsets.UTF_8);
+		out.writeInt(engine.length);
+		out.write(engine);
+		out.writeBoolean(false); // gc
+		out.writeBoolean(false); // stats
+		out.writeBoolean(false); // unbuffered
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return the frames of the answer, up to the exit frame
+	 */
+	private static List<Frame> send(int port, byte[] request) throws IOException {
+		List<Frame> frames = new ArrayList<>();
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.getOutputStream().write(request);
+			socket.getOutputStream().flush();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			while (true) {
+				int type = in.readByte();
+				int length = in.readInt();
+				byte[] bytes = new byte[type == EXIT ? 0 : length];
+				in.readFully(bytes);
+				frames.add(new Frame(type, type == EXIT ? length : 0, bytes));
+				if (type == EXIT)
+					break;
+			}
+			check("framing", in.read() < 0, frames.size() + " frames, then the end of the stream");
+		}
+		return frames;
+	}
+
+	private static byte[] bytes(List<Frame> frames, int type) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (Frame f : frames)
+			if (f.type == type)
+				bytes.write(f.bytes, 0, f.bytes.length);
+		return bytes.toByteArray();
+	}
+
+	private static String text(List<Frame> frames, int type) {
+		return new String(bytes(frames, type), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the code of the exit frame, which must be the last one
+	 */
+	private static int exit(List<Frame> frames) {
+		Frame last = frames.get(frames.size() - 1);
+		return last.type == EXIT ? last.code : Integer.MIN_VALUE;
+	}
+
+	private static ProcessBuilder java(String... args) {
+		List<String> command = new ArrayList<>(Arrays.asList(
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java", "-cp",
+				System.getProperty("java.class.path"), "com.unibo.ci.Main"));
+		command.addAll(Arrays.asList(args));
+		return new ProcessBuilder(command);
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n; (n = in.read(buffer)) > 0;)
+			bytes.write(buffer, 0, n);
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void check(String name, List<Frame> frames, String output, String exit) {
+		String actual = "OUT " + text(frames, OUT) + "exit " + exit(frames);
+		check(name, actual.equals(output + exit), actual.replace("\n", " "));
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + detail);
+	}
+
+	private static final class Frame {
+		final int type;
+		final int code; // of the exit frame
+		final byte[] bytes;
+
+		Frame(int type, int code, byte[] bytes) {
+			this.type = type;
+			this.code = code;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.unibo.ci.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import com.unibo.ci.CompileOptions;
+import com.unibo.ci.CompileResult;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.SVMVisitorImpl;
+import com.unibo.ci.svm.lexer.SVMLexer;
+import com.unibo.ci.svm.lexer.SVMParser;
+
+/**
+ * Compiles every .slp file both to instructions and to assembly text: the
+ * program read back from the text by the assembler must be the same as the
+ * one emitted directly, with and without the optimizer.
+ *
+ * Usage: EmitterTest [dir], default test/; exits with 1 if a program differs.
+ */
+public class EmitterTest {
+	private static int failed = 0;
+
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "test/");
+		for (String name : dir.list()) {
+			if (!name.endsWith(".slp"))
+				continue;
+			String source = new String(Files.readAllBytes(new File(dir, name).toPath()));
+			check(name, source, CompileOptions.DEFAULT.withAssembly(true, true));
+			check(name + " -O", source, CompileOptions.DEFAULT.withAssembly(true, false).withOptimize(true));
+		}
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	private static void check(String name, String source, CompileOptions options) {
+		CompileResult result = com.unibo.ci.Compiler.compile(source, options);
+		if (!result.isSuccess()) {
+			System.out.println("skip   " + name + ": does not compile");
+			return;
+		}
+		Program emitted = result.getProgram();
+		Program assembled = assemble(result.getAssembly());
+		boolean ok = assembled != null && emitted.getCode().toString().equals(assembled.getCode().toString())
+				&& Arrays.equals(emitted.getHash(), assembled.getHash());
+		for (int address = 0; ok && address < emitted.size(); address++)
+			ok = String.valueOf(emitted.getLabel(address)).equals(String.valueOf(assembled.getLabel(address)));
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + emitted.size() + " instructions");
+	}
+
+	/**
+	 * @return the program read from the text, null if it does not parse
+	 */
+	private static Program assemble(String assembly) {
+		SVMLexer lexer = new SVMLexer(CharStreams.fromString(assembly));
+		SVMParser parser = new SVMParser(new CommonTokenStream(lexer));
+		SVMParser.AssemblyContext tree = parser.assembly();
+		if (lexer.errorCount() > 0 || parser.getNumberOfSyntaxErrors() > 0)
+			return null;
+		SVMVisitorImpl visitor = new SVMVisitorImpl();
+		visitor.visit(tree);
+		return Program.load(visitor.getCode(), visitor.getLabels());
+	}
+}
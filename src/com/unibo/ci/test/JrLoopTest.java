@@ -0,0 +1,75 @@
+package com.unibo.ci.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Execution;
+import com.unibo.ci.svm.Instruction;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.RunResult;
+
+/**
+ * Runs the loops made only of jr on every engine: they must stop at the
+ * limits like the loops of the branches, and a jr outside the program must
+ * fail the run instead of halting or pausing it.
+ *
+ * Usage: JrLoopTest, exits with 1 if an engine does not stop as expected.
+ */
+public class JrLoopTest {
+	private static final String[] ENGINES = { "switch", "threaded", "aot", "tiered" };
+
+	private static int failed = 0;
+
+	public static void main(String[] args) {
+		// li $t1 2; li $a0 1; jr $t1
+		List<Instruction> loop = Arrays.asList(li("$t1", 2), li("$a0", 1), jr("$t1"));
+		// a function called until its third call, that then jumps to itself
+		List<Instruction> function = Arrays.asList(li("$al", 0), li("$cl", 3), jump("jal", 4), jump("b", 2),
+				new Instruction("addi", "$al", 0, "$al", "1"), new Instruction("beq", "$al", 0, "$cl", "7"),
+				jr("$ra"), li("$t1", 7), jr("$t1"));
+		Limits fuel = Limits.DEFAULT.withMemorySize(1 << 10).withMaxFuel(1000).withTimeLimit(500);
+		Limits time = Limits.DEFAULT.withMemorySize(1 << 10).withTimeLimit(200);
+
+		for (String engine : ENGINES) {
+			check("loop", loop, engine, fuel, RunResult.Status.FUEL_LIMIT);
+			check("loop", loop, engine, time, RunResult.Status.TIME_LIMIT);
+			check("function", function, engine, fuel, RunResult.Status.FUEL_LIMIT);
+			for (int target : new int[] { -1, -2, 3 })
+				check("jr " + target, Arrays.asList(li("$t1", target), jr("$t1")), engine, fuel,
+						RunResult.Status.FAULT);
+		}
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	private static void check(String name, List<Instruction> code, String engine, Limits limits,
+			RunResult.Status expected) {
+		// a new program every time, so the tiered engine starts with its counters at 0
+		Program program = Program.load(code);
+		try (Execution execution = program.newExecution(limits, new CaptureOutputSink())) {
+			execution.getVM().setEngine(engine);
+			execution.getVM().setJitThreshold(1);
+			RunResult result = execution.run();
+			boolean ok = result.getStatus() == expected;
+			if (!ok)
+				failed++;
+			System.out.println((ok ? "ok     " : "FAILED ") + engine + " " + name + ": " + result.getStatus()
+					+ (ok ? "" : ", expected " + expected));
+		}
+	}
+
+	private static Instruction li(String register, int value) {
+		return new Instruction("li", register, 0, Integer.toString(value), null);
+	}
+
+	private static Instruction jr(String register) {
+		return new Instruction("jr", register, 0, null, null);
+	}
+
+	private static Instruction jump(String instruction, int target) {
+		return new Instruction(instruction, Integer.toString(target), 0, null, null);
+	}
+}
@@ -0,0 +1,96 @@
+package com.unibo.ci.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.SVM;
+
+/**
+ * Dumps the memory of a program that writes two cells of the heap and two
+ * of the stack in a memory of a million cells: the dump at the halt must
+ * list only those cells, on every engine and memory backend, and the debug
+ * dumps after the first one only the cell written by each instruction.
+ *
+ * Usage: MemoryDumpTest, exits with 1 if a check fails.
+ */
+public class MemoryDumpTest {
+	private static final String[] ENGINES = { "switch", "threaded", "aot", "tiered" };
+	private static final String[] KINDS = { "flat", "segmented", "offheap" };
+	private static final int MEMORY = 1 << 20;
+	private static final Pattern CELL = Pattern.compile("  \\| (\\d+)\t\t\\| (-?\\d+)\t\\|");
+	private static final Pattern INSTRUCTION = Pattern.compile("Instruction: .*");
+
+	private static int failed = 0;
+
+	public static void main(String[] args) {
+		Program program = Program.load(PeepholeTest.code("li $t1 5", "sw $t1 0($hp)", "sw $t1 0($hp)", "li $a0 7",
+				"push $a0", "push $a0", "halt"));
+		String expected = "[0=5, 1=5, " + (MEMORY - 2) + "=7, " + (MEMORY - 1) + "=7]";
+		for (String engine : ENGINES)
+			check("print " + engine, expected, cells(run(program, engine, "flat", false)).toString());
+		for (String kind : KINDS)
+			check("print " + kind, expected, cells(run(program, "switch", kind, false)).toString());
+
+		// one dump per instruction: the full one, then the cells written by each
+		List<String> dumps = new ArrayList<>();
+		for (String dump : INSTRUCTION.split(run(program, "switch", "flat", true)))
+			if (!dump.isEmpty())
+				dumps.add(cells(dump).toString());
+		check("debug", "[[], [0=5], [1=5], [], [" + (MEMORY - 1) + "=7], [" + (MEMORY - 2) + "=7]]",
+				dumps.subList(0, Math.min(dumps.size(), 6)).toString());
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * @return what the SVM writes on stderr
+	 */
+	private static String run(Program program, String engine, String kind, boolean debug) {
+		PrintStream err = System.err;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(bytes, true));
+		try {
+			SVM vm = new SVM(MEMORY, kind, program, new CaptureOutputSink());
+			vm.setLimits(Limits.DEFAULT);
+			vm.setEngine(engine);
+			vm.setJitThreshold(1);
+			if (debug)
+				vm.setListener(vm.debugPrinter());
+			else
+				vm.setMemoryDump(true);
+			vm.run();
+		} catch (SVM.MemoryAccessException e) {
+			return e.getMessage();
+		} finally {
+			System.setErr(err);
+		}
+		return bytes.toString();
+	}
+
+	/**
+	 * @return the cells of the dump, as address=value
+	 */
+	private static List<String> cells(String dump) {
+		List<String> cells = new ArrayList<>();
+		Matcher matcher = CELL.matcher(dump);
+		while (matcher.find())
+			cells.add(matcher.group(1) + "=" + matcher.group(2));
+		return cells;
+	}
+
+	private static void check(String name, String expected, String actual) {
+		boolean ok = expected.equals(actual);
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + actual + (ok ? "" : ", expected " + expected));
+	}
+}
@@ -0,0 +1,136 @@
+package com.unibo.ci.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.unibo.ci.CompileOptions;
+import com.unibo.ci.CompileResult;
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Execution;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.Memory;
+import com.unibo.ci.svm.Program;
+
+/**
+ * Compares every memory backend with a plain array on random writes, reads,
+ * searches and clears, with sizes around the chunk boundaries, then runs the
+ * test programs on each backend: the output must be the same as with the
+ * flat memory. A large segmented memory must commit only the chunks that
+ * are written, an off-heap memory must work across its mappings.
+ *
+ * Usage: MemoryTest [dir], the programs are compiled from the .slp files of
+ * dir (default test/); exits with 1 if a check fails.
+ */
+public class MemoryTest {
+	private static final String[] KINDS = { "flat", "segmented", "offheap" };
+	private static final int CHUNK = 1 << 12; // cells of a segment
+	private static final int REGION = 1 << 28; // cells of a mapping of the off-heap memory
+	private static final int[] SIZES = { 1, 63, 64, CHUNK - 1, CHUNK, CHUNK + 1, 3 * CHUNK + 17, 100_000 };
+
+	private static int failed = 0;
+
+	public static void main(String[] args) throws IOException {
+		for (String kind : KINDS)
+			for (int size : SIZES)
+				compare(kind, size, new Random(size));
+
+		Memory large = Memory.create(1 << 26, "segmented");
+		large.write(0, 1);
+		large.write(large.size() - 1, 2);
+		check("segmented 64M cells", large.getCommitted() < 2 * (CHUNK + CHUNK / 32) * 4 + 1,
+				large.getCommitted() + " bytes committed");
+
+		Memory offHeap = Memory.create(REGION + 64, "offheap");
+		int[] edge = { 0, REGION - 1, REGION, REGION + 63 };
+		for (int address : edge)
+			offHeap.write(address, ~address);
+		boolean ok = offHeap.nextInitialized(1) == REGION - 1 && offHeap.nextInitialized(REGION + 1) == REGION + 63
+				&& offHeap.nextUninitialized(REGION - 1) == REGION + 1;
+		for (int address : edge)
+			ok &= offHeap.isInitialized(address) && offHeap.read(address) == ~address;
+		offHeap.clear(REGION - 1, REGION + 1);
+		ok &= !offHeap.isInitialized(REGION - 1) && !offHeap.isInitialized(REGION)
+				&& offHeap.nextInitialized(1) == REGION + 63;
+		check("offheap across the mappings", ok, (REGION + 64) + " cells");
+
+		File dir = new File(args.length > 0 ? args[0] : "test/");
+		for (String name : dir.list()) {
+			if (!name.endsWith(".slp"))
+				continue;
+			String source = new String(Files.readAllBytes(new File(dir, name).toPath()));
+			CompileResult result = com.unibo.ci.Compiler.compile(source, CompileOptions.DEFAULT);
+			if (!result.isSuccess())
+				continue;
+			String expected = run(result.getProgram(), "flat");
+			for (String kind : KINDS)
+				check(name + " " + kind, run(result.getProgram(), kind).equals(expected), expected);
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Applies the same random operations to the memory and to an array.
+	 */
+	private static void compare(String kind, int size, Random random) {
+		Memory memory = Memory.create(size, kind);
+		int[] cells = new int[size];
+		boolean[] written = new boolean[size];
+		String error = null;
+		for (int step = 0; step < 20_000 && error == null; step++) {
+			int address = random.nextInt(size);
+			int operation = random.nextInt(10);
+			if (operation < 5) {
+				int value = random.nextInt();
+				memory.write(address, value);
+				cells[address] = value;
+				written[address] = true;
+			} else if (operation < 9) {
+				if (memory.isInitialized(address) != written[address])
+					error = "isInitialized(" + address + ")";
+				else if (written[address] && memory.read(address) != cells[address])
+					error = "read(" + address + ")";
+				else if (memory.nextInitialized(address) != next(written, address, true))
+					error = "nextInitialized(" + address + ")";
+				else if (memory.nextUninitialized(address) != next(written, address, false))
+					error = "nextUninitialized(" + address + ")";
+			} else {
+				// short ranges more often, sometimes whole chunks
+				if (random.nextInt(4) == 0)
+					address &= ~(CHUNK - 1);
+				int to = Math.min(size, address + 1 + random.nextInt(random.nextBoolean() ? 100 : 3 * CHUNK));
+				memory.clear(address, to);
+				Arrays.fill(written, address, to, false);
+			}
+		}
+		for (int a = 0; a < size && error == null; a++)
+			if (memory.isInitialized(a) != written[a])
+				error = "isInitialized(" + a + ") at the end";
+		check(kind + " " + size + " cells", error == null, error == null ? "same as the array" : error);
+	}
+
+	private static int next(boolean[] written, int from, boolean value) {
+		while (from < written.length && written[from] != value)
+			from++;
+		return from;
+	}
+
+	private static String run(Program program, String kind) {
+		Limits limits = Limits.DEFAULT.withMemorySize(1 << 16).withMemory(kind).withMaxFuel(1 << 24);
+		CaptureOutputSink output = new CaptureOutputSink();
+		try (Execution execution = program.newExecution(limits, output)) {
+			return execution.run().getStatus() + " " + output.getLines();
+		}
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + detail);
+	}
+}
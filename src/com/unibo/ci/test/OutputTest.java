@@ -0,0 +1,85 @@
+package com.unibo.ci.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import com.unibo.ci.svm.BufferedOutputSink;
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Execution;
+import com.unibo.ci.svm.Instruction;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.OutputSink;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.RunResult;
+
+/**
+ * Checks the output of the SVM on every engine: a printchar of a value that
+ * is not a code point fails the run, and a buffered output is written
+ * within the flush interval also while the program runs without printing.
+ *
+ * Usage: OutputTest, exits with 1 if a check fails.
+ */
+public class OutputTest {
+	private static final String[] ENGINES = { "switch", "threaded", "aot", "tiered" };
+	private static final long FLUSH_MILLIS = 20;
+
+	private static int failed = 0;
+
+	public static void main(String[] args) {
+		Limits limits = Limits.DEFAULT.withMemorySize(1 << 10);
+		for (String engine : ENGINES) {
+			for (int value : new int[] { -1, 0x110000 }) {
+				List<Instruction> code = PeepholeTest.code("li $a0 65", "printchar $a0", "li $a0 " + value,
+						"printchar $a0", "halt");
+				CaptureOutputSink output = new CaptureOutputSink();
+				RunResult result = run(Program.load(code), engine, limits, output);
+				check(engine + " printchar " + value, result.getStatus() == RunResult.Status.FAULT
+						&& output.getLines().size() == 1, result + " " + output.getLines());
+			}
+
+			// prints once, then loops until the time limit
+			List<Instruction> loop = PeepholeTest.code("li $a0 7", "print $a0", "li $t1 0", "li $al 1",
+					"add $t1 $t1 $al", "b 4");
+			TimedStream stream = new TimedStream();
+			long start = System.nanoTime();
+			RunResult result = run(Program.load(loop), engine, limits.withTimeLimit(10 * FLUSH_MILLIS),
+					new BufferedOutputSink(stream, BufferedOutputSink.DEFAULT_SIZE, FLUSH_MILLIS));
+			long end = System.nanoTime();
+			long writeMillis = (stream.firstWrite - start) / 1_000_000;
+			check(engine + " flush", result.getStatus() == RunResult.Status.TIME_LIMIT && stream.firstWrite != 0
+					&& end - stream.firstWrite > FLUSH_MILLIS * 1_000_000, "written after " + writeMillis + " of "
+							+ (end - start) / 1_000_000 + " ms");
+		}
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	private static RunResult run(Program program, String engine, Limits limits, OutputSink output) {
+		try (Execution execution = program.newExecution(limits, output)) {
+			execution.getVM().setEngine(engine);
+			execution.getVM().setJitThreshold(1);
+			return execution.run();
+		}
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + detail);
+	}
+
+	/**
+	 * Remembers when it was written the first time.
+	 */
+	private static final class TimedStream extends ByteArrayOutputStream {
+		volatile long firstWrite = 0;
+
+		@Override
+		public synchronized void write(byte[] bytes, int offset, int length) {
+			if (firstWrite == 0 && length > 0)
+				firstWrite = System.nanoTime();
+			super.write(bytes, offset, length);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.unibo.ci.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Execution;
+import com.unibo.ci.svm.Instruction;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.Peephole;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.RunResult;
+
+/**
+ * Runs each rewrite of the peephole optimizer on a small program: the
+ * optimized code must have the expected size and counts, and print the same
+ * as the original. A jr to a computed address must leave the code in place,
+ * a jump out of the program must be rejected.
+ *
+ * Usage: PeepholeTest, exits with 1 if a check fails.
+ */
+public class PeepholeTest {
+	private static final Limits LIMITS = Limits.DEFAULT.withMemorySize(1 << 10).withMaxFuel(1000);
+
+	private static int failed = 0;
+
+	public static void main(String[] args) {
+		check("push $a0; lw $a0 0($sp); pop", 3, "push $a0; lw $a0 0($sp); pop", 3,
+				"li $a0 1", "push $a0", "lw $a0 0($sp)", "pop", "print $a0", "halt");
+		check("addi $r $r 0", 3, "addi $r $r 0", 1,
+				"li $a0 1", "addi $a0 $a0 0", "print $a0", "halt");
+		check("b to next instruction", 3, "b to next instruction", 1,
+				"li $a0 1", "b 2", "print $a0", "halt");
+		check("unreachable", 3, "unreachable", 2,
+				"li $a0 1", "print $a0", "halt", "li $a0 2", "print $a0");
+		// b 3 goes on to 5, then 2, 3 and 4 are left without a way in and b 5
+		// jumps to the next instruction
+		check("branch threaded through b", 3, "branch threaded through b", 1,
+				"li $a0 1", "b 3", "halt", "b 5", "halt", "print $a0", "halt");
+		// $a0 is 1 at the b, so the beq is always taken
+		check("li $a0; li $t1; beq folded", 3, "li $a0; li $t1; beq folded", 1,
+				"li $a0 1", "b 2", "li $t1 1", "beq $a0 $t1 6", "li $a0 7", "print $a0", "print $a0", "halt");
+		// the end of the program is a valid target, the program halts there
+		check("jump to the end", 3, "b to next instruction", 1,
+				"li $a0 1", "print $a0", "b 3");
+		// a function: the code after the jal is live
+		check("function", 6, "unreachable", 1,
+				"li $a0 1", "jal 4", "print $a0", "halt", "addi $a0 $a0 1", "jr $ra", "halt");
+
+		// jr to an address from li: nothing can move, only b chains are threaded
+		Peephole.Result result = check("computed jr", 10, "branch threaded through b", 2,
+				"li $a0 1", "li $t1 5", "jr $t1", "b 8", "halt", "li $a0 42", "print $a0", "b 8", "b 9", "halt");
+		expect("computed jr", "complete", false, result.isComplete());
+		result = check("jr through $a0", 5, "unreachable", 0,
+				"li $a0 4", "mv $ra $a0", "jr $ra", "halt", "halt");
+		expect("jr through $a0", "complete", false, result.isComplete());
+
+		for (String target : new String[] { "-1", "4" }) {
+			List<Instruction> code = code("li $a0 1", "b " + target, "halt");
+			try {
+				Peephole.optimize(code, new HashMap<>());
+				fail("b " + target, "no error");
+			} catch (IllegalArgumentException e) {
+				System.out.println("ok     b " + target + ": " + e.getMessage());
+			}
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	private static Peephole.Result check(String name, int size, String pattern, int count, String... lines) {
+		List<Instruction> code = code(lines);
+		Map<String, Integer> labels = new HashMap<>();
+		Peephole.Result result = Peephole.optimize(code, labels);
+		expect(name, "size", size, result.getCode().size());
+		expect(name, pattern, count, result.getRewrites().get(pattern));
+		expect(name, "output", run(code), run(result.getCode()));
+		return result;
+	}
+
+	private static String run(List<Instruction> code) {
+		CaptureOutputSink output = new CaptureOutputSink();
+		try (Execution execution = Program.load(code).newExecution(LIMITS, output)) {
+			RunResult result = execution.run();
+			return result.getStatus() + " " + output.getLines();
+		}
+	}
+
+	private static void expect(String name, String what, Object expected, Object actual) {
+		if (expected.equals(actual))
+			System.out.println("ok     " + name + ": " + what + " " + actual);
+		else
+			fail(name, what + " " + actual + ", expected " + expected);
+	}
+
+	private static void fail(String name, String message) {
+		failed++;
+		System.out.println("FAILED " + name + ": " + message);
+	}
+
+	/**
+	 * @return the instructions written as in the assembly, with the jumps to
+	 *         addresses
+	 */
+	static List<Instruction> code(String... lines) {
+		List<Instruction> code = new ArrayList<>();
+		for (String line : lines) {
+			String[] words = line.split(" ");
+			if (words[0].equals("lw") || words[0].equals("sw")) {
+				String[] address = words[2].split("[()]");
+				code.add(new Instruction(words[0], words[1], Integer.parseInt(address[0]), address[1], null));
+			} else {
+				code.add(new Instruction(words[0], words.length > 1 ? words[1] : null, 0,
+						words.length > 2 ? words[2] : null, words.length > 3 ? words[3] : null));
+			}
+		}
+		return code;
+	}
+}
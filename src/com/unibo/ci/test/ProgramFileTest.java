@@ -0,0 +1,107 @@
+package com.unibo.ci.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+import com.unibo.ci.CompileOptions;
+import com.unibo.ci.CompileResult;
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Execution;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.ProgramFile;
+
+/**
+ * Writes programs to .svmb files and loads them back: the code, the hash
+ * and the output must not change. Corrupted files must be rejected with an
+ * IOException when they are loaded.
+ *
+ * Usage: ProgramFileTest [dir], the programs are compiled from the .slp
+ * files of dir (default test/); exits with 1 if a check fails.
+ */
+public class ProgramFileTest {
+	private static final Limits LIMITS = Limits.DEFAULT.withMemorySize(1 << 12).withMaxFuel(1 << 20);
+
+	private static int failed = 0;
+
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "test/");
+		Path file = Files.createTempFile("program", ProgramFile.EXTENSION);
+		try {
+			// constants that do not fit in the instruction
+			roundTrip("constants", Program.load(PeepholeTest.code("li $a0 100000", "print $a0", "li $a0 -70000",
+					"print $a0", "b 5", "halt")), file);
+			for (String name : dir.list()) {
+				if (!name.endsWith(".slp"))
+					continue;
+				String source = new String(Files.readAllBytes(new File(dir, name).toPath()));
+				CompileResult result = com.unibo.ci.Compiler.compile(source, CompileOptions.DEFAULT);
+				if (result.isSuccess())
+					roundTrip(name, result.getProgram(), file);
+			}
+
+			// li $a0 1; b 2; halt, without constants: the code starts after the header
+			ProgramFile.write(Program.load(PeepholeTest.code("li $a0 1", "b 2", "halt")), file.toString());
+			byte[] valid = Files.readAllBytes(file);
+			corrupt("magic", valid, 0, 0, file);
+			corrupt("version", valid, 4, 0x00020000, file);
+			corrupt("size", valid, 8, 100, file);
+			corrupt("opcode", valid, 20, 0xF8000000, file);
+			corrupt("jump", valid, 24, valid[24] << 24 | 3, file);
+			corrupt("constant", valid, 24, valid[24] << 24 | 1 << 17, file);
+			Files.write(file, Arrays.copyOf(valid, valid.length - 2));
+			reject("truncated", file);
+		} finally {
+			Files.delete(file);
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	private static void roundTrip(String name, Program program, Path file) throws IOException {
+		ProgramFile.write(program, file.toString());
+		Program loaded = ProgramFile.load(file.toString());
+		boolean ok = program.getCode().toString().equals(loaded.getCode().toString())
+				&& Arrays.equals(program.getHash(), loaded.getHash()) && run(program).equals(run(loaded));
+		for (int address = 0; address < program.size(); address++)
+			ok &= Objects.equals(program.getLabel(address), loaded.getLabel(address));
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + program.size() + " instructions, "
+				+ Files.size(file) + " bytes");
+	}
+
+	private static String run(Program program) {
+		CaptureOutputSink output = new CaptureOutputSink();
+		try (Execution execution = program.newExecution(LIMITS, output)) {
+			return execution.run().getStatus() + " " + output.getLines();
+		}
+	}
+
+	/**
+	 * Writes the valid file with the int at offset replaced by value.
+	 */
+	private static void corrupt(String name, byte[] valid, int offset, int value, Path file) throws IOException {
+		byte[] bytes = valid.clone();
+		ByteBuffer.wrap(bytes).putInt(offset, value);
+		Files.write(file, bytes);
+		reject(name, file);
+	}
+
+	private static void reject(String name, Path file) {
+		try {
+			ProgramFile.load(file.toString());
+			failed++;
+			System.out.println("FAILED " + name + ": loaded");
+		} catch (IOException e) {
+			System.out.println("ok     " + name + ": " + e.getMessage().replace(file.toString(), "file"));
+		}
+	}
+}
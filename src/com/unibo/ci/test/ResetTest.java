@@ -0,0 +1,105 @@
+package com.unibo.ci.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.SVM;
+
+/**
+ * Runs a program that writes the heap, a cell between the heap and the
+ * stack and the stack on every engine and memory backend, then resets the
+ * SVM: the first dump of the next run must list no cell, and the run must
+ * print the same. The same for an SVM restored from a checkpoint.
+ *
+ * Usage: ResetTest, exits with 1 if a check fails.
+ */
+public class ResetTest {
+	private static final String[] ENGINES = { "switch", "threaded", "aot", "tiered" };
+	private static final String[] KINDS = { "flat", "segmented", "offheap" };
+	private static final int MEMORY = 1 << 10;
+	private static final Pattern CELL = Pattern.compile("  \\| (\\d+)\t\t\\| (-?\\d+)\t\\|");
+	private static final Pattern INSTRUCTION = Pattern.compile("Instruction: .*");
+
+	private static int failed = 0;
+
+	public static void main(String[] args) throws IOException, SVM.MemoryAccessException {
+		Program program = Program.load(PeepholeTest.code("li $t1 5", "sw $t1 0($hp)", "li $al 500", "sw $t1 0($al)",
+				"lw $a0 0($al)", "print $a0", "push $t1", "li $al 0", "li $cl 100", "addi $cl $cl -1",
+				"beq $cl $al 12", "b 9", "halt"));
+		for (String engine : ENGINES)
+			for (String kind : KINDS) {
+				CaptureOutputSink output = new CaptureOutputSink();
+				SVM vm = new SVM(MEMORY, kind, program, output);
+				vm.setEngine(engine);
+				vm.setJitThreshold(1);
+				check(engine + " " + kind, vm, output, "HALTED [5]");
+			}
+
+		Path file = Files.createTempFile("reset", ".svmc");
+		try {
+			SVM vm = new SVM(MEMORY, "flat", program, new CaptureOutputSink());
+			vm.run(50); // in the loop at the end
+			vm.checkpoint(file.toString());
+			CaptureOutputSink output = new CaptureOutputSink();
+			// the 5 is printed before the checkpoint
+			check("restored", SVM.restore(file.toString(), program, output), output, "HALTED []");
+		} finally {
+			Files.deleteIfExists(file);
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Runs the SVM, resets it and runs it again printing every step.
+	 *
+	 * @param expected status and output of the first run
+	 */
+	private static void check(String name, SVM vm, CaptureOutputSink output, String expected) {
+		String first = "FAULT";
+		String second = "FAULT";
+		String dump = "";
+		PrintStream err = System.err;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			first = vm.run().getStatus() + " " + output.getLines();
+			vm.reset(output = new CaptureOutputSink());
+			vm.setListener(vm.debugPrinter());
+			System.setErr(new PrintStream(bytes, true));
+			second = vm.run().getStatus() + " " + output.getLines();
+		} catch (SVM.MemoryAccessException e) {
+			// the status stays FAULT
+		} finally {
+			System.setErr(err);
+		}
+		for (String step : INSTRUCTION.split(bytes.toString()))
+			if (!step.isEmpty()) {
+				dump = cells(step).toString();
+				break;
+			}
+		boolean ok = first.equals(expected) && second.equals("HALTED [5]") && dump.equals("[]");
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + first + ", " + second + " after the reset, "
+				+ "cells " + dump + (ok ? "" : ", expected []"));
+	}
+
+	private static List<String> cells(String dump) {
+		List<String> cells = new ArrayList<>();
+		Matcher matcher = CELL.matcher(dump);
+		while (matcher.find())
+			cells.add(matcher.group(1) + "=" + matcher.group(2));
+		return cells;
+	}
+}
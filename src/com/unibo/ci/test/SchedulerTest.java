@@ -0,0 +1,128 @@
+package com.unibo.ci.test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.RunResult;
+import com.unibo.ci.svm.Scheduler;
+
+/**
+ * Runs loops on a scheduler with one thread: a job of priority 8 must
+ * receive four quanta for each one of a job of priority 2, jobs with the
+ * same priority must take turns, a short job must not wait for a long one,
+ * and a cancelled or suspended job must leave the thread to the others.
+ *
+ * Usage: SchedulerTest, exits with 1 if a check fails.
+ */
+public class SchedulerTest {
+	private static final long QUANTUM = 1000;
+	private static final long QUANTA = 40; // of each job
+
+	private static int failed = 0;
+
+	public static void main(String[] args) throws Exception {
+		Program loop = Program.load(PeepholeTest.code("li $t1 0", "li $al 1", "add $t1 $t1 $al", "b 2"));
+		Program hello = Program.load(PeepholeTest.code("li $a0 1", "print $a0", "halt"));
+		Limits memory = Limits.DEFAULT.withMemorySize(1 << 10);
+		Limits limits = memory.withMaxFuel(QUANTA * QUANTUM);
+
+		// quanta of the loops when the first one ends: 40 of its own, 10 or 40 of the other
+		check("priority 8 and 2", shares(loop, limits, 8, 2), QUANTA * 5 / 4);
+		check("priority 5 and 5", shares(loop, limits, 5, 5), QUANTA * 2);
+
+		try (Scheduler scheduler = new Scheduler(1, QUANTUM)) {
+			Scheduler.Job forever = scheduler.submit(loop, memory, new CaptureOutputSink());
+			CaptureOutputSink output = new CaptureOutputSink();
+			RunResult result = scheduler.submit(hello, memory, output).getResult().get(10, TimeUnit.SECONDS);
+			check("short after long", result.isHalted() && output.getLines().size() == 1, result.toString());
+
+			boolean cancelled = forever.cancel();
+			String status;
+			try {
+				status = forever.getResult().get().toString();
+			} catch (CancellationException e) {
+				status = "cancelled";
+			}
+			Scheduler.Job next = scheduler.submit(hello, memory, new CaptureOutputSink());
+			result = next.getResult().get(10, TimeUnit.SECONDS);
+			check("cancel", cancelled && status.equals("cancelled") && result.isHalted() && !next.cancel(),
+					status + ", then " + result);
+
+			// parks at the end of a quantum, runs again when resumed
+			Scheduler.Job job = scheduler.submit(loop, memory, new CaptureOutputSink());
+			job.suspend();
+			Thread.sleep(100);
+			long quanta = scheduler.getQuanta();
+			Thread.sleep(100);
+			boolean parked = !job.getResult().isDone() && scheduler.getQuanta() == quanta;
+			job.resume();
+			Thread.sleep(100);
+			boolean resumed = scheduler.getQuanta() > quanta;
+			job.cancel();
+			check("suspend", parked && resumed, (parked ? "parked" : "running") + ", then "
+					+ (scheduler.getQuanta() - quanta) + " quanta after the resume");
+		}
+
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Runs two loops with the same fuel limit, queued behind a job that
+	 * holds the thread until both are submitted.
+	 *
+	 * @return quanta run when the job of the first priority ends, negative
+	 *         if the other one ended before with a lower priority
+	 */
+	private static long shares(Program loop, Limits limits, int first, int second) throws Exception {
+		try (Scheduler scheduler = new Scheduler(1, QUANTUM)) {
+			CountDownLatch gate = new CountDownLatch(1);
+			Program hello = Program.load(PeepholeTest.code("li $a0 1", "print $a0", "halt"));
+			scheduler.submit(hello, limits, new CaptureOutputSink() {
+				@Override
+				public void printInt(int value) {
+					try {
+						gate.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					super.printInt(value);
+				}
+			});
+			long[] quanta = { -1, -1 };
+			Scheduler.Job a = scheduler.submit(loop.newExecution(limits, new CaptureOutputSink()), first);
+			Scheduler.Job b = scheduler.submit(loop.newExecution(limits, new CaptureOutputSink()), second);
+			// counted by the worker as the job ends, a get() could run them later
+			CountDownLatch done = new CountDownLatch(2);
+			a.getResult().thenRun(() -> {
+				quanta[0] = scheduler.getQuanta() - 1;
+				done.countDown();
+			});
+			b.getResult().thenRun(() -> {
+				quanta[1] = scheduler.getQuanta() - 1;
+				done.countDown();
+			});
+			gate.countDown();
+			done.await(10, TimeUnit.SECONDS);
+			return first > second && quanta[1] < quanta[0] ? -quanta[0] : Math.min(quanta[0], quanta[1]);
+		}
+	}
+
+	/**
+	 * @param expected quanta, within 10%
+	 */
+	private static void check(String name, long quanta, long expected) {
+		check(name, Math.abs(quanta - expected) <= expected / 10, quanta + " quanta, expected " + expected);
+	}
+
+	private static void check(String name, boolean ok, String detail) {
+		if (!ok)
+			failed++;
+		System.out.println((ok ? "ok     " : "FAILED ") + name + ": " + detail);
+	}
+}
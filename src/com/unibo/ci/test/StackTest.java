@@ -0,0 +1,69 @@
+package com.unibo.ci.test;
+
+import com.unibo.ci.svm.CaptureOutputSink;
+import com.unibo.ci.svm.Execution;
+import com.unibo.ci.svm.Limits;
+import com.unibo.ci.svm.Program;
+import com.unibo.ci.svm.RunResult;
+
+/**
+ * Grows the stack and the heap against each other and against the limits
+ * on every engine: each run must stop at the instruction that crosses the
+ * boundary, with the same result everywhere, and a program that stays
+ * inside must halt.
+ *
+ * Usage: StackTest, exits with 1 if an engine does not stop as expected.
+ */
+public class StackTest {
+	private static final String[] ENGINES = { "switch", "threaded", "aot", "tiered" };
+
+	private static int failed = 0;
+
+	public static void main(String[] args) {
+		Limits memory = Limits.DEFAULT.withMemorySize(1 << 10);
+		Limits limits = memory.withMaxStackDepth(100).withMaxHeapCells(100);
+		String[] push = { "li $a0 1", "push $a0", "b 1" };
+		String[] setSp = { "addi $sp $sp -2000", "halt" };
+		String[] allocate = { "li $t1 1", "sw $t1 0($hp)", "b 1" };
+		// 500 cells of heap, then the stack grows until it meets them
+		String[] heapThenStack = { "li $t1 1", "li $al 500", "li $cl 0", "sw $t1 0($hp)", "addi $cl $cl 1",
+				"beq $cl $al 7", "b 3", "push $t1", "b 7" };
+		// 500 cells of stack, then the heap grows until it meets them
+		String[] stackThenHeap = { "li $t1 1", "li $al 500", "li $cl 0", "push $t1", "addi $cl $cl 1",
+				"beq $cl $al 7", "b 3", "sw $t1 0($hp)", "b 7" };
+		// 1000 push and 1000 pop in 1024 cells
+		String[] inside = { "li $t1 1", "li $al 1000", "li $cl 0", "push $t1", "addi $cl $cl 1", "beq $cl $al 7",
+				"b 3", "li $cl 0", "pop", "addi $cl $cl 1", "beq $cl $al 12", "b 8", "halt" };
+
+		for (String engine : ENGINES) {
+			check("push", push, engine, memory, RunResult.Status.FAULT, 1, "Stack overflow");
+			check("addi $sp", setSp, engine, memory, RunResult.Status.FAULT, 0, "Stack overflow");
+			check("sw $hp", allocate, engine, memory, RunResult.Status.FAULT, 1, "Heap exhausted");
+			check("heap then stack", heapThenStack, engine, memory, RunResult.Status.FAULT, 7, "Stack overflow");
+			check("stack then heap", stackThenHeap, engine, memory, RunResult.Status.FAULT, 7, "Heap exhausted");
+			check("inside", inside, engine, memory, RunResult.Status.HALTED, 12, "");
+			check("push limit", push, engine, limits, RunResult.Status.STACK_LIMIT, 1, "");
+			check("addi $sp limit", setSp, engine, limits, RunResult.Status.STACK_LIMIT, 0, "");
+			check("sw $hp limit", allocate, engine, limits, RunResult.Status.HEAP_LIMIT, 1, "");
+		}
+		System.out.println(failed == 0 ? "OK" : failed + " failed");
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	private static void check(String name, String[] code, String engine, Limits limits, RunResult.Status status,
+			int pc, String message) {
+		try (Execution execution = Program.load(PeepholeTest.code(code)).newExecution(limits,
+				new CaptureOutputSink())) {
+			execution.getVM().setEngine(engine);
+			execution.getVM().setJitThreshold(1);
+			RunResult result = execution.run();
+			boolean ok = result.getStatus() == status && result.getPc() == pc
+					&& (result.getMessage() == null ? "" : result.getMessage()).startsWith(message);
+			if (!ok)
+				failed++;
+			System.out.println((ok ? "ok     " : "FAILED ") + engine + " " + name + ": " + result
+					+ (ok ? "" : ", expected " + status + " at " + pc));
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.unibo.ci.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.unibo.ci.CompileOptions;
+import com.unibo.ci.ast.errors.TypeError;
+import com.unibo.ci.ast.errors.Warning;
+
+/**
+ * State of a single compilation: options, type errors, warnings and the
+ * label counter. It is passed to every phase, so several compilations can
+ * run in parallel, each with its own context.
+ */
+public class CompilationContext {
+	private final CompileOptions options;
+	private final List<TypeError> typeErrors = new ArrayList<>();
+	private final List<Warning> warnings = new ArrayList<>();
+	private int labelCount = 0;
+
+	public CompilationContext(CompileOptions options) {
+		this.options = options;
+	}
+
+	public CompileOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * Creates a label unique in the compilation: the same source always gets
+	 * the same labels.
+	 *
+	 * @param key prefix of the label
+	 * @return the new label
+	 */
+	public String newLabel(String key) {
+		labelCount += 1;
+		return key + labelCount;
+	}
+
+	public void addTypeError(TypeError error) {
+		typeErrors.add(error);
+	}
+
+	public List<TypeError> getTypeErrors() {
+		return typeErrors;
+	}
+
+	public void addWarning(Warning warning) {
+		warnings.add(warning);
+	}
+
+	public List<Warning> getWarnings() {
+		return warnings;
+	}
+}
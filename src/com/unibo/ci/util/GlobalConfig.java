@@ -3,9 +3,32 @@ package com.unibo.ci.util;
 public class GlobalConfig {
     public static boolean PRINT_COMMENTS = false;
     public static boolean SHOW_MEM = false;
-    public static int MEM_SIZE = 1000;
+    public static int MEM_SIZE = 1 << 26; // cells, allocated on demand
+    public static String MEMORY = "auto"; // flat, segmented, offheap
     public static boolean SHOW_DEBUG = false;
     public static boolean PRINT_AST = false;
-    public static String OUT_FILENAME = "out";
+    public static String OUT_FILENAME = null; // no output file unless -o is given
     public static String INPUT_FILENAME = "";
+    public static String ENGINE = "switch";
+    public static int JIT_THRESHOLD = 1000;
+    public static boolean SHOW_STATS = false;
+    public static boolean OPTIMIZE = false;
+    public static boolean UNBUFFERED = false;
+    public static long FLUSH_INTERVAL = 100; // ms
+    public static boolean GC = false;
+    public static String CHECKPOINT = null; // file written during the run
+    public static long CHECKPOINT_INTERVAL = 1000; // millions of fuel units between checkpoints
+    public static String RESTORE = null; // checkpoint to resume
+    public static String CACHE_DIR = null; // compiled programs saved by source hash
+    public static int TRACE_SIZE = 0; // events kept by the tracer, 0 no tracing
+    public static long MAX_FUEL = 0; // limits of the run, 0 for none
+    public static int MAX_STACK = 0; // cells
+    public static int MAX_HEAP = 0; // cells
+    public static long TIME_LIMIT = 0; // ms
+    public static String BATCH_DIR = null; // directory compiled by --batch
+    public static boolean BATCH_RUN = false; // run the programs of the batch too
+    public static int THREADS = 0; // threads of the batch, 0 one per processor
+    public static boolean DAEMON = false; // serve the clients instead of compiling a file
+    public static boolean CLIENT = false; // compile and run on the daemon
+    public static int PORT = 7077; // loopback port of the daemon
 }
@@ -0,0 +1,58 @@
+package com.unibo.ci.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * Parses in two stages: first in SLL mode, which ignores the calling
+ * context and is much faster, stopping at the first error; only if that
+ * fails the input is parsed again from the start in full LL mode, with
+ * error recovery and the listeners of the parser. A correct source almost
+ * always passes in SLL, a wrong one gets the same errors as before.
+ *
+ * The DFA cache of the generated parsers is static, so both stages share it
+ * with every compilation of the same process.
+ */
+public final class TwoStageParser {
+
+	private TwoStageParser() {
+	}
+
+	/**
+	 * @param parser parser with the error listeners, used only by the second
+	 *               stage
+	 * @param rule   start rule, e.g. SimpLanPlusParser::block
+	 * @return the parse tree
+	 */
+	public static <P extends Parser, T extends ParserRuleContext> T parse(P parser, Function<P, T> rule) {
+		List<ANTLRErrorListener> listeners = new ArrayList<>(parser.getErrorListeners());
+		parser.removeErrorListeners();
+		parser.setErrorHandler(new BailErrorStrategy());
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		T tree;
+		try {
+			tree = rule.apply(parser);
+		} catch (ParseCancellationException e) {
+			tree = null; // a real error or a limit of SLL
+		}
+		// the parser goes back as it was, with LL and error recovery
+		for (ANTLRErrorListener listener : listeners)
+			parser.addErrorListener(listener);
+		parser.setErrorHandler(new DefaultErrorStrategy());
+		parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+		if (tree == null) {
+			parser.reset();
+			tree = rule.apply(parser);
+		}
+		return tree;
+	}
+}